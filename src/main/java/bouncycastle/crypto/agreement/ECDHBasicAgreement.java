@@ -6,6 +6,7 @@ import bouncycastle.crypto.BasicAgreement;
 import bouncycastle.crypto.CipherParameters;
 import bouncycastle.crypto.params.ECPrivateKeyParameters;
 import bouncycastle.crypto.params.ECPublicKeyParameters;
+import bouncycastle.math.ec.ECAlgorithms;
 import bouncycastle.math.ec.ECPoint;
 
 /**
@@ -27,6 +28,24 @@ public class ECDHBasicAgreement
 {
     private ECPrivateKeyParameters key;
 
+    private final boolean ladder;
+
+    public ECDHBasicAgreement()
+    {
+        this(false);
+    }
+
+    /**
+     * @param ladder if true the public keys passed in are multiplied with
+     * the Montgomery ladder, which pays off for keys that are seen only
+     * once, like the ephemeral keys of incoming messages.
+     */
+    public ECDHBasicAgreement(
+        boolean ladder)
+    {
+        this.ladder = ladder;
+    }
+
     public void init(
         CipherParameters key)
     {
@@ -42,7 +61,9 @@ public class ECDHBasicAgreement
         CipherParameters pubKey)
     {
         ECPublicKeyParameters pub = (ECPublicKeyParameters)pubKey;
-        ECPoint P = pub.getQ().multiply(key.getD());
+        ECPoint P = ladder
+            ? ECAlgorithms.montgomeryLadder(pub.getQ(), key.getD())
+            : pub.getQ().multiply(key.getD());
 
         // if (p.isInfinity()) throw new RuntimeException("d*Q == infinity");
 
@@ -12,6 +12,7 @@ import bouncycastle.crypto.EphemeralKeyPair;
 import bouncycastle.crypto.InvalidCipherTextException;
 import bouncycastle.crypto.KeyParser;
 import bouncycastle.crypto.Mac;
+import bouncycastle.crypto.OutputLengthException;
 import bouncycastle.crypto.generators.EphemeralKeyPairGenerator;
 import bouncycastle.crypto.params.AsymmetricKeyParameter;
 import bouncycastle.crypto.params.IESParameters;
@@ -104,6 +105,8 @@ public class IESEngine
         this.pubParam = pubParam;
         this.param = (IESParameters)param;
         this.V = new byte[0];
+        this.keyPairGenerator = null;
+        this.keyParser = null;
     }
 
 
@@ -117,9 +120,31 @@ public class IESEngine
     public void init(AsymmetricKeyParameter publicKey, CipherParameters params, EphemeralKeyPairGenerator ephemeralKeyPairGenerator)
     {
         this.forEncryption = true;
+        this.privParam = null;
         this.pubParam = publicKey;
         this.param = (IESParameters)params;
         this.keyPairGenerator = ephemeralKeyPairGenerator;
+        this.keyParser = null;
+    }
+
+    /**
+     * Initialise the encryptor with an ephemeral key pair that has already
+     * been generated.
+     *
+     * @param publicKey        the recipient's public key parameters
+     * @param params           encoding and derivation parameters.
+     * @param ephemeralKeyPair the ephemeral key pair to use, for this message
+     *                         only.
+     */
+    public void init(AsymmetricKeyParameter publicKey, CipherParameters params, EphemeralKeyPair ephemeralKeyPair)
+    {
+        this.forEncryption = true;
+        this.privParam = ephemeralKeyPair.getKeyPair().getPrivate();
+        this.pubParam = publicKey;
+        this.param = (IESParameters)params;
+        this.V = ephemeralKeyPair.getEncodedPublicKey();
+        this.keyPairGenerator = null;
+        this.keyParser = null;
     }
 
     /**
@@ -133,10 +158,32 @@ public class IESEngine
     {
         this.forEncryption = false;
         this.privParam = privateKey;
+        this.pubParam = null;
         this.param = (IESParameters)params;
+        this.keyPairGenerator = null;
         this.keyParser = publicKeyParser;
     }
 
+    /**
+     * Reset the engine, dropping all keys and parameters it was initialised
+     * with. The engine has to be initialised again before the next use.
+     */
+    public void reset()
+    {
+        this.privParam = null;
+        this.pubParam = null;
+        this.param = null;
+        this.V = null;
+        this.keyPairGenerator = null;
+        this.keyParser = null;
+
+        mac.reset();
+        if (cipher != null)
+        {
+            cipher.reset();
+        }
+    }
+
     public BufferedBlockCipher getCipher()
     {
         return cipher;
@@ -147,60 +194,66 @@ public class IESEngine
         return mac;
     }
 
-    private byte[] encryptBlock(
+    /**
+     * Encrypt <code>in</code> into <code>out</code> as the triple (V,C,T):
+     * the cipher writes C straight behind V and the MAC T straight behind C,
+     * so the only intermediate buffer is the derived key.
+     */
+    private int encryptBlock(
         byte[] in,
         int inOff,
-        int inLen)
+        int inLen,
+        byte[] out,
+        int outOff)
         throws InvalidCipherTextException
     {
-        byte[] C = null, K = null, K1 = null, K2 = null;
+        int macKeyLen = param.getMacKeySize() / 8;
+        int macKeyOff;
+        int cOff = outOff + V.length;
+        byte[] K;
         int len;
 
         if (cipher == null)
         {
             // Streaming mode.
-            K1 = new byte[inLen];
-            K2 = new byte[param.getMacKeySize() / 8];
-            K = new byte[K1.length + K2.length];
+            K = new byte[inLen + macKeyLen];
 
             kdf.generateBytes(K, 0, K.length);
 
+            int cipherKeyOff;
             if (V.length != 0)
             {
-                System.arraycopy(K, 0, K2, 0, K2.length);
-                System.arraycopy(K, K2.length, K1, 0, K1.length);
+                macKeyOff = 0;
+                cipherKeyOff = macKeyLen;
             }
             else
             {
-                System.arraycopy(K, 0, K1, 0, K1.length);
-                System.arraycopy(K, inLen, K2, 0, K2.length);
+                cipherKeyOff = 0;
+                macKeyOff = inLen;
             }
 
-            C = new byte[inLen];
-
             for (int i = 0; i != inLen; i++)
             {
-                C[i] = (byte)(in[inOff + i] ^ K1[i]);
+                out[cOff + i] = (byte)(in[inOff + i] ^ K[cipherKeyOff + i]);
             }
             len = inLen;
         }
         else
         {
             // Block cipher mode.
-            K1 = new byte[((IESWithCipherParameters)param).getCipherKeySize() / 8];
-            K2 = new byte[param.getMacKeySize() / 8];
-            K = new byte[K1.length + K2.length];
+            int cipherKeyLen = ((IESWithCipherParameters)param).getCipherKeySize() / 8;
+            K = new byte[cipherKeyLen + macKeyLen];
 
             kdf.generateBytes(K, 0, K.length);
-            System.arraycopy(K, 0, K1, 0, K1.length);
-            System.arraycopy(K, K1.length, K2, 0, K2.length);
+            macKeyOff = cipherKeyLen;
 
-            cipher.init(true, new KeyParameter(K1));
-            C = new byte[cipher.getOutputSize(inLen)];
-            len = cipher.processBytes(in, inOff, inLen, C, 0);
-            len += cipher.doFinal(C, len);
+            cipher.init(true, new KeyParameter(K, 0, cipherKeyLen));
+            len = cipher.processBytes(in, inOff, inLen, out, cOff);
+            len += cipher.doFinal(out, cOff + len);
         }
 
+        System.arraycopy(V, 0, out, outOff, V.length);
+
 
         // Convert the length of the encoding vector into a byte array.
         byte[] P2 = param.getEncodingV();
@@ -212,10 +265,8 @@ public class IESEngine
 
 
         // Apply the MAC.
-        byte[] T = new byte[mac.getMacSize()];
-
-        mac.init(new KeyParameter(K2));
-        mac.update(C, 0, C.length);
+        mac.init(new KeyParameter(K, macKeyOff, macKeyLen));
+        mac.update(out, cOff, len);
         if (P2 != null)
         {
             mac.update(P2, 0, P2.length);
@@ -224,71 +275,57 @@ public class IESEngine
         {
             mac.update(L2, 0, L2.length);
         }
-        mac.doFinal(T, 0);
-
+        mac.doFinal(out, cOff + len);
 
-        // Output the triple (V,C,T).
-        byte[] Output = new byte[V.length + len + T.length];
-        System.arraycopy(V, 0, Output, 0, V.length);
-        System.arraycopy(C, 0, Output, V.length, len);
-        System.arraycopy(T, 0, Output, V.length + len, T.length);
-        return Output;
+        return V.length + len + mac.getMacSize();
     }
 
-    private byte[] decryptBlock(
+    /**
+     * Verify the MAC of the triple (V,C,T) in <code>in_enc</code>, and only
+     * then decrypt C into <code>out</code>.
+     */
+    private int decryptBlock(
         byte[] in_enc,
         int inOff,
-        int inLen)
+        int inLen,
+        byte[] out,
+        int outOff)
         throws InvalidCipherTextException
     {
-        byte[] M = null, K = null, K1 = null, K2 = null;
-        int len;
+        int macKeyLen = param.getMacKeySize() / 8;
+        int macKeyOff;
+        int cipherKeyOff;
+        int cOff = inOff + V.length;
+        int cLen = inLen - V.length - mac.getMacSize();
+        byte[] K;
 
         if (cipher == null)
         {
             // Streaming mode.
-            K1 = new byte[inLen - V.length - mac.getMacSize()];
-            K2 = new byte[param.getMacKeySize() / 8];
-            K = new byte[K1.length + K2.length];
+            K = new byte[cLen + macKeyLen];
 
             kdf.generateBytes(K, 0, K.length);
 
             if (V.length != 0)
             {
-                System.arraycopy(K, 0, K2, 0, K2.length);
-                System.arraycopy(K, K2.length, K1, 0, K1.length);
+                macKeyOff = 0;
+                cipherKeyOff = macKeyLen;
             }
             else
             {
-                System.arraycopy(K, 0, K1, 0, K1.length);
-                System.arraycopy(K, K1.length, K2, 0, K2.length);
+                cipherKeyOff = 0;
+                macKeyOff = cLen;
             }
-
-            M = new byte[K1.length];
-
-            for (int i = 0; i != K1.length; i++)
-            {
-                M[i] = (byte)(in_enc[inOff + V.length + i] ^ K1[i]);
-            }
-
-            len = K1.length;
         }
         else
         {
-            // Block cipher mode.        
-            K1 = new byte[((IESWithCipherParameters)param).getCipherKeySize() / 8];
-            K2 = new byte[param.getMacKeySize() / 8];
-            K = new byte[K1.length + K2.length];
+            // Block cipher mode.
+            int cipherKeyLen = ((IESWithCipherParameters)param).getCipherKeySize() / 8;
+            K = new byte[cipherKeyLen + macKeyLen];
 
             kdf.generateBytes(K, 0, K.length);
-            System.arraycopy(K, 0, K1, 0, K1.length);
-            System.arraycopy(K, K1.length, K2, 0, K2.length);
-
-            cipher.init(false, new KeyParameter(K1));
-
-            M = new byte[cipher.getOutputSize(inLen - V.length - mac.getMacSize())];
-            len = cipher.processBytes(in_enc, inOff + V.length, inLen - V.length - mac.getMacSize(), M, 0);
-            len += cipher.doFinal(M, len);
+            cipherKeyOff = 0;
+            macKeyOff = cipherKeyLen;
         }
 
 
@@ -306,8 +343,8 @@ public class IESEngine
         byte[] T1 = Arrays.copyOfRange(in_enc, end - mac.getMacSize(), end);
 
         byte[] T2 = new byte[T1.length];
-        mac.init(new KeyParameter(K2));
-        mac.update(in_enc, inOff + V.length, inLen - V.length - T2.length);
+        mac.init(new KeyParameter(K, macKeyOff, macKeyLen));
+        mac.update(in_enc, cOff, cLen);
 
         if (P2 != null)
         {
@@ -326,7 +363,19 @@ public class IESEngine
 
 
         // Output the message.
-        return Arrays.copyOfRange(M, 0, len);
+        if (cipher == null)
+        {
+            for (int i = 0; i != cLen; i++)
+            {
+                out[outOff + i] = (byte)(in_enc[cOff + i] ^ K[cipherKeyOff + i]);
+            }
+            return cLen;
+        }
+
+        cipher.init(false, new KeyParameter(K, cipherKeyOff, K.length - macKeyLen));
+        int len = cipher.processBytes(in_enc, cOff, cLen, out, outOff);
+        len += cipher.doFinal(out, outOff + len);
+        return len;
     }
 
 
@@ -335,6 +384,84 @@ public class IESEngine
         int inOff,
         int inLen)
         throws InvalidCipherTextException
+    {
+        initKDF(in, inOff, inLen);
+
+        byte[] out = new byte[getOutputSize(inLen)];
+        int len = forEncryption
+            ? encryptBlock(in, inOff, inLen, out, 0)
+            : decryptBlock(in, inOff, inLen, out, 0);
+
+        return (len == out.length) ? out : Arrays.copyOfRange(out, 0, len);
+    }
+
+    /**
+     * process a block, writing the result straight into <code>out</code>.
+     * <code>in</code> and <code>out</code> may be the same array, even with
+     * overlapping regions.
+     *
+     * @param in the input buffer.
+     * @param inOff the offset of the input in <code>in</code>.
+     * @param inLen the length of the input.
+     * @param out the output buffer.
+     * @param outOff the offset from which the output is written.
+     * @return the number of bytes written to <code>out</code>.
+     * @exception OutputLengthException if <code>out</code> is too short.
+     * @exception InvalidCipherTextException if the input is not a valid
+     * (V,C,T) triple when decrypting.
+     */
+    public int processBlock(
+        byte[] in,
+        int inOff,
+        int inLen,
+        byte[] out,
+        int outOff)
+        throws InvalidCipherTextException
+    {
+        initKDF(in, inOff, inLen);
+
+        if (outOff + getOutputSize(inLen) > out.length)
+        {
+            throw new OutputLengthException("output buffer too short");
+        }
+
+        if (in == out && inOff < outOff + getOutputSize(inLen) && outOff < inOff + inLen)
+        {
+            in = Arrays.copyOfRange(in, inOff, inOff + inLen);
+            inOff = 0;
+        }
+
+        return forEncryption
+            ? encryptBlock(in, inOff, inLen, out, outOff)
+            : decryptBlock(in, inOff, inLen, out, outOff);
+    }
+
+    /**
+     * the size of the output for <code>inLen</code> bytes of input, once the
+     * encoded ephemeral public key (if any) is known.
+     */
+    private int getOutputSize(
+        int inLen)
+    {
+        if (forEncryption)
+        {
+            int len = (cipher == null) ? inLen : cipher.getOutputSize(inLen);
+            return V.length + len + mac.getMacSize();
+        }
+
+        int cLen = inLen - V.length - mac.getMacSize();
+        return (cipher == null) ? cLen : cipher.getOutputSize(cLen);
+    }
+
+    /**
+     * set up the ephemeral key (if any) and initialise the KDF with the
+     * agreed value.
+     */
+    private void initKDF(
+        byte[] in,
+        int inOff,
+        int inLen)
+        throws InvalidCipherTextException
     {
         if (forEncryption)
         {
@@ -364,6 +491,11 @@ public class IESEngine
                 int encLength = (inLen - bIn.available());
                 this.V = Arrays.copyOfRange(in, inOff, inOff + encLength);
             }
+
+            if (inLen < V.length + mac.getMacSize())
+            {
+                throw new InvalidCipherTextException("length of input must be greater than the MAC and V combined");
+            }
         }
 
         // Compute the common value and convert to byte array. 
@@ -387,9 +519,5 @@ public class IESEngine
         // Initialise the KDF.
         KDFParameters kdfParam = new KDFParameters(VZ, param.getDerivationV());
         kdf.init(kdfParam);
-
-        return forEncryption
-            ? encryptBlock(in, inOff, inLen)
-            : decryptBlock(in, inOff, inLen);
     }
 }
@@ -10,6 +10,7 @@ import bouncycastle.crypto.params.ECDomainParameters;
 import bouncycastle.crypto.params.ECKeyGenerationParameters;
 import bouncycastle.crypto.params.ECPrivateKeyParameters;
 import bouncycastle.crypto.params.ECPublicKeyParameters;
+import bouncycastle.math.ec.ECAlgorithms;
 import bouncycastle.math.ec.ECConstants;
 import bouncycastle.math.ec.ECPoint;
 
@@ -33,6 +34,43 @@ public class ECKeyPairGenerator
      * pair in accordance with X9.62 section 5.2.1 pages 26, 27.
      */
     public AsymmetricCipherKeyPair generateKeyPair()
+    {
+        BigInteger d = generateD();
+
+        ECPoint Q = params.getG().multiply(d);
+
+        return new AsymmetricCipherKeyPair(
+            new ECPublicKeyParameters(Q, params),
+            new ECPrivateKeyParameters(d, params));
+    }
+
+    /**
+     * Generates <code>count</code> EC key pairs at once, which is cheaper
+     * than one by one as the public keys share a single field inversion for
+     * their conversion to affine co-ordinates.
+     */
+    public AsymmetricCipherKeyPair[] generateKeyPairs(int count)
+    {
+        BigInteger[] d = new BigInteger[count];
+        for (int i = 0; i < count; i++)
+        {
+            d[i] = generateD();
+        }
+
+        ECPoint[] Q = ECAlgorithms.multiplyAll(params.getG(), d);
+
+        AsymmetricCipherKeyPair[] keyPairs = new AsymmetricCipherKeyPair[count];
+        for (int i = 0; i < count; i++)
+        {
+            keyPairs[i] = new AsymmetricCipherKeyPair(
+                new ECPublicKeyParameters(Q[i], params),
+                new ECPrivateKeyParameters(d[i], params));
+        }
+
+        return keyPairs;
+    }
+
+    private BigInteger generateD()
     {
         BigInteger n = params.getN();
         int        nBitLength = n.bitLength();
@@ -44,10 +82,6 @@ public class ECKeyPairGenerator
         }
         while (d.equals(ZERO)  || (d.compareTo(n) >= 0));
 
-        ECPoint Q = params.getG().multiply(d);
-
-        return new AsymmetricCipherKeyPair(
-            new ECPublicKeyParameters(Q, params),
-            new ECPrivateKeyParameters(d, params));
+        return d;
     }
 }
@@ -0,0 +1,211 @@
+package bouncycastle.crypto.modes;
+
+import bouncycastle.crypto.BlockCipher;
+import bouncycastle.crypto.CipherParameters;
+import bouncycastle.crypto.DataLengthException;
+import bouncycastle.crypto.StreamCipher;
+import bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * Implements the Segmented Integer Counter (SIC) mode on top of a simple
+ * block cipher. This mode is also known as CTR mode.
+ * <p>
+ * As a <code>StreamCipher</code> it processes any number of bytes at a time,
+ * using up the key stream of a block before the counter is incremented; as a
+ * <code>BlockCipher</code> it processes whole blocks.
+ */
+public class SICBlockCipher
+    implements BlockCipher, StreamCipher
+{
+    private final BlockCipher     cipher;
+    private final int             blockSize;
+
+    private byte[]          IV;
+    private byte[]          counter;
+    private byte[]          counterOut;
+
+    // the number of bytes of counterOut already used
+    private int             byteCount;
+
+    /**
+     * Basic constructor.
+     *
+     * @param c the block cipher to be used.
+     */
+    public SICBlockCipher(BlockCipher c)
+    {
+        this.cipher = c;
+        this.blockSize = cipher.getBlockSize();
+        this.IV = new byte[blockSize];
+        this.counter = new byte[blockSize];
+        this.counterOut = new byte[blockSize];
+    }
+
+    /**
+     * return the underlying block cipher that we are wrapping.
+     *
+     * @return the underlying block cipher that we are wrapping.
+     */
+    public BlockCipher getUnderlyingCipher()
+    {
+        return cipher;
+    }
+
+    /**
+     * Initialise the cipher and, possibly, the initial counter block. If no
+     * IV is passed, the counter starts at zero; a shorter IV is padded with
+     * zeros on the right.
+     *
+     * @param forEncryption ignored, encryption and decryption are the same.
+     * @param params the key and other data required by the cipher.
+     * @exception IllegalArgumentException if the params argument is
+     * inappropriate.
+     */
+    public void init(
+        boolean             forEncryption,
+        CipherParameters    params)
+        throws IllegalArgumentException
+    {
+        if (params instanceof ParametersWithIV)
+        {
+            ParametersWithIV ivParam = (ParametersWithIV)params;
+            byte[]           iv = ivParam.getIV();
+
+            if (iv.length > blockSize)
+            {
+                throw new IllegalArgumentException("IV too long for " + getAlgorithmName());
+            }
+            IV = new byte[blockSize];
+            System.arraycopy(iv, 0, IV, 0, iv.length);
+
+            reset();
+
+            // if null it's an IV changed only.
+            if (ivParam.getParameters() != null)
+            {
+                cipher.init(true, ivParam.getParameters());
+            }
+        }
+        else
+        {
+            IV = new byte[blockSize];
+
+            reset();
+
+            // if it's null, key is to be reused.
+            if (params != null)
+            {
+                cipher.init(true, params);
+            }
+        }
+    }
+
+    public String getAlgorithmName()
+    {
+        return cipher.getAlgorithmName() + "/SIC";
+    }
+
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    public int processBlock(
+        byte[]      in,
+        int         inOff,
+        byte[]      out,
+        int         outOff)
+        throws DataLengthException, IllegalStateException
+    {
+        processBytes(in, inOff, blockSize, out, outOff);
+
+        return blockSize;
+    }
+
+    public byte returnByte(byte in)
+    {
+        if (byteCount == 0)
+        {
+            nextBlock();
+        }
+
+        byte rv = (byte)(counterOut[byteCount] ^ in);
+        byteCount = (byteCount + 1) % blockSize;
+
+        return rv;
+    }
+
+    public void processBytes(
+        byte[]      in,
+        int         inOff,
+        int         len,
+        byte[]      out,
+        int         outOff)
+        throws DataLengthException
+    {
+        if ((inOff + len) > in.length)
+        {
+            throw new DataLengthException("input buffer too short");
+        }
+
+        if ((outOff + len) > out.length)
+        {
+            throw new DataLengthException("output buffer too short");
+        }
+
+        // finish the key stream of the current block
+        while (byteCount != 0 && len > 0)
+        {
+            out[outOff++] = (byte)(counterOut[byteCount] ^ in[inOff++]);
+            byteCount = (byteCount + 1) % blockSize;
+            len--;
+        }
+
+        // whole blocks
+        while (len >= blockSize)
+        {
+            nextBlock();
+            for (int i = 0; i < blockSize; i++)
+            {
+                out[outOff + i] = (byte)(counterOut[i] ^ in[inOff + i]);
+            }
+            inOff += blockSize;
+            outOff += blockSize;
+            len -= blockSize;
+        }
+
+        // start on the key stream of the next block
+        if (len > 0)
+        {
+            nextBlock();
+            for (int i = 0; i < len; i++)
+            {
+                out[outOff + i] = (byte)(counterOut[i] ^ in[inOff + i]);
+            }
+            byteCount = len;
+        }
+    }
+
+    public void reset()
+    {
+        System.arraycopy(IV, 0, counter, 0, counter.length);
+        byteCount = 0;
+        cipher.reset();
+    }
+
+    /**
+     * encrypt the counter into counterOut and increment it (big endian).
+     */
+    private void nextBlock()
+    {
+        cipher.processBlock(counter, 0, counterOut, 0);
+
+        for (int i = counter.length - 1; i >= 0; i--)
+        {
+            if (++counter[i] != 0)
+            {
+                break;
+            }
+        }
+    }
+}
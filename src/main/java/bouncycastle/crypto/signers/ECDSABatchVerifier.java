@@ -0,0 +1,180 @@
+package bouncycastle.crypto.signers;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import bouncycastle.crypto.params.ECDomainParameters;
+import bouncycastle.crypto.params.ECPublicKeyParameters;
+import bouncycastle.math.ec.ECAlgorithms;
+import bouncycastle.math.ec.ECConstants;
+import bouncycastle.math.ec.ECPoint;
+import bouncycastle.util.BigIntegers;
+
+/**
+ * Verifies a batch of EC-DSA signatures (X9.62) over one set of domain
+ * parameters, with the same result for every signature as
+ * {@link ECDSASigner#verifySignature(byte[], BigInteger, BigInteger)}.
+ * <p>
+ * The batch shares the modular inversions of the verification: all
+ * <code>s<sup>-1</sup> mod n</code> are computed with a single inversion
+ * (Montgomery's simultaneous inversion trick), and so are the affine
+ * co-ordinates of all the points <code>u1 * G + u2 * Q</code>.
+ * <p>
+ * A batch collects signatures with {@link #add add} until it is verified,
+ * it is not thread safe.
+ */
+public class ECDSABatchVerifier
+    implements ECConstants
+{
+    private final ECDomainParameters params;
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    public ECDSABatchVerifier(
+        ECDomainParameters params)
+    {
+        if (params == null)
+        {
+            throw new IllegalArgumentException("params == null");
+        }
+        this.params = params;
+    }
+
+    /**
+     * add a signature to the batch.
+     *
+     * @param key the public key of the signer, over the domain parameters of
+     * this batch.
+     * @param message the signed message (for conventional DSA the hash of the
+     * real message).
+     * @param r the r value of the signature.
+     * @param s the s value of the signature.
+     */
+    public void add(
+        ECPublicKeyParameters   key,
+        byte[]                  message,
+        BigInteger              r,
+        BigInteger              s)
+    {
+        if (!params.getCurve().equals(key.getParameters().getCurve())
+            || !params.getN().equals(key.getParameters().getN()))
+        {
+            throw new IllegalArgumentException("key has different domain parameters");
+        }
+        entries.add(new Entry(key.getQ(), message, r, s));
+    }
+
+    /**
+     * @return the number of signatures in the batch.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * remove all signatures from the batch.
+     */
+    public void reset()
+    {
+        entries.clear();
+    }
+
+    /**
+     * @return true if every signature in the batch is valid.
+     */
+    public boolean verify()
+    {
+        boolean[] valid = verifyEach();
+        for (int i = 0; i < valid.length; i++)
+        {
+            if (!valid[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * verify all signatures in the batch.
+     *
+     * @return the verification result for each signature, in the order they
+     * were added.
+     */
+    public boolean[] verifyEach()
+    {
+        BigInteger n = params.getN();
+        int size = entries.size();
+        boolean[] valid = new boolean[size];
+
+        // r and s in the range [1,n-1], anything else fails right away
+        int[] indices = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++)
+        {
+            Entry entry = entries.get(i);
+            if (entry.r.compareTo(ONE) >= 0 && entry.r.compareTo(n) < 0
+                && entry.s.compareTo(ONE) >= 0 && entry.s.compareTo(n) < 0)
+            {
+                indices[count++] = i;
+            }
+        }
+
+        if (count == 0)
+        {
+            return valid;
+        }
+
+        BigInteger[] c = new BigInteger[count];
+        for (int j = 0; j < count; j++)
+        {
+            c[j] = entries.get(indices[j]).s;
+        }
+        BigIntegers.modInverseAll(c, n);
+
+        BigInteger[] u1 = new BigInteger[count];
+        BigInteger[] u2 = new BigInteger[count];
+        ECPoint[] Q = new ECPoint[count];
+        for (int j = 0; j < count; j++)
+        {
+            Entry entry = entries.get(indices[j]);
+            u1[j] = ECDSASigner.calculateE(n, entry.message).multiply(c[j]).mod(n);
+            u2[j] = entry.r.multiply(c[j]).mod(n);
+            Q[j] = entry.Q;
+        }
+
+        ECPoint[] points = ECAlgorithms.batchSumOfTwoMultiplies(params.getG(), u1, Q, u2);
+
+        for (int j = 0; j < count; j++)
+        {
+            // components must be bogus.
+            if (points[j].isInfinity())
+            {
+                continue;
+            }
+
+            BigInteger v = points[j].getX().toBigInteger().mod(n);
+            valid[indices[j]] = v.equals(entries.get(indices[j]).r);
+        }
+
+        return valid;
+    }
+
+    private static class Entry
+    {
+        final ECPoint       Q;
+        final byte[]        message;
+        final BigInteger    r;
+        final BigInteger    s;
+
+        Entry(ECPoint Q, byte[] message, BigInteger r, BigInteger s)
+        {
+            this.Q = Q;
+            this.message = message;
+            this.r = r;
+            this.s = s;
+        }
+    }
+}
@@ -19,10 +19,30 @@ import bouncycastle.math.ec.ECPoint;
 public class ECDSASigner
     implements ECConstants, DSA
 {
+    private final DSAKCalculator kCalculator;
+
     ECKeyParameters key;
 
     SecureRandom    random;
 
+    /**
+     * Default configuration, random K values.
+     */
+    public ECDSASigner()
+    {
+        this.kCalculator = new RandomDSAKCalculator();
+    }
+
+    /**
+     * Configuration with an alternate, possibly deterministic calculator of K.
+     *
+     * @param kCalculator a K value calculator.
+     */
+    public ECDSASigner(DSAKCalculator kCalculator)
+    {
+        this.kCalculator = kCalculator;
+    }
+
     public void init(
         boolean                 forSigning,
         CipherParameters        param)
@@ -38,7 +58,8 @@ public class ECDSASigner
             }
             else
             {
-                this.random = new SecureRandom();
+                // a deterministic K calculator needs no randomness
+                this.random = kCalculator.isDeterministic() ? null : new SecureRandom();
                 this.key = (ECPrivateKeyParameters)param;
             }
         }
@@ -64,19 +85,23 @@ public class ECDSASigner
         BigInteger r = null;
         BigInteger s = null;
 
+        if (kCalculator.isDeterministic())
+        {
+            kCalculator.init(n, ((ECPrivateKeyParameters)key).getD(), message);
+        }
+        else
+        {
+            kCalculator.init(n, random);
+        }
+
         // 5.3.2
         do // generate s
         {
             BigInteger k = null;
-            int        nBitLength = n.bitLength();
 
             do // generate r
             {
-                do
-                {
-                    k = new BigInteger(nBitLength, random);
-                }
-                while (k.equals(ZERO) || k.compareTo(n) >= 0);
+                k = kCalculator.nextK();
 
                 ECPoint p = key.getParameters().getG().multiply(k);
 
@@ -148,7 +173,11 @@ public class ECDSASigner
         return v.equals(r);
     }
 
-    private BigInteger calculateE(BigInteger n, byte[] message)
+    /**
+     * Returns the message (usually a hash) as an integer, truncated to the
+     * leftmost bits if it is longer than the order <code>n</code>.
+     */
+    public static BigInteger calculateE(BigInteger n, byte[] message)
     {
         int log2n = n.bitLength();
         int messageBitLength = message.length * 8;
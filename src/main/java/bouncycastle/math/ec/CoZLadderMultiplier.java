@@ -0,0 +1,219 @@
+package bouncycastle.math.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Class implementing the Montgomery ladder with co-Z addition formulae
+ * (Goundar, Joye, Miyaji, Rivain, Venelli: Scalar multiplication on
+ * Weierstrass elliptic curves from Co-Z arithmetic, 2011) for
+ * <code>ECPoint.Fp</code>.
+ * <p>
+ * The two ladder points share a common Jacobian <code>Z</code> co-ordinate
+ * which is tracked alongside, so no field inversion is needed until the
+ * result gets normalized. Every bit of the multiplicator costs exactly one
+ * conjugate co-Z addition and one co-Z addition, whatever its value, and no
+ * precomputation is needed. This makes it the multiplier of choice for
+ * points that are multiplied only once, e.g. the ephemeral public key of a
+ * message to be decrypted.
+ * <p>
+ * For curves whose field elements are held in Montgomery form the ladder
+ * runs on the limbs in place, so that it allocates nothing per bit.
+ */
+class CoZLadderMultiplier implements ECMultiplier
+{
+    public ECPoint multiply(ECPoint p, BigInteger k, PreCompInfo preCompInfo)
+    {
+        ECCurve curve = p.getCurve();
+
+        if (p.isInfinity() || k.signum() == 0)
+        {
+            return curve.getInfinity();
+        }
+
+        p = p.normalize();
+
+        if (curve instanceof ECCurve.Fp && ((ECCurve.Fp)curve).field != null)
+        {
+            return multiplyMont((ECCurve.Fp)curve, p, k);
+        }
+
+        ECFieldElement[] X = new ECFieldElement[2];
+        ECFieldElement[] Y = new ECFieldElement[2];
+
+        // XYCZ-IDBL: R1 = 2P and R0 = P with the common Z = 2y
+        ECFieldElement x = p.getX();
+        ECFieldElement y = p.getY();
+        ECFieldElement yy2 = y.square();
+        yy2 = yy2.add(yy2);
+        ECFieldElement S = x.multiply(yy2.add(yy2));
+        ECFieldElement L = yy2.square();
+        L = L.add(L);
+        ECFieldElement xx = x.square();
+        ECFieldElement M = xx.add(xx).add(xx).add(curve.getA());
+
+        X[1] = M.square().subtract(S.add(S));
+        Y[1] = M.multiply(S.subtract(X[1])).subtract(L);
+        X[0] = S;
+        Y[0] = L;
+        ECFieldElement Z = y.add(y);
+
+        for (int i = k.bitLength() - 2; i >= 0; --i)
+        {
+            int b = k.testBit(i) ? 1 : 0;
+
+            // XYCZ-ADDC: (R(1-b), R(b)) <- (R(b) + R(1-b), R(b) - R(1-b))
+            ECFieldElement X1 = X[b], Y1 = Y[b];
+            ECFieldElement X2 = X[1 - b], Y2 = Y[1 - b];
+
+            ECFieldElement dX = X1.subtract(X2);
+            ECFieldElement C = dX.square();
+            ECFieldElement W1 = X1.multiply(C);
+            ECFieldElement W2 = X2.multiply(C);
+            ECFieldElement W = W1.add(W2);
+            ECFieldElement A1 = Y1.multiply(W1.subtract(W2));
+            ECFieldElement dY = Y1.subtract(Y2);
+            ECFieldElement sY = Y1.add(Y2);
+
+            ECFieldElement X3 = dY.square().subtract(W);
+            ECFieldElement Y3 = dY.multiply(W1.subtract(X3)).subtract(A1);
+            ECFieldElement X4 = sY.square().subtract(W);
+            ECFieldElement Y4 = sY.multiply(W1.subtract(X4)).subtract(A1);
+            Z = Z.multiply(dX);
+
+            // XYCZ-ADD: (R(b), R(1-b)) <- (R(1-b) + R(b), R(1-b))
+            dX = X3.subtract(X4);
+            C = dX.square();
+            W1 = X3.multiply(C);
+            W2 = X4.multiply(C);
+            A1 = Y3.multiply(W1.subtract(W2));
+            dY = Y3.subtract(Y4);
+
+            X[b] = dY.square().subtract(W1).subtract(W2);
+            Y[b] = dY.multiply(W1.subtract(X[b])).subtract(A1);
+            X[1 - b] = W1;
+            Y[1 - b] = A1;
+            Z = Z.multiply(dX);
+        }
+
+        if (Z.isZero())
+        {
+            // The co-Z formulae break down if the ladder points ever coincide
+            // up to sign, which only happens when the result or one of the
+            // intermediate points is the point at infinity (or for a point
+            // of order 2); the general purpose multiplier handles these
+            return new FpNafMultiplier().multiply(p, k, null);
+        }
+
+        return new ECPoint.Fp(curve, X[0], Y[0], Z, p.isCompressed());
+    }
+
+    /**
+     * The same ladder on the Montgomery limbs of an affine point
+     * <code>p</code>, with all intermediate values in scratch arrays.
+     */
+    private ECPoint multiplyMont(ECCurve.Fp curve, ECPoint p, BigInteger k)
+    {
+        MontgomeryField f = curve.field;
+        int len = f.getLength();
+
+        int[] x = ECFieldElement.FpMont.limbs(f, p.getX());
+        int[] y = ECFieldElement.FpMont.limbs(f, p.getY());
+        int[] a = ECFieldElement.FpMont.limbs(f, curve.getA());
+
+        int[][] X = new int[2][len];
+        int[][] Y = new int[2][len];
+        int[] Z = new int[len];
+        int[] t0 = new int[len], t1 = new int[len], t2 = new int[len], t3 = new int[len];
+        int[] t4 = new int[len], t5 = new int[len], t6 = new int[len], t7 = new int[len];
+
+        // XYCZ-IDBL: R1 = 2P and R0 = P with the common Z = 2y
+        f.square(y, t0);
+        f.add(t0, t0, t0);
+        f.add(t0, t0, t1);
+        f.multiply(x, t1, X[0]);
+        f.square(t0, t1);
+        f.add(t1, t1, Y[0]);
+        f.square(x, t0);
+        f.add(t0, t0, t1);
+        f.add(t1, t0, t1);
+        f.add(t1, a, t1);
+
+        f.square(t1, t0);
+        f.add(X[0], X[0], t2);
+        f.subtract(t0, t2, X[1]);
+        f.subtract(X[0], X[1], t2);
+        f.multiply(t1, t2, t0);
+        f.subtract(t0, Y[0], Y[1]);
+        f.add(y, y, Z);
+
+        for (int i = k.bitLength() - 2; i >= 0; --i)
+        {
+            int b = k.testBit(i) ? 1 : 0;
+
+            // XYCZ-ADDC: (R(1-b), R(b)) <- (R(b) + R(1-b), R(b) - R(1-b))
+            int[] X1 = X[b], Y1 = Y[b];
+            int[] X2 = X[1 - b], Y2 = Y[1 - b];
+
+            // dX, C = dX^2, W1, W2, W = W1 + W2, A1 = Y1 * (W1 - W2)
+            f.subtract(X1, X2, t0);
+            f.square(t0, t1);
+            f.multiply(X1, t1, t2);
+            f.multiply(X2, t1, t3);
+            f.add(t2, t3, t4);
+            f.subtract(t2, t3, t5);
+            f.multiply(Y1, t5, t6);
+
+            // dY, sY
+            f.subtract(Y1, Y2, t5);
+            f.add(Y1, Y2, t7);
+
+            // Z = Z * dX
+            f.multiply(Z, t0, t1);
+            int[] t = Z; Z = t1; t1 = t;
+
+            // (X3, Y3) to R(b), (X4, Y4) to R(1-b)
+            f.square(t5, t0);
+            f.subtract(t0, t4, X1);
+            f.subtract(t2, X1, t0);
+            f.multiply(t5, t0, t3);
+            f.subtract(t3, t6, Y1);
+            f.square(t7, t0);
+            f.subtract(t0, t4, X2);
+            f.subtract(t2, X2, t0);
+            f.multiply(t7, t0, t3);
+            f.subtract(t3, t6, Y2);
+
+            // XYCZ-ADD: (R(b), R(1-b)) <- (R(1-b) + R(b), R(1-b))
+            f.subtract(X1, X2, t0);
+            f.square(t0, t1);
+            f.multiply(X1, t1, t2);
+            f.multiply(X2, t1, t3);
+            f.subtract(t2, t3, t4);
+            f.multiply(Y1, t4, t5);
+            f.subtract(Y1, Y2, t6);
+
+            f.square(t6, t7);
+            f.subtract(t7, t2, t7);
+            f.subtract(t7, t3, X1);
+            f.subtract(t2, X1, t4);
+            f.multiply(t6, t4, t7);
+            f.subtract(t7, t5, Y1);
+
+            // W1 and A1 become R(1-b), by swapping arrays
+            X[1 - b] = t2; t2 = X2;
+            Y[1 - b] = t5; t5 = Y2;
+
+            f.multiply(Z, t0, t1);
+            t = Z; Z = t1; t1 = t;
+        }
+
+        if (MontgomeryField.isZero(Z))
+        {
+            // see above
+            return new FpNafMultiplier().multiply(p, k, null);
+        }
+
+        return new ECPoint.Fp(curve, new ECFieldElement.FpMont(f, X[0]), new ECFieldElement.FpMont(f, Y[0]),
+            new ECFieldElement.FpMont(f, Z), p.isCompressed());
+    }
+}
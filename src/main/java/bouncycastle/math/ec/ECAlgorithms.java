@@ -23,7 +23,265 @@ public class ECAlgorithms
             }
         }
 
-        return implShamirsTrick(P, a, Q, b);
+        return implSumOfMultiplies(new ECPoint[]{ P, Q }, new BigInteger[]{ a, b });
+    }
+
+    /**
+     * Computes <code>k<sub>0</sub> * P<sub>0</sub> + ... +
+     * k<sub>n-1</sub> * P<sub>n-1</sub></code> with interleaved Window NAFs
+     * (Straus' algorithm), i.e. all multiplications share a single chain of
+     * doublings. A point multiplied with a fixed-base comb (like the
+     * <code>G</code> of a domain) brings along a wide precomputed table, any
+     * other point uses (and keeps) its own Window NAF table.
+     * @param ps The points, all on the same curve.
+     * @param ks The multiplicators, one for each point.
+     * @return the sum of the products.
+     */
+    public static ECPoint sumOfMultiplies(ECPoint[] ps, BigInteger[] ks)
+    {
+        if (ps == null || ks == null || ps.length != ks.length || ps.length < 1)
+        {
+            throw new IllegalArgumentException("point and scalar arrays should be non-null, and of equal, non-zero, length");
+        }
+
+        ECCurve c = ps[0].getCurve();
+        for (int i = 1; i < ps.length; ++i)
+        {
+            if (!c.equals(ps[i].getCurve()))
+            {
+                throw new IllegalArgumentException("All points must be on the same curve");
+            }
+        }
+
+        return implSumOfMultiplies(ps, ks);
+    }
+
+    /**
+     * Computes <code>a[i] * P + b[i] * Q[i]</code> for every <code>i</code>
+     * like {@link #sumOfTwoMultiplies(ECPoint, BigInteger, ECPoint, BigInteger)
+     * sumOfTwoMultiplies}, but converts all results to affine co-ordinates
+     * together, at the cost of a single field inversion.
+     * @return the sums, in the order of the input.
+     */
+    public static ECPoint[] batchSumOfTwoMultiplies(ECPoint P, BigInteger[] a,
+        ECPoint[] Q, BigInteger[] b)
+    {
+        if (a.length != Q.length || a.length != b.length)
+        {
+            throw new IllegalArgumentException("scalar and point arrays should be of equal length");
+        }
+
+        ECCurve c = P.getCurve();
+        ECPoint[] results = new ECPoint[Q.length];
+        for (int i = 0; i < Q.length; ++i)
+        {
+            if (!c.equals(Q[i].getCurve()))
+            {
+                throw new IllegalArgumentException("P and Q must be on same curve");
+            }
+
+            if (c instanceof ECCurve.F2m && ((ECCurve.F2m)c).isKoblitz())
+            {
+                results[i] = P.multiply(a[i]).add(Q[i].multiply(b[i]));
+            }
+            else
+            {
+                results[i] = implSumOfMultipliesJacobian(new ECPoint[]{ P, Q[i] },
+                    new BigInteger[]{ a[i], b[i] });
+            }
+        }
+
+        normalizeAll(results);
+        return results;
+    }
+
+    private static ECPoint implSumOfMultiplies(ECPoint[] ps, BigInteger[] ks)
+    {
+        return implSumOfMultipliesJacobian(ps, ks).normalize();
+    }
+
+    private static ECPoint implSumOfMultipliesJacobian(ECPoint[] ps, BigInteger[] ks)
+    {
+        int count = ps.length;
+        ECPoint[][] preComps = new ECPoint[count][];
+        byte[][] wnafs = new byte[count][];
+        boolean[] negs = new boolean[count];
+        WNafMultiplier wnafMultiplier = new WNafMultiplier();
+
+        int maxLen = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            ECPoint p = ps[i];
+            BigInteger k = ks[i];
+
+            if (p.isInfinity() || k.signum() == 0)
+            {
+                wnafs[i] = new byte[0];
+                continue;
+            }
+
+            negs[i] = k.signum() < 0;
+            k = k.abs();
+
+            byte width;
+            PreCompInfo preCompInfo = p.preCompInfo;
+            ECMultiplier multiplier = p.getECMultiplier();
+            if (multiplier instanceof FixedPointCombMultiplier)
+            {
+                FixedPointPreCompInfo fixedPreCompInfo
+                    = ((FixedPointCombMultiplier)multiplier).precompute(p, preCompInfo);
+                width = fixedPreCompInfo.getWNafWidth();
+                preComps[i] = fixedPreCompInfo.getWNafPreComp();
+            }
+            else
+            {
+                width = WNafMultiplier.getWidth(k.bitLength());
+                preComps[i] = WNafMultiplier.precompute(p, preCompInfo, width);
+            }
+
+            wnafs[i] = wnafMultiplier.windowNaf(width, k);
+            maxLen = Math.max(maxLen, wnafs[i].length);
+        }
+
+        PointAccumulator R = PointAccumulator.create(ps[0].getCurve());
+
+        for (int j = maxLen - 1; j >= 0; --j)
+        {
+            R.twice();
+
+            for (int i = 0; i < count; ++i)
+            {
+                byte[] wnaf = wnafs[i];
+                int digit = (j < wnaf.length) ? wnaf[j] : 0;
+                if (digit != 0)
+                {
+                    ECPoint A = preComps[i][(Math.abs(digit) - 1) / 2];
+                    if ((digit < 0) != negs[i])
+                    {
+                        R.subtract(A);
+                    }
+                    else
+                    {
+                        R.add(A);
+                    }
+                }
+            }
+        }
+
+        return R.toPoint();
+    }
+
+    /**
+     * Multiplies <code>p</code> by each of the <code>ks</code>, e.g. the base
+     * point by a batch of private keys, and converts all products to affine
+     * co-ordinates together (see {@link #normalizeAll(ECPoint[])}).
+     * @return the products, in the order of the multiplicators.
+     */
+    public static ECPoint[] multiplyAll(ECPoint p, BigInteger[] ks)
+    {
+        ECPoint[] results = new ECPoint[ks.length];
+        for (int i = 0; i < ks.length; ++i)
+        {
+            results[i] = p.implMultiply(ks[i]);
+        }
+
+        normalizeAll(results);
+        return results;
+    }
+
+    /**
+     * Converts all points in <code>points</code> (in place) to affine
+     * co-ordinates with Montgomery's simultaneous inversion trick, which
+     * replaces the <code>n</code> field inversions by one inversion and
+     * <code>3(n-1)</code> multiplications. Points already in affine
+     * co-ordinates (like all points returned by the public
+     * <code>ECPoint</code> methods) are left as they are.
+     */
+    public static void normalizeAll(ECPoint[] points)
+    {
+        int[] indices = new int[points.length];
+        int count = 0;
+        for (int i = 0; i < points.length; ++i)
+        {
+            if (!points[i].isNormalized())
+            {
+                indices[count++] = i;
+            }
+        }
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        // products[j] = z(0) * ... * z(j) of the points to convert
+        ECFieldElement[] products = new ECFieldElement[count];
+        products[0] = ((ECPoint.Fp)points[indices[0]]).z;
+        for (int j = 1; j < count; ++j)
+        {
+            products[j] = products[j - 1].multiply(((ECPoint.Fp)points[indices[j]]).z);
+        }
+
+        ECFieldElement inverse = products[count - 1].invert();
+        for (int j = count - 1; j > 0; --j)
+        {
+            ECPoint.Fp p = (ECPoint.Fp)points[indices[j]];
+            ECFieldElement zInv = inverse.multiply(products[j - 1]);
+            inverse = inverse.multiply(p.z);
+            points[indices[j]] = p.normalize(zInv);
+        }
+        points[indices[0]] = ((ECPoint.Fp)points[indices[0]]).normalize(inverse);
+    }
+
+    /**
+     * Multiplies <code>P</code> by <code>k</code> with the co-Z Montgomery
+     * ladder, a regular algorithm doing the same work for every bit of
+     * <code>k</code> that needs no precomputation. For points that are
+     * multiplied just once this beats the default multiplier, which first
+     * has to build a table for <code>P</code>. Points on binary curves are
+     * multiplied the usual way.
+     */
+    public static ECPoint montgomeryLadder(ECPoint P, BigInteger k)
+    {
+        if (k.signum() < 0)
+        {
+            throw new IllegalArgumentException("The multiplicator cannot be negative");
+        }
+
+        if (!(P instanceof ECPoint.Fp))
+        {
+            return P.multiply(k);
+        }
+
+        return new CoZLadderMultiplier().multiply(P, k, null).normalize();
+    }
+
+    /**
+     * Multiplies each of the points <code>ps</code> by the same
+     * <code>k</code> with the co-Z Montgomery ladder (see
+     * {@link #montgomeryLadder(ECPoint, BigInteger)}), e.g. a batch of
+     * ephemeral public keys by a private key, and converts all products to
+     * affine co-ordinates together (see {@link #normalizeAll(ECPoint[])}).
+     * @return the products, in the order of the points.
+     */
+    public static ECPoint[] montgomeryLadderAll(ECPoint[] ps, BigInteger k)
+    {
+        if (k.signum() < 0)
+        {
+            throw new IllegalArgumentException("The multiplicator cannot be negative");
+        }
+
+        ECMultiplier ladder = new CoZLadderMultiplier();
+        ECPoint[] results = new ECPoint[ps.length];
+        for (int i = 0; i < ps.length; ++i)
+        {
+            results[i] = (ps[i] instanceof ECPoint.Fp)
+                ? ladder.multiply(ps[i], k, null)
+                : ps[i].multiply(k);
+        }
+
+        normalizeAll(results);
+        return results;
     }
 
     /*
@@ -61,32 +319,49 @@ public class ECAlgorithms
     {
         int m = Math.max(k.bitLength(), l.bitLength());
         ECPoint Z = P.add(Q);
-        ECPoint R = P.getCurve().getInfinity();
+        PointAccumulator R = PointAccumulator.create(P.getCurve());
 
         for (int i = m - 1; i >= 0; --i)
         {
-            R = R.twice();
+            R.twice();
 
             if (k.testBit(i))
             {
                 if (l.testBit(i))
                 {
-                    R = R.add(Z);
+                    R.add(Z);
                 }
                 else
                 {
-                    R = R.add(P);
+                    R.add(P);
                 }
             }
             else
             {
                 if (l.testBit(i))
                 {
-                    R = R.add(Q);
+                    R.add(Q);
                 }
             }
         }
 
-        return R;
+        return R.toPoint().normalize();
+    }
+
+    /**
+     * Adds the affine point <code>A</code> to the accumulator <code>R</code>.
+     * As long as <code>R</code> is the point at infinity, the sum is
+     * <code>A</code> itself, which is then converted to the projective
+     * representation of the curve, so that all further additions and
+     * doublings run without field inversions.
+     */
+    static ECPoint accumulate(ECPoint R, ECPoint A)
+    {
+        if (R.isInfinity())
+        {
+            return A.toJacobian();
+        }
+
+        return R.add(A);
     }
 }
@@ -104,9 +104,16 @@ public abstract class ECCurve
         BigInteger q;
         ECPoint.Fp infinity;
 
+        /**
+         * limb arithmetic shared by the elements of this curve's field, null
+         * if <code>q</code> is even (elements are then plain BigIntegers)
+         */
+        final MontgomeryField field;
+
         public Fp(BigInteger q, BigInteger a, BigInteger b)
         {
             this.q = q;
+            this.field = (q.signum() > 0 && q.testBit(0)) ? new MontgomeryField(q) : null;
             this.a = fromBigInteger(a);
             this.b = fromBigInteger(b);
             this.infinity = new ECPoint.Fp(this, null, null);
@@ -124,6 +131,10 @@ public abstract class ECCurve
 
         public ECFieldElement fromBigInteger(BigInteger x)
         {
+            if (field != null)
+            {
+                return new ECFieldElement.FpMont(field, x);
+            }
             return new ECFieldElement.Fp(this.q, x);
         }
 
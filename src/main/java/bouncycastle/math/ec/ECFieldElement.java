@@ -1,6 +1,7 @@
 package bouncycastle.math.ec;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Random;
 
 public abstract class ECFieldElement
@@ -19,6 +20,11 @@ public abstract class ECFieldElement
     public abstract ECFieldElement invert();
     public abstract ECFieldElement sqrt();
 
+    public boolean isZero()
+    {
+        return toBigInteger().signum() == 0;
+    }
+
     public String toString()
     {
         return this.toBigInteger().toString(2);
@@ -288,6 +294,12 @@ public abstract class ECFieldElement
                 return true;
             }
 
+            if (other instanceof ECFieldElement.FpMont)
+            {
+                // compared by value, like the other way round
+                return other.equals(this);
+            }
+
             if (!(other instanceof ECFieldElement.Fp))
             {
                 return false;
@@ -303,6 +315,210 @@ public abstract class ECFieldElement
         }
     }
 
+    /**
+     * An element of <code>F<sub>p</sub></code> for an odd prime
+     * <code>p</code>, held in Montgomery form on fixed-size <code>int</code>
+     * limbs (see {@link MontgomeryField}) instead of a <code>BigInteger</code>.
+     * Elements are immutable, every operation allocates just the limb array
+     * of its result. The multiplication algorithms don't go through these
+     * operations but work on the limbs directly (see
+     * {@link PointAccumulator}), so their main loops allocate nothing.
+     * <p>
+     * An element equals an <code>ECFieldElement.Fp</code> of the same field
+     * and value.
+     */
+    public static class FpMont extends ECFieldElement
+    {
+        private final MontgomeryField field;
+
+        private final int[] x;
+
+        /**
+         * lazily computed plain value of this element
+         */
+        private BigInteger value;
+
+        FpMont(MontgomeryField field, BigInteger x)
+        {
+            if (x.compareTo(field.getQ()) >= 0)
+            {
+                throw new IllegalArgumentException("x value too large in field element");
+            }
+            if (x.signum() < 0)
+            {
+                x = x.mod(field.getQ());
+            }
+
+            this.field = field;
+            this.x = field.toMont(x);
+            this.value = x;
+        }
+
+        /**
+         * Wraps limbs in Montgomery form, which are taken over (not copied).
+         */
+        FpMont(MontgomeryField field, int[] x)
+        {
+            this.field = field;
+            this.x = x;
+        }
+
+        public BigInteger toBigInteger()
+        {
+            BigInteger v = value;
+            if (v == null)
+            {
+                v = field.fromMont(x);
+                value = v;
+            }
+            return v;
+        }
+
+        /**
+         * return the field name for this field.
+         *
+         * @return the string "Fp".
+         */
+        public String getFieldName()
+        {
+            return "Fp";
+        }
+
+        public int getFieldSize()
+        {
+            return field.getQ().bitLength();
+        }
+
+        public BigInteger getQ()
+        {
+            return field.getQ();
+        }
+
+        public boolean isZero()
+        {
+            return MontgomeryField.isZero(x);
+        }
+
+        public ECFieldElement add(ECFieldElement b)
+        {
+            int[] z = new int[x.length];
+            field.add(x, limbs(b), z);
+            return new FpMont(field, z);
+        }
+
+        public ECFieldElement subtract(ECFieldElement b)
+        {
+            int[] z = new int[x.length];
+            field.subtract(x, limbs(b), z);
+            return new FpMont(field, z);
+        }
+
+        public ECFieldElement multiply(ECFieldElement b)
+        {
+            int[] z = new int[x.length];
+            field.multiply(x, limbs(b), z);
+            return new FpMont(field, z);
+        }
+
+        public ECFieldElement divide(ECFieldElement b)
+        {
+            int[] z = new int[x.length];
+            field.divide(x, limbs(b), z);
+            return new FpMont(field, z);
+        }
+
+        public ECFieldElement negate()
+        {
+            int[] z = new int[x.length];
+            field.negate(x, z);
+            return new FpMont(field, z);
+        }
+
+        public ECFieldElement square()
+        {
+            int[] z = new int[x.length];
+            field.square(x, z);
+            return new FpMont(field, z);
+        }
+
+        public ECFieldElement invert()
+        {
+            int[] z = new int[x.length];
+            field.invert(x, z);
+            return new FpMont(field, z);
+        }
+
+        public ECFieldElement sqrt()
+        {
+            ECFieldElement root = new Fp(field.getQ(), toBigInteger()).sqrt();
+            if (root == null)
+            {
+                return null;
+            }
+            return new FpMont(field, root.toBigInteger());
+        }
+
+        MontgomeryField getField()
+        {
+            return field;
+        }
+
+        /**
+         * Returns the limbs of this element itself, which must not be
+         * modified.
+         */
+        int[] getLimbs()
+        {
+            return x;
+        }
+
+        private int[] limbs(ECFieldElement b)
+        {
+            return limbs(field, b);
+        }
+
+        /**
+         * Returns the Montgomery form of <code>b</code> in <code>field</code>,
+         * the limbs of <code>b</code> itself (which must not be modified) if
+         * it already is an element of <code>field</code>.
+         */
+        static int[] limbs(MontgomeryField field, ECFieldElement b)
+        {
+            if (b instanceof FpMont && ((FpMont) b).field == field)
+            {
+                return ((FpMont) b).x;
+            }
+            return field.toMont(b.toBigInteger());
+        }
+
+        public boolean equals(Object other)
+        {
+            if (other == this)
+            {
+                return true;
+            }
+
+            if (other instanceof ECFieldElement.Fp)
+            {
+                ECFieldElement.Fp o = (ECFieldElement.Fp)other;
+                return field.getQ().equals(o.getQ()) && toBigInteger().equals(o.toBigInteger());
+            }
+
+            if (!(other instanceof ECFieldElement.FpMont))
+            {
+                return false;
+            }
+
+            ECFieldElement.FpMont o = (ECFieldElement.FpMont)other;
+            return field.getQ().equals(o.field.getQ()) && Arrays.equals(x, o.x);
+        }
+
+        public int hashCode()
+        {
+            return field.getQ().hashCode() ^ toBigInteger().hashCode();
+        }
+    }
+
 //    /**
 //     * Class representing the Elements of the finite field
 //     * <code>F<sub>2<sup>m</sup></sub></code> in polynomial basis (PB)
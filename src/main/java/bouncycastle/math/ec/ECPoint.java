@@ -1,6 +1,7 @@
 package bouncycastle.math.ec;
 
 import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import bouncycastle.asn1.x9.X9IntegerConverter;
 
@@ -15,9 +16,17 @@ public abstract class ECPoint
 
     protected boolean withCompression;
 
-    protected ECMultiplier multiplier = null;
+    // volatile and set without locking: the multipliers are stateless, the
+    // only care to take is that a default multiplier does not replace one
+    // set explicitly (see getECMultiplier())
+    protected volatile ECMultiplier multiplier = null;
 
-    protected PreCompInfo preCompInfo = null;
+    private static final AtomicReferenceFieldUpdater<ECPoint, ECMultiplier> MULTIPLIER_UPDATER
+        = AtomicReferenceFieldUpdater.newUpdater(ECPoint.class, ECMultiplier.class, "multiplier");
+
+    // volatile, as the precomputation of a shared point (e.g. a cached public
+    // key) may be stored by one thread and used by others
+    protected volatile PreCompInfo preCompInfo = null;
 
     private static X9IntegerConverter converter = new X9IntegerConverter();
 
@@ -43,6 +52,36 @@ public abstract class ECPoint
         return y;
     }
 
+    /**
+     * Returns whether this point is given in affine co-ordinates.
+     * @return <code>true</code> unless this point uses an internal projective
+     * representation.
+     */
+    public boolean isNormalized()
+    {
+        return true;
+    }
+
+    /**
+     * Returns the affine representation of this point. Points in affine
+     * co-ordinates are returned unchanged.
+     * @return the normalized <code>ECPoint</code>.
+     */
+    public ECPoint normalize()
+    {
+        return this;
+    }
+
+    /**
+     * Returns this point in the projective representation that the
+     * multiplication algorithms prefer for accumulating intermediate results.
+     * Curves without such a representation return the point unchanged.
+     */
+    ECPoint toJacobian()
+    {
+        return this;
+    }
+
     public boolean isInfinity()
     {
         return x == null && y == null;
@@ -66,14 +105,16 @@ public abstract class ECPoint
             return false;
         }
 
-        ECPoint o = (ECPoint)other;
+        ECPoint o = ((ECPoint)other).normalize();
 
         if (this.isInfinity())
         {
             return o.isInfinity();
         }
 
-        return x.equals(o.x) && y.equals(o.y);
+        ECPoint p = this.normalize();
+
+        return p.x.equals(o.x) && p.y.equals(o.y);
     }
 
     public int hashCode()
@@ -82,19 +123,22 @@ public abstract class ECPoint
         {
             return 0;
         }
-        
-        return x.hashCode() ^ y.hashCode();
+
+        ECPoint p = this.normalize();
+
+        return p.x.hashCode() ^ p.y.hashCode();
     }
 
-//    /**
-//     * Mainly for testing. Explicitly set the <code>ECMultiplier</code>.
-//     * @param multiplier The <code>ECMultiplier</code> to be used to multiply
-//     * this <code>ECPoint</code>.
-//     */
-//    public void setECMultiplier(ECMultiplier multiplier)
-//    {
-//        this.multiplier = multiplier;
-//    }
+    /**
+     * Explicitly set the <code>ECMultiplier</code>, e.g. a fixed-base
+     * multiplier for a point that gets multiplied over and over again.
+     * @param multiplier The <code>ECMultiplier</code> to be used to multiply
+     * this <code>ECPoint</code>.
+     */
+    void setECMultiplier(ECMultiplier multiplier)
+    {
+        this.multiplier = multiplier;
+    }
 
     /**
      * Sets the <code>PreCompInfo</code>. Used by <code>ECMultiplier</code>s
@@ -121,14 +165,29 @@ public abstract class ECPoint
     public abstract ECPoint twice();
 
     /**
-     * Sets the default <code>ECMultiplier</code>, unless already set. 
+     * Returns the <code>ECMultiplier</code> of this point, after setting the
+     * default one if none has been set yet. This doesn't lock, so points
+     * like the shared base point of a domain can be multiplied by any number
+     * of threads at once.
      */
-    synchronized void assertECMultiplier()
+    ECMultiplier getECMultiplier()
     {
-        if (this.multiplier == null)
+        ECMultiplier m = this.multiplier;
+        if (m == null)
         {
-            this.multiplier = new FpNafMultiplier();
+            // a multiplier set concurrently (explicitly or by default) wins
+            MULTIPLIER_UPDATER.compareAndSet(this, null, createDefaultMultiplier());
+            m = this.multiplier;
         }
+        return m;
+    }
+
+    /**
+     * Creates the default <code>ECMultiplier</code> for this point.
+     */
+    ECMultiplier createDefaultMultiplier()
+    {
+        return new WNafMultiplier();
     }
 
     /**
@@ -137,6 +196,15 @@ public abstract class ECPoint
      * @return <code>k * this</code>.
      */
     public ECPoint multiply(BigInteger k)
+    {
+        return implMultiply(k).normalize();
+    }
+
+    /**
+     * Multiplies this <code>ECPoint</code> by the given number, leaving the
+     * result in whatever co-ordinates the multiplier produced.
+     */
+    ECPoint implMultiply(BigInteger k)
     {
         if (k.signum() < 0)
         {
@@ -153,8 +221,7 @@ public abstract class ECPoint
             return this.curve.getInfinity();
         }
 
-        assertECMultiplier();
-        return this.multiplier.multiply(this, k, preCompInfo);
+        return getECMultiplier().multiply(this, k, preCompInfo);
     }
 
     /**
@@ -162,7 +229,14 @@ public abstract class ECPoint
      */
     public static class Fp extends ECPoint
     {
-        
+        /**
+         * The Jacobian z co-ordinate, or <code>null</code> for an affine
+         * point. A Jacobian point (X, Y, Z) represents the affine point
+         * (X/Z<sup>2</sup>, Y/Z<sup>3</sup>), which allows the multiplication
+         * algorithms to add and double without a field inversion per step.
+         */
+        ECFieldElement z;
+
         /**
          * Create a point which encodes with point compression.
          * 
@@ -194,7 +268,81 @@ public abstract class ECPoint
 
             this.withCompression = withCompression;
         }
-         
+
+        /**
+         * Create a point in Jacobian co-ordinates.
+         * 
+         * @param curve the curve to use
+         * @param x Jacobian X co-ordinate
+         * @param y Jacobian Y co-ordinate
+         * @param z Jacobian Z co-ordinate
+         * @param withCompression if true encode with point compression
+         */
+        Fp(ECCurve curve, ECFieldElement x, ECFieldElement y, ECFieldElement z, boolean withCompression)
+        {
+            super(curve, x, y);
+            this.z = z;
+            this.withCompression = withCompression;
+        }
+
+        /**
+         * Returns the affine x co-ordinate, normalizing the point first if
+         * it is held in Jacobian co-ordinates.
+         */
+        public ECFieldElement getX()
+        {
+            return (z == null) ? x : normalize().x;
+        }
+
+        /**
+         * Returns the affine y co-ordinate, normalizing the point first if
+         * it is held in Jacobian co-ordinates.
+         */
+        public ECFieldElement getY()
+        {
+            return (z == null) ? y : normalize().y;
+        }
+
+        public boolean isNormalized()
+        {
+            return z == null;
+        }
+
+        /**
+         * Converts a Jacobian point to affine co-ordinates, at the cost of a
+         * single field inversion.
+         */
+        public ECPoint normalize()
+        {
+            if (z == null)
+            {
+                return this;
+            }
+
+            return normalize(z.invert());
+        }
+
+        /**
+         * Converts a Jacobian point to affine co-ordinates, given the inverse
+         * of its z co-ordinate (e.g. from a simultaneous inversion).
+         */
+        ECPoint normalize(ECFieldElement zInv)
+        {
+            ECFieldElement zInv2 = zInv.square();
+
+            return new ECPoint.Fp(curve, x.multiply(zInv2), y.multiply(zInv2.multiply(zInv)), withCompression);
+        }
+
+        ECPoint toJacobian()
+        {
+            if (z != null || this.isInfinity())
+            {
+                return this;
+            }
+
+            return new ECPoint.Fp(curve, x, y, curve.fromBigInteger(ECConstants.ONE), withCompression);
+        }
+
         /**
          * return the field element encoded with point compression. (S 4.3.6)
          */
@@ -205,6 +353,11 @@ public abstract class ECPoint
                 return new byte[1];
             }
 
+            if (z != null)
+            {
+                return normalize().getEncoded(compressed);
+            }
+
             int qLength = converter.getByteLength(x);
             
             if (compressed)
@@ -255,6 +408,11 @@ public abstract class ECPoint
                 return this;
             }
 
+            if (this.z != null || ((ECPoint.Fp)b).z != null)
+            {
+                return addJacobian((ECPoint.Fp)b);
+            }
+
             // Check if b = this or b = -this
             if (this.x.equals(b.x))
             {
@@ -285,13 +443,18 @@ public abstract class ECPoint
                 return this;
             }
 
-            if (this.y.toBigInteger().signum() == 0) 
+            if (this.y.isZero()) 
             {
                 // if y1 == 0, then (x1, y1) == (x1, -y1)
                 // and hence this = -this and thus 2(x1, y1) == infinity
                 return this.curve.getInfinity();
             }
 
+            if (this.z != null)
+            {
+                return twiceJacobian();
+            }
+
             ECFieldElement TWO = this.curve.fromBigInteger(BigInteger.valueOf(2));
             ECFieldElement THREE = this.curve.fromBigInteger(BigInteger.valueOf(3));
             ECFieldElement gamma = this.x.square().multiply(THREE).add(curve.a).divide(y.multiply(TWO));
@@ -302,6 +465,93 @@ public abstract class ECPoint
             return new ECPoint.Fp(curve, x3, y3, this.withCompression);
         }
 
+        /**
+         * Adds two points of which at least one is held in Jacobian
+         * co-ordinates. If <code>b</code> is affine the cheaper mixed
+         * Jacobian-affine addition is used (Z<sub>2</sub> = 1).
+         * @param b The point to add, neither point may be infinity.
+         * @return <code>this + b</code> in Jacobian co-ordinates.
+         */
+        private ECPoint addJacobian(ECPoint.Fp b)
+        {
+            if (this.z == null)
+            {
+                return b.addJacobian(this);
+            }
+
+            ECFieldElement Z1Z1 = this.z.square();
+            ECFieldElement U1 = this.x;
+            ECFieldElement S1 = this.y;
+            ECFieldElement U2 = b.x.multiply(Z1Z1);
+            ECFieldElement S2 = b.y.multiply(Z1Z1.multiply(this.z));
+            ECFieldElement Z3 = this.z;
+
+            if (b.z != null)
+            {
+                ECFieldElement Z2Z2 = b.z.square();
+                U1 = U1.multiply(Z2Z2);
+                S1 = S1.multiply(Z2Z2.multiply(b.z));
+                Z3 = Z3.multiply(b.z);
+            }
+
+            ECFieldElement H = U2.subtract(U1);
+            ECFieldElement R = S2.subtract(S1);
+
+            // Check if b = this or b = -this
+            if (H.isZero())
+            {
+                if (R.isZero())
+                {
+                    // this = b, i.e. this must be doubled
+                    return this.twice();
+                }
+
+                // this = -b, i.e. the result is the point at infinity
+                return this.curve.getInfinity();
+            }
+
+            ECFieldElement HH = H.square();
+            ECFieldElement HHH = HH.multiply(H);
+            ECFieldElement V = U1.multiply(HH);
+
+            ECFieldElement X3 = R.square().subtract(HHH).subtract(V.add(V));
+            ECFieldElement Y3 = R.multiply(V.subtract(X3)).subtract(S1.multiply(HHH));
+
+            return new ECPoint.Fp(curve, X3, Y3, Z3.multiply(H), withCompression);
+        }
+
+        /**
+         * Doubles a point held in Jacobian co-ordinates for a general curve
+         * parameter <code>a</code>.
+         * @return <code>2 * this</code> in Jacobian co-ordinates.
+         */
+        private ECPoint twiceJacobian()
+        {
+            ECFieldElement XX = this.x.square();
+            ECFieldElement YY = this.y.square();
+            ECFieldElement ZZ = this.z.square();
+
+            // S = 4 * X * Y^2
+            ECFieldElement S = this.x.multiply(YY);
+            S = S.add(S);
+            S = S.add(S);
+
+            // M = 3 * X^2 + a * Z^4
+            ECFieldElement M = XX.add(XX).add(XX).add(curve.a.multiply(ZZ.square()));
+
+            // 8 * Y^4
+            ECFieldElement YYYY8 = YY.square();
+            YYYY8 = YYYY8.add(YYYY8);
+            YYYY8 = YYYY8.add(YYYY8);
+            YYYY8 = YYYY8.add(YYYY8);
+
+            ECFieldElement X3 = M.square().subtract(S.add(S));
+            ECFieldElement Y3 = M.multiply(S.subtract(X3)).subtract(YYYY8);
+            ECFieldElement Z3 = this.y.multiply(this.z);
+
+            return new ECPoint.Fp(curve, X3, Y3, Z3.add(Z3), withCompression);
+        }
+
         // D.3.2 pg 102 (see Note:)
         public ECPoint subtract(ECPoint b)
         {
@@ -316,18 +566,7 @@ public abstract class ECPoint
 
         public ECPoint negate()
         {
-            return new ECPoint.Fp(curve, this.x, this.y.negate(), this.withCompression);
-        }
-
-        /**
-         * Sets the default <code>ECMultiplier</code>, unless already set. 
-         */
-        synchronized void assertECMultiplier()
-        {
-            if (this.multiplier == null)
-            {
-                this.multiplier = new WNafMultiplier();
-            }
+            return new ECPoint.Fp(curve, this.x, this.y.negate(), this.z, this.withCompression);
         }
     }
 
@@ -573,21 +812,15 @@ public abstract class ECPoint
         }
 
         /**
-         * Sets the appropriate <code>ECMultiplier</code>, unless already set. 
+         * Creates the appropriate <code>ECMultiplier</code>.
          */
-        synchronized void assertECMultiplier()
+        ECMultiplier createDefaultMultiplier()
         {
-            if (this.multiplier == null)
+            if (((ECCurve.F2m)this.curve).isKoblitz())
             {
-                if (((ECCurve.F2m)this.curve).isKoblitz())
-                {
-                    this.multiplier = new WTauNafMultiplier();
-                }
-                else
-                {
-                    this.multiplier = new WNafMultiplier();
-                }
+                return new WTauNafMultiplier();
             }
+            return new WNafMultiplier();
         }
     }
 }
@@ -0,0 +1,83 @@
+package bouncycastle.math.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Class implementing the fixed-base comb multiplication algorithm (Lim-Lee)
+ * for points that get multiplied over and over again, typically the base
+ * point <code>G</code> of a domain. The comb table is built once and stored
+ * with the point, after which a multiplication costs about
+ * <code>m / w</code> doublings and as many mixed additions, for
+ * multiplicators of <code>m</code> bits and a comb of width <code>w</code>.
+ */
+class FixedPointCombMultiplier implements ECMultiplier
+{
+    /**
+     * The maximal bit length of the multiplicators the comb is built for
+     * (usually the bit length of the order of the point).
+     */
+    private final int bitLength;
+
+    FixedPointCombMultiplier(int bitLength)
+    {
+        this.bitLength = bitLength;
+    }
+
+    public ECPoint multiply(ECPoint p, BigInteger k, PreCompInfo preCompInfo)
+    {
+        if (k.bitLength() > bitLength)
+        {
+            // The comb only covers multiplicators smaller than the order,
+            // larger ones are rare and can take the plain NAF path (which
+            // leaves the stored comb table alone)
+            return new FpNafMultiplier().multiply(p, k, null);
+        }
+
+        FixedPointPreCompInfo combPreCompInfo = precompute(p, preCompInfo);
+        ECPoint[] preComp = combPreCompInfo.getPreComp();
+        int width = combPreCompInfo.getWidth();
+        int spacing = combPreCompInfo.getSpacing();
+
+        PointAccumulator R = PointAccumulator.create(p.getCurve());
+        for (int i = spacing - 1; i >= 0; i--)
+        {
+            // Gather the bits of k under the teeth of the comb
+            int index = 0;
+            for (int j = width - 1; j >= 0; j--)
+            {
+                index <<= 1;
+                if (k.testBit(j * spacing + i))
+                {
+                    index |= 1;
+                }
+            }
+
+            R.twice();
+
+            if (index != 0)
+            {
+                R.add(preComp[index]);
+            }
+        }
+
+        return R.toPoint();
+    }
+
+    /**
+     * Returns the precomputation for <code>p</code>, which is built (and
+     * stored with <code>p</code>) on first use.
+     */
+    FixedPointPreCompInfo precompute(ECPoint p, PreCompInfo preCompInfo)
+    {
+        if ((preCompInfo != null) && (preCompInfo instanceof FixedPointPreCompInfo)
+            && ((FixedPointPreCompInfo)preCompInfo).getBitLength() >= bitLength)
+        {
+            return (FixedPointPreCompInfo)preCompInfo;
+        }
+
+        // Build the comb table once, it is then kept by the point
+        FixedPointPreCompInfo combPreCompInfo = new FixedPointPreCompInfo(p, bitLength);
+        p.setPreCompInfo(combPreCompInfo);
+        return combPreCompInfo;
+    }
+}
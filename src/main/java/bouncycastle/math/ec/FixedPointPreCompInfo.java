@@ -0,0 +1,118 @@
+package bouncycastle.math.ec;
+
+/**
+ * Class holding precomputation data for the fixed-base comb multiplication
+ * algorithm, along with a wide Window NAF table for multi-scalar
+ * multiplications involving the point. Instances are immutable and can be
+ * shared between threads.
+ */
+class FixedPointPreCompInfo implements PreCompInfo
+{
+    /**
+     * The width of the Window NAF used for <code>p</code> in interleaved
+     * multi-scalar multiplications, wider than for an ordinary point since
+     * its table is built only once.
+     */
+    private static final byte WNAF_WIDTH = 7;
+
+    /**
+     * Array holding the precomputed affine <code>ECPoint</code>s. The entry at
+     * index <code>i</code> is the sum of <code>2<sup>j * spacing</sup> * p
+     * </code> over all bits <code>j</code> set in <code>i</code>.
+     */
+    private final ECPoint[] preComp;
+
+    /**
+     * The number of teeth of the comb (the width of the lookup index).
+     */
+    private final int width;
+
+    /**
+     * The distance (in bits) between two teeth of the comb.
+     */
+    private final int spacing;
+
+    /**
+     * Array holding the affine odd multiples <code>1, 3, ...,
+     * 2<sup>WNAF_WIDTH - 1</sup> - 1</code> of <code>p</code> for the Window
+     * NAF.
+     */
+    private final ECPoint[] wnafPreComp;
+
+    /**
+     * Builds the comb table of <code>p</code> for multiplicators of up to
+     * <code>bitLength</code> bits, and its Window NAF table.
+     * @param p The affine point to precompute.
+     * @param bitLength The maximal bit length of the multiplicators.
+     */
+    FixedPointPreCompInfo(ECPoint p, int bitLength)
+    {
+        this.width = (bitLength > 256) ? 6 : 5;
+        this.spacing = (bitLength + width - 1) / width;
+
+        // 2^(j * spacing) * p for j = 0, ..., width - 1
+        ECPoint[] pow2Table = new ECPoint[width];
+        pow2Table[0] = p;
+        for (int j = 1; j < width; j++)
+        {
+            ECPoint q = pow2Table[j - 1].toJacobian();
+            for (int s = 0; s < spacing; s++)
+            {
+                q = q.twice();
+            }
+            pow2Table[j] = q;
+        }
+        ECAlgorithms.normalizeAll(pow2Table);
+
+        ECPoint[] table = new ECPoint[1 << width];
+        table[0] = p.getCurve().getInfinity();
+        for (int bit = 0; bit < width; bit++)
+        {
+            int step = 1 << bit;
+            table[step] = pow2Table[bit];
+            for (int i = step + 1; i < (step << 1); i++)
+            {
+                table[i] = table[i - step].toJacobian().add(pow2Table[bit]);
+            }
+        }
+        ECAlgorithms.normalizeAll(table);
+
+        this.preComp = table;
+
+        this.wnafPreComp = WNafMultiplier.extendPreComp(new ECPoint[]{ p }, p.twice(),
+            1 << (WNAF_WIDTH - 2));
+    }
+
+    ECPoint[] getPreComp()
+    {
+        return preComp;
+    }
+
+    int getWidth()
+    {
+        return width;
+    }
+
+    int getSpacing()
+    {
+        return spacing;
+    }
+
+    ECPoint[] getWNafPreComp()
+    {
+        return wnafPreComp;
+    }
+
+    byte getWNafWidth()
+    {
+        return WNAF_WIDTH;
+    }
+
+    /**
+     * @return the maximal bit length of the multiplicators covered by the comb.
+     */
+    int getBitLength()
+    {
+        return width * spacing;
+    }
+}
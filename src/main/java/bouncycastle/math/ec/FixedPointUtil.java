@@ -0,0 +1,31 @@
+package bouncycastle.math.ec;
+
+/**
+ * Sets up points that get multiplied over and over again (like the base point
+ * <code>G</code> of a domain) for fixed-base comb multiplication.
+ */
+public class FixedPointUtil
+{
+    /**
+     * Installs the fixed-base comb multiplier on <code>p</code>. The comb
+     * table is built on the first multiplication and kept with the point
+     * for all subsequent ones.
+     * @param p The point to set up.
+     * @param bitLength The bit length of the largest multiplicator to expect,
+     * usually that of the order of <code>p</code>. Larger multiplicators are
+     * still handled, but without the comb.
+     */
+    public static void precompute(ECPoint p, int bitLength)
+    {
+        if (p == null || p.isInfinity() || bitLength <= 0)
+        {
+            return;
+        }
+
+        p.setECMultiplier(new FixedPointCombMultiplier(bitLength));
+    }
+
+    private FixedPointUtil()
+    {
+    }
+}
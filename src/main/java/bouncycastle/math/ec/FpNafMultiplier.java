@@ -18,22 +18,31 @@ class FpNafMultiplier implements ECMultiplier
         BigInteger e = k;
         BigInteger h = e.multiply(BigInteger.valueOf(3));
 
-        ECPoint neg = p.negate();
-        ECPoint R = p;
+        // accumulate in Jacobian co-ordinates, p stays affine so that every
+        // addition is a mixed one
+        PointAccumulator R = PointAccumulator.create(p.getCurve());
+        R.add(p);
 
         for (int i = h.bitLength() - 2; i > 0; --i)
         {             
-            R = R.twice();
+            R.twice();
 
             boolean hBit = h.testBit(i);
             boolean eBit = e.testBit(i);
 
             if (hBit != eBit)
             {
-                R = R.add(hBit ? p : neg);
+                if (hBit)
+                {
+                    R.add(p);
+                }
+                else
+                {
+                    R.subtract(p);
+                }
             }
         }
 
-        return R;
+        return R.toPoint();
     }
 }
@@ -0,0 +1,390 @@
+package bouncycastle.math.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic modulo an odd prime <code>q</code> on fixed-size little-endian
+ * <code>int</code> limbs in Montgomery form, i.e. an element <code>x</code>
+ * is held as <code>x * R mod q</code> with <code>R = 2<sup>32 * len</sup>
+ * </code>. All values are fully reduced (in <code>[0, q)</code>), so the
+ * representation of an element is unique.
+ * <p>
+ * The <code>add</code>, <code>subtract</code>, <code>negate</code>,
+ * <code>multiply</code> and <code>square</code> routines write into a
+ * caller-supplied array and do not allocate. One instance is shared by all
+ * elements of a field and holds no mutable state, so it can be used by any
+ * number of threads.
+ */
+final class MontgomeryField
+{
+    private static final long M = 0xFFFFFFFFL;
+
+    private static final int WINDOW = 4;
+
+    /**
+     * The modulus.
+     */
+    private final BigInteger q;
+
+    /**
+     * The number of 32-bit limbs of an element.
+     */
+    private final int len;
+
+    /**
+     * The limbs of the modulus, as unsigned values.
+     */
+    private final long[] qLimbs;
+
+    /**
+     * <code>-q<sup>-1</sup> mod 2<sup>32</sup></code>
+     */
+    private final int qInv;
+
+    /**
+     * <code>R<sup>2</sup> mod q</code>, used to convert into Montgomery form.
+     */
+    private final int[] r2;
+
+    /**
+     * <code>R mod q</code>, the Montgomery form of <code>1</code>.
+     */
+    private final int[] one;
+
+    /**
+     * The exponent <code>q - 2</code> for inversion by Fermat's little
+     * theorem.
+     */
+    private final int[] invExponent;
+
+    MontgomeryField(BigInteger q)
+    {
+        if (q.signum() <= 0 || !q.testBit(0))
+        {
+            throw new IllegalArgumentException("q must be an odd positive number");
+        }
+
+        this.q = q;
+        this.len = (q.bitLength() + 31) >>> 5;
+
+        int[] limbs = toLimbs(q, len);
+        this.qLimbs = new long[len];
+        for (int i = 0; i < len; i++)
+        {
+            qLimbs[i] = limbs[i] & M;
+        }
+
+        // q^-1 mod 2^32 by Newton iteration, every step doubles the number of
+        // correct low bits (an odd q0 is its own inverse modulo 8)
+        int q0 = limbs[0];
+        int inv = q0;
+        for (int i = 0; i < 4; i++)
+        {
+            inv *= 2 - q0 * inv;
+        }
+        this.qInv = -inv;
+
+        BigInteger R = ECConstants.ONE.shiftLeft(32 * len);
+        this.r2 = toLimbs(R.multiply(R).mod(q), len);
+        this.one = toLimbs(R.mod(q), len);
+        this.invExponent = toLimbs(q.subtract(ECConstants.TWO), len);
+    }
+
+    BigInteger getQ()
+    {
+        return q;
+    }
+
+    /**
+     * @return the number of <code>int</code> limbs of an element.
+     */
+    int getLength()
+    {
+        return len;
+    }
+
+    /**
+     * @return a new array holding the Montgomery form of <code>1</code>.
+     */
+    int[] one()
+    {
+        return one.clone();
+    }
+
+    /**
+     * Converts <code>x</code> (in <code>[0, q)</code>) into Montgomery form.
+     */
+    int[] toMont(BigInteger x)
+    {
+        int[] z = new int[len];
+        multiply(toLimbs(x, len), r2, z);
+        return z;
+    }
+
+    /**
+     * Converts <code>x</code> from Montgomery form back to an integer.
+     */
+    BigInteger fromMont(int[] x)
+    {
+        int[] plainOne = new int[len];
+        plainOne[0] = 1;
+
+        int[] z = new int[len];
+        multiply(x, plainOne, z);
+
+        byte[] bytes = new byte[len << 2];
+        for (int i = 0; i < len; i++)
+        {
+            int v = z[i];
+            int off = (len - 1 - i) << 2;
+            bytes[off] = (byte)(v >>> 24);
+            bytes[off + 1] = (byte)(v >>> 16);
+            bytes[off + 2] = (byte)(v >>> 8);
+            bytes[off + 3] = (byte)v;
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    static boolean isZero(int[] x)
+    {
+        int bits = 0;
+        for (int i = 0; i < x.length; i++)
+        {
+            bits |= x[i];
+        }
+        return bits == 0;
+    }
+
+    /**
+     * <code>z = x + y mod q</code>, <code>z</code> may be the same array as
+     * <code>x</code> or <code>y</code>.
+     */
+    void add(int[] x, int[] y, int[] z)
+    {
+        long c = 0;
+        for (int i = 0; i < len; i++)
+        {
+            c += (x[i] & M) + (y[i] & M);
+            z[i] = (int)c;
+            c >>>= 32;
+        }
+
+        if (c != 0 || !lessThanQ(z))
+        {
+            subtractQ(z);
+        }
+    }
+
+    /**
+     * <code>z = x - y mod q</code>, <code>z</code> may be the same array as
+     * <code>x</code> or <code>y</code>.
+     */
+    void subtract(int[] x, int[] y, int[] z)
+    {
+        long b = 0;
+        for (int i = 0; i < len; i++)
+        {
+            b += (x[i] & M) - (y[i] & M);
+            z[i] = (int)b;
+            b >>= 32;
+        }
+
+        if (b != 0)
+        {
+            addQ(z);
+        }
+    }
+
+    /**
+     * <code>z = -x mod q</code>, <code>z</code> may be the same array as
+     * <code>x</code>.
+     */
+    void negate(int[] x, int[] z)
+    {
+        if (isZero(x))
+        {
+            for (int i = 0; i < len; i++)
+            {
+                z[i] = 0;
+            }
+            return;
+        }
+
+        long b = 0;
+        for (int i = 0; i < len; i++)
+        {
+            b += qLimbs[i] - (x[i] & M);
+            z[i] = (int)b;
+            b >>= 32;
+        }
+    }
+
+    /**
+     * Montgomery multiplication <code>z = x * y / R mod q</code> (CIOS
+     * method), <code>z</code> must not be the same array as <code>x</code>
+     * or <code>y</code>.
+     */
+    void multiply(int[] x, int[] y, int[] z)
+    {
+        for (int i = 0; i < len; i++)
+        {
+            z[i] = 0;
+        }
+
+        // the two words above z during the accumulation
+        long tHi = 0;
+
+        for (int i = 0; i < len; i++)
+        {
+            // z += x * y[i]
+            long yi = y[i] & M;
+            long c = 0;
+            for (int j = 0; j < len; j++)
+            {
+                c += (z[j] & M) + (x[j] & M) * yi;
+                z[j] = (int)c;
+                c >>>= 32;
+            }
+            c += tHi;
+            tHi = c & M;
+            long tTop = c >>> 32;
+
+            // z = (z + m * q) / 2^32, with m chosen to clear the lowest word
+            long m = (z[0] * qInv) & M;
+            c = ((z[0] & M) + m * qLimbs[0]) >>> 32;
+            for (int j = 1; j < len; j++)
+            {
+                c += (z[j] & M) + m * qLimbs[j];
+                z[j - 1] = (int)c;
+                c >>>= 32;
+            }
+            c += tHi;
+            z[len - 1] = (int)c;
+            tHi = tTop + (c >>> 32);
+        }
+
+        // the result is smaller than 2q
+        if (tHi != 0 || !lessThanQ(z))
+        {
+            subtractQ(z);
+        }
+    }
+
+    /**
+     * <code>z = x<sup>2</sup> / R mod q</code>, <code>z</code> must not be
+     * the same array as <code>x</code>.
+     */
+    void square(int[] x, int[] z)
+    {
+        multiply(x, x, z);
+    }
+
+    /**
+     * <code>z = x<sup>-1</sup> mod q</code> (in Montgomery form), computed as
+     * <code>x<sup>q-2</sup></code> with a fixed window exponentiation.
+     * <code>z</code> may be the same array as <code>x</code>.
+     * @throws ArithmeticException if <code>x</code> is zero.
+     */
+    void invert(int[] x, int[] z)
+    {
+        System.arraycopy(inverse(x), 0, z, 0, len);
+    }
+
+    /**
+     * <code>z = x / y mod q</code>, <code>z</code> must not be the same
+     * array as <code>x</code> or <code>y</code>.
+     * @throws ArithmeticException if <code>y</code> is zero.
+     */
+    void divide(int[] x, int[] y, int[] z)
+    {
+        multiply(x, inverse(y), z);
+    }
+
+    /**
+     * Returns <code>x<sup>q-2</sup></code> in a new array.
+     */
+    private int[] inverse(int[] x)
+    {
+        if (isZero(x))
+        {
+            throw new ArithmeticException("zero is not invertible");
+        }
+
+        // x^0, x^1, ..., x^(2^WINDOW - 1)
+        int[][] table = new int[1 << WINDOW][];
+        table[0] = one.clone();
+        table[1] = x.clone();
+        for (int i = 2; i < table.length; i++)
+        {
+            table[i] = new int[len];
+            multiply(table[i - 1], table[1], table[i]);
+        }
+
+        int[] acc = one.clone();
+        int[] tmp = new int[len];
+
+        for (int bit = (len << 5) - WINDOW; bit >= 0; bit -= WINDOW)
+        {
+            for (int s = 0; s < WINDOW; s++)
+            {
+                multiply(acc, acc, tmp);
+                int[] t = acc; acc = tmp; tmp = t;
+            }
+
+            int digit = (invExponent[bit >>> 5] >>> (bit & 31)) & ((1 << WINDOW) - 1);
+            if (digit != 0)
+            {
+                multiply(acc, table[digit], tmp);
+                int[] t = acc; acc = tmp; tmp = t;
+            }
+        }
+
+        return acc;
+    }
+
+    private boolean lessThanQ(int[] x)
+    {
+        for (int i = len - 1; i >= 0; i--)
+        {
+            long xi = x[i] & M;
+            if (xi != qLimbs[i])
+            {
+                return xi < qLimbs[i];
+            }
+        }
+        return false;
+    }
+
+    private void subtractQ(int[] x)
+    {
+        long b = 0;
+        for (int i = 0; i < len; i++)
+        {
+            b += (x[i] & M) - qLimbs[i];
+            x[i] = (int)b;
+            b >>= 32;
+        }
+    }
+
+    private void addQ(int[] x)
+    {
+        long c = 0;
+        for (int i = 0; i < len; i++)
+        {
+            c += (x[i] & M) + qLimbs[i];
+            x[i] = (int)c;
+            c >>>= 32;
+        }
+    }
+
+    private static int[] toLimbs(BigInteger x, int len)
+    {
+        byte[] bytes = x.toByteArray();
+        int[] limbs = new int[len];
+        for (int i = 0, off = bytes.length - 1; off >= 0 && i < (len << 2); i++, off--)
+        {
+            limbs[i >>> 2] |= (bytes[off] & 0xFF) << ((i & 3) << 3);
+        }
+        return limbs;
+    }
+}
@@ -0,0 +1,323 @@
+package bouncycastle.math.ec;
+
+/**
+ * The running point of a multiplication algorithm, which doubles and adds
+ * into it over and over again and finally takes the result with
+ * {@link #toPoint()}. The accumulator starts out as the point at infinity.
+ * <p>
+ * In general this just replaces the running point by its double or sum on
+ * every step. For curves over <code>F<sub>p</sub></code> whose elements are
+ * held in Montgomery form (see {@link ECFieldElement.FpMont}) the running
+ * point is kept in Jacobian co-ordinates as limb arrays, which are updated
+ * in place with the help of scratch space owned by the accumulator, so a
+ * multiplication creates no garbage until the result point is taken.
+ * <p>
+ * An accumulator serves one multiplication at a time, in one thread.
+ */
+abstract class PointAccumulator
+{
+    /**
+     * Creates an accumulator (at infinity) for points on <code>curve</code>.
+     */
+    static PointAccumulator create(ECCurve curve)
+    {
+        if (curve instanceof ECCurve.Fp && ((ECCurve.Fp)curve).field != null)
+        {
+            return new Mont((ECCurve.Fp)curve);
+        }
+        return new Generic(curve);
+    }
+
+    /**
+     * Doubles the running point.
+     */
+    abstract void twice();
+
+    /**
+     * Adds <code>b</code> to the running point.
+     */
+    abstract void add(ECPoint b);
+
+    /**
+     * Subtracts <code>b</code> from the running point.
+     */
+    abstract void subtract(ECPoint b);
+
+    /**
+     * Returns the running point, in Jacobian co-ordinates if the curve has
+     * them. The accumulator may go on afterwards, the point returned is not
+     * affected by that.
+     */
+    abstract ECPoint toPoint();
+
+    /**
+     * Accumulates through the (immutable) points themselves.
+     */
+    private static final class Generic extends PointAccumulator
+    {
+        private ECPoint R;
+
+        Generic(ECCurve curve)
+        {
+            this.R = curve.getInfinity();
+        }
+
+        void twice()
+        {
+            R = R.twice();
+        }
+
+        void add(ECPoint b)
+        {
+            R = ECAlgorithms.accumulate(R, b);
+        }
+
+        void subtract(ECPoint b)
+        {
+            R = ECAlgorithms.accumulate(R, b.negate());
+        }
+
+        ECPoint toPoint()
+        {
+            return R;
+        }
+    }
+
+    /**
+     * Accumulates on Montgomery limbs with the formulae of
+     * <code>ECPoint.Fp</code> (Jacobian doubling for a general
+     * <code>a</code>, and mixed or general Jacobian addition).
+     */
+    private static final class Mont extends PointAccumulator
+    {
+        private final ECCurve.Fp curve;
+        private final MontgomeryField field;
+
+        /**
+         * The curve parameter <code>a</code>.
+         */
+        private final int[] a;
+
+        /**
+         * The Z co-ordinate of an affine point.
+         */
+        private final int[] one;
+
+        /**
+         * The running point (X, Y, Z), unless it is the point at infinity.
+         */
+        private final int[] X, Y, Z;
+        private boolean infinity = true;
+
+        /**
+         * The compression flag of the first point added, which is passed on
+         * to the result (as by <code>ECAlgorithms.accumulate</code>).
+         */
+        private boolean withCompression;
+
+        /**
+         * Scratch space for the formulae.
+         */
+        private final int[] t0, t1, t2, t3, t4, t5, t6;
+
+        Mont(ECCurve.Fp curve)
+        {
+            this.curve = curve;
+            this.field = curve.field;
+            this.a = ECFieldElement.FpMont.limbs(field, curve.getA());
+            this.one = field.one();
+
+            int len = field.getLength();
+            X = new int[len];
+            Y = new int[len];
+            Z = new int[len];
+            t0 = new int[len];
+            t1 = new int[len];
+            t2 = new int[len];
+            t3 = new int[len];
+            t4 = new int[len];
+            t5 = new int[len];
+            t6 = new int[len];
+        }
+
+        void twice()
+        {
+            if (infinity)
+            {
+                return;
+            }
+
+            if (MontgomeryField.isZero(Y))
+            {
+                // a point of order 2
+                infinity = true;
+                return;
+            }
+
+            MontgomeryField f = field;
+
+            // XX, YY, ZZ
+            f.square(X, t0);
+            f.square(Y, t1);
+            f.square(Z, t2);
+
+            // S = 4 * X * Y^2
+            f.multiply(X, t1, t3);
+            f.add(t3, t3, t3);
+            f.add(t3, t3, t3);
+
+            // M = 3 * X^2 + a * Z^4
+            f.square(t2, t4);
+            f.multiply(a, t4, t5);
+            f.add(t0, t0, t4);
+            f.add(t4, t0, t4);
+            f.add(t4, t5, t4);
+
+            // 8 * Y^4
+            f.square(t1, t5);
+            f.add(t5, t5, t5);
+            f.add(t5, t5, t5);
+            f.add(t5, t5, t5);
+
+            // Z3 = 2 * Y * Z
+            f.multiply(Y, Z, t6);
+            f.add(t6, t6, Z);
+
+            // X3 = M^2 - 2 * S
+            f.square(t4, t0);
+            f.add(t3, t3, t6);
+            f.subtract(t0, t6, X);
+
+            // Y3 = M * (S - X3) - 8 * Y^4
+            f.subtract(t3, X, t6);
+            f.multiply(t4, t6, t0);
+            f.subtract(t0, t5, Y);
+        }
+
+        void add(ECPoint b)
+        {
+            add((ECPoint.Fp)b, false);
+        }
+
+        void subtract(ECPoint b)
+        {
+            add((ECPoint.Fp)b, true);
+        }
+
+        /**
+         * Adds <code>b</code>, or <code>-b</code> if <code>negate</code> is
+         * set.
+         */
+        private void add(ECPoint.Fp b, boolean negate)
+        {
+            if (b.isInfinity())
+            {
+                return;
+            }
+
+            MontgomeryField f = field;
+            int[] bx = ECFieldElement.FpMont.limbs(f, b.x);
+            int[] by = ECFieldElement.FpMont.limbs(f, b.y);
+            int[] bz = (b.z == null) ? null : ECFieldElement.FpMont.limbs(f, b.z);
+
+            if (infinity)
+            {
+                System.arraycopy(bx, 0, X, 0, X.length);
+                if (negate)
+                {
+                    f.negate(by, Y);
+                }
+                else
+                {
+                    System.arraycopy(by, 0, Y, 0, Y.length);
+                }
+                System.arraycopy((bz == null) ? one : bz, 0, Z, 0, Z.length);
+                infinity = false;
+                withCompression = b.isCompressed();
+                return;
+            }
+
+            // U2 = bx * Z1^2, S2 = (+-)by * Z1^3
+            f.square(Z, t0);
+            f.multiply(bx, t0, t1);
+            f.multiply(t0, Z, t2);
+            f.multiply(by, t2, t3);
+            if (negate)
+            {
+                f.negate(t3, t3);
+            }
+
+            // U1 = X * Z2^2, S1 = Y * Z2^3 (just X and Y for an affine b)
+            int[] U1 = X;
+            int[] S1 = Y;
+            if (bz != null)
+            {
+                f.square(bz, t4);
+                f.multiply(X, t4, t5);
+                f.multiply(t4, bz, t6);
+                f.multiply(Y, t6, t4);
+                U1 = t5;
+                S1 = t4;
+            }
+
+            // H = U2 - U1, R = S2 - S1
+            f.subtract(t1, U1, t1);
+            f.subtract(t3, S1, t3);
+
+            if (MontgomeryField.isZero(t1))
+            {
+                if (MontgomeryField.isZero(t3))
+                {
+                    // b equals the running point, which must be doubled
+                    twice();
+                }
+                else
+                {
+                    // b is the negative of the running point
+                    infinity = true;
+                }
+                return;
+            }
+
+            // HH, HHH, V = U1 * HH
+            f.square(t1, t2);
+            f.multiply(t2, t1, t0);
+            f.multiply(U1, t2, t6);
+
+            // Z3 = Z1 * Z2 * H
+            f.multiply(Z, t1, t2);
+            if (bz != null)
+            {
+                f.multiply(t2, bz, Z);
+            }
+            else
+            {
+                System.arraycopy(t2, 0, Z, 0, Z.length);
+            }
+
+            // X3 = R^2 - HHH - 2 * V
+            f.square(t3, t2);
+            f.subtract(t2, t0, t2);
+            f.add(t6, t6, t1);
+            f.subtract(t2, t1, X);
+
+            // Y3 = R * (V - X3) - S1 * HHH
+            f.subtract(t6, X, t6);
+            f.multiply(t3, t6, t2);
+            f.multiply(S1, t0, t1);
+            f.subtract(t2, t1, Y);
+        }
+
+        ECPoint toPoint()
+        {
+            if (infinity)
+            {
+                return curve.getInfinity();
+            }
+
+            return new ECPoint.Fp(curve, new ECFieldElement.FpMont(field, X.clone()),
+                new ECFieldElement.FpMont(field, Y.clone()), new ECFieldElement.FpMont(field, Z.clone()),
+                withCompression);
+        }
+    }
+}
@@ -81,94 +81,64 @@ class WNafMultiplier implements ECMultiplier
     }
 
     /**
-     * Multiplies <code>this</code> by an integer <code>k</code> using the
-     * Window NAF method.
-     * @param k The integer by which <code>this</code> is multiplied.
-     * @return A new <code>ECPoint</code> which equals <code>this</code>
-     * multiplied by <code>k</code>.
+     * Determines the optimal width of the Window NAF for multiplicators of
+     * <code>m</code> bits, based on literature values.
      */
-    public ECPoint multiply(ECPoint p, BigInteger k, PreCompInfo preCompInfo)
+    static byte getWidth(int m)
     {
-        WNafPreCompInfo wnafPreCompInfo;
-
-        if ((preCompInfo != null) && (preCompInfo instanceof WNafPreCompInfo))
+        if (m < 13)
         {
-            wnafPreCompInfo = (WNafPreCompInfo)preCompInfo;
+            return 2;
         }
-        else
+        if (m < 41)
         {
-            // Ignore empty PreCompInfo or PreCompInfo of incorrect type
-            wnafPreCompInfo = new WNafPreCompInfo();
+            return 3;
         }
-
-        // floor(log2(k))
-        int m = k.bitLength();
-
-        // width of the Window NAF
-        byte width;
-
-        // Required length of precomputation array
-        int reqPreCompLen;
-
-        // Determine optimal width and corresponding length of precomputation
-        // array based on literature values
-        if (m < 13)
+        if (m < 121)
         {
-            width = 2;
-            reqPreCompLen = 1;
+            return 4;
         }
-        else
+        if (m < 337)
         {
-            if (m < 41)
-            {
-                width = 3;
-                reqPreCompLen = 2;
-            }
-            else
-            {
-                if (m < 121)
-                {
-                    width = 4;
-                    reqPreCompLen = 4;
-                }
-                else
-                {
-                    if (m < 337)
-                    {
-                        width = 5;
-                        reqPreCompLen = 8;
-                    }
-                    else
-                    {
-                        if (m < 897)
-                        {
-                            width = 6;
-                            reqPreCompLen = 16;
-                        }
-                        else
-                        {
-                            if (m < 2305)
-                            {
-                                width = 7;
-                                reqPreCompLen = 32;
-                            }
-                            else
-                            {
-                                width = 8;
-                                reqPreCompLen = 127;
-                            }
-                        }
-                    }
-                }
-            }
+            return 5;
+        }
+        if (m < 897)
+        {
+            return 6;
         }
+        if (m < 2305)
+        {
+            return 7;
+        }
+        return 8;
+    }
+
+    /**
+     * Returns the odd multiples <code>1, 3, ..., 2<sup>width - 1</sup> - 1
+     * </code> of <code>p</code> needed for a Window NAF of the given width.
+     * Multiples already precomputed for <code>p</code> are reused, a table
+     * that had to be extended is stored with <code>p</code> for the next
+     * multiplication.
+     */
+    static ECPoint[] precompute(ECPoint p, PreCompInfo preCompInfo, byte width)
+    {
+        ECPoint[] preComp = null;
+        ECPoint twiceP = null;
+
+        if ((preCompInfo != null) && (preCompInfo instanceof WNafPreCompInfo))
+        {
+            WNafPreCompInfo wnafPreCompInfo = (WNafPreCompInfo)preCompInfo;
+            preComp = wnafPreCompInfo.getPreComp();
+            twiceP = wnafPreCompInfo.getTwiceP();
+        }
+        // else: ignore empty PreCompInfo or PreCompInfo of incorrect type
+
+        // Required length of precomputation array
+        int reqPreCompLen = 1 << (width - 2);
 
         // The length of the precomputation array
         int preCompLen = 1;
 
-        ECPoint[] preComp = wnafPreCompInfo.getPreComp();
-        ECPoint twiceP = wnafPreCompInfo.getTwiceP();
-
         // Check if the precomputed ECPoints already exist
         if (preComp == null)
         {
@@ -190,51 +160,92 @@ class WNafMultiplier implements ECMultiplier
 
         if (preCompLen < reqPreCompLen)
         {
-            // Precomputation array must be made bigger, copy existing preComp
-            // array into the larger new preComp array
-            ECPoint[] oldPreComp = preComp;
-            preComp = new ECPoint[reqPreCompLen];
-            System.arraycopy(oldPreComp, 0, preComp, 0, preCompLen);
+            preComp = extendPreComp(preComp, twiceP, reqPreCompLen);
 
-            for (int i = preCompLen; i < reqPreCompLen; i++)
-            {
-                // Compute the new ECPoints for the precomputation array.
-                // The values 1, 3, 5, ..., 2^(width-1)-1 times p are
-                // computed
-                preComp[i] = twiceP.add(preComp[i - 1]);
-            }            
+            // Set PreCompInfo in ECPoint, such that it is available for next
+            // multiplication. A new (immutable) PreCompInfo is published
+            // instead of updating the old one, which may be in use by other
+            // threads.
+            p.setPreCompInfo(new WNafPreCompInfo(preComp, twiceP));
         }
 
+        return preComp;
+    }
+
+    /**
+     * Extends the table of odd multiples <code>1, 3, 5, ...</code> of a point
+     * to <code>reqPreCompLen</code> entries.
+     * @param preComp The existing (affine) table, at least the point itself.
+     * @param twiceP The affine double of the point.
+     * @return A new table, all of whose entries are affine.
+     */
+    static ECPoint[] extendPreComp(ECPoint[] preComp, ECPoint twiceP, int reqPreCompLen)
+    {
+        // Precomputation array must be made bigger, copy existing preComp
+        // array into the larger new preComp array
+        int preCompLen = preComp.length;
+        ECPoint[] newPreComp = new ECPoint[reqPreCompLen];
+        System.arraycopy(preComp, 0, newPreComp, 0, preCompLen);
+
+        // Compute the new ECPoints for the precomputation array. The values
+        // 1, 3, 5, ..., 2^(width-1)-1 times p are computed by mixed additions
+        // in Jacobian co-ordinates, and then all converted to affine
+        // co-ordinates with a single field inversion
+        PointAccumulator q = PointAccumulator.create(twiceP.getCurve());
+        q.add(newPreComp[preCompLen - 1]);
+        for (int i = preCompLen; i < reqPreCompLen; i++)
+        {
+            q.add(twiceP);
+            newPreComp[i] = q.toPoint();
+        }
+        ECAlgorithms.normalizeAll(newPreComp);
+
+        return newPreComp;
+    }
+
+    /**
+     * Multiplies <code>this</code> by an integer <code>k</code> using the
+     * Window NAF method.
+     * @param k The integer by which <code>this</code> is multiplied.
+     * @return A new <code>ECPoint</code> which equals <code>this</code>
+     * multiplied by <code>k</code>.
+     */
+    public ECPoint multiply(ECPoint p, BigInteger k, PreCompInfo preCompInfo)
+    {
+        // width of the Window NAF
+        byte width = getWidth(k.bitLength());
+
+        ECPoint[] preComp = precompute(p, preCompInfo, width);
+
         // Compute the Window NAF of the desired width
         byte[] wnaf = windowNaf(width, k);
         int l = wnaf.length;
 
         // Apply the Window NAF to p using the precomputed ECPoint values.
-        ECPoint q = p.getCurve().getInfinity();
-        for (int i = l - 1; i >= 0; i--)
+        // The most significant digit of the Window NAF of k > 0 is always
+        // positive, so we can start with the corresponding precomputed point,
+        // converted to the projective representation of the curve (if any).
+        PointAccumulator q = PointAccumulator.create(p.getCurve());
+        q.add(preComp[(wnaf[l - 1] - 1)/2]);
+        for (int i = l - 2; i >= 0; i--)
         {
-            q = q.twice();
+            q.twice();
 
             if (wnaf[i] != 0)
             {
                 if (wnaf[i] > 0)
                 {
-                    q = q.add(preComp[(wnaf[i] - 1)/2]);
+                    q.add(preComp[(wnaf[i] - 1)/2]);
                 }
                 else
                 {
                     // wnaf[i] < 0
-                    q = q.subtract(preComp[(-wnaf[i] - 1)/2]);
+                    q.subtract(preComp[(-wnaf[i] - 1)/2]);
                 }
             }
         }
 
-        // Set PreCompInfo in ECPoint, such that it is available for next
-        // multiplication.
-        wnafPreCompInfo.setPreComp(preComp);
-        wnafPreCompInfo.setTwiceP(twiceP);
-        p.setPreCompInfo(wnafPreCompInfo);
-        return q;
+        return q.toPoint();
     }
 
 }
@@ -2,7 +2,9 @@ package bouncycastle.math.ec;
 
 /**
  * Class holding precomputation data for the WNAF (Window Non-Adjacent Form)
- * algorithm.
+ * algorithm. Instances are immutable, a larger table is stored as a new
+ * <code>WNafPreCompInfo</code>, so that a point (and its precomputation) can
+ * be shared between threads.
  */
 class WNafPreCompInfo implements PreCompInfo
 {
@@ -12,7 +14,7 @@ class WNafPreCompInfo implements PreCompInfo
      * {@link bouncycastle.math.ec.multiplier.WNafMultiplier.multiply()
      * WNafMultiplier.multiply()}</code>.
      */
-    private ECPoint[] preComp = null;
+    private final ECPoint[] preComp;
 
     /**
      * Holds an <code>ECPoint</code> representing twice(this). Used for the
@@ -20,25 +22,26 @@ class WNafPreCompInfo implements PreCompInfo
      * {@link bouncycastle.math.ec.multiplier.WNafMultiplier.multiply()
      * WNafMultiplier.multiply()}</code>.
      */
-    private ECPoint twiceP = null;
+    private final ECPoint twiceP;
 
-    protected ECPoint[] getPreComp()
+    /**
+     * Constructor for <code>WNafPreCompInfo</code>
+     * @param preComp Array holding the precomputed <code>ECPoint</code>s.
+     * @param twiceP <code>twice(this)</code>.
+     */
+    WNafPreCompInfo(ECPoint[] preComp, ECPoint twiceP)
     {
-        return preComp;
+        this.preComp = preComp;
+        this.twiceP = twiceP;
     }
 
-    protected void setPreComp(ECPoint[] preComp)
+    protected ECPoint[] getPreComp()
     {
-        this.preComp = preComp;
+        return preComp;
     }
 
     protected ECPoint getTwiceP()
     {
         return twiceP;
     }
-
-    protected void setTwiceP(ECPoint twiceThis)
-    {
-        this.twiceP = twiceThis;
-    }
 }
@@ -79,6 +79,42 @@ public final class BigIntegers
         }
     }
 
+    /**
+     * Replace every value in <code>a</code> (none of them divisible by
+     * <code>n</code>) by its inverse mod <code>n</code>, using a single
+     * modular inversion (Montgomery's simultaneous inversion trick).
+     *
+     * @param a the values to invert, in place.
+     * @param n the modulus.
+     */
+    public static void modInverseAll(
+        BigInteger[]    a,
+        BigInteger      n)
+    {
+        int count = a.length;
+        if (count == 0)
+        {
+            return;
+        }
+
+        // products[j] = a[0] * ... * a[j] mod n
+        BigInteger[] products = new BigInteger[count];
+        products[0] = a[0];
+        for (int j = 1; j < count; j++)
+        {
+            products[j] = products[j - 1].multiply(a[j]).mod(n);
+        }
+
+        BigInteger inverse = products[count - 1].modInverse(n);
+        for (int j = count - 1; j > 0; j--)
+        {
+            BigInteger aInv = inverse.multiply(products[j - 1]).mod(n);
+            inverse = inverse.multiply(a[j]).mod(n);
+            a[j] = aInv;
+        }
+        a[0] = inverse;
+    }
+
     /**
      * Return a random BigInteger not less than 'min' and not greater than 'max'
      * 
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto;
+
+/**
+ * The outcome of a bulk operation over a list of messages, in the order of
+ * the input: for each message either its result or the exception that made
+ * it fail.
+ */
+public final class BatchResult {
+
+   private final byte[][] results;
+   private final RuntimeException[] failures;
+   private final int failureCount;
+
+   /**
+    * @param results
+    *           the result of each message, {@code null} where it failed.
+    * @param failures
+    *           the failure of each message, {@code null} where it succeeded.
+    */
+   public BatchResult(final byte[][] results, final RuntimeException[] failures) {
+      if (results == null) {
+         throw new IllegalArgumentException("results == null");
+      }
+      if (failures == null) {
+         throw new IllegalArgumentException("failures == null");
+      }
+      if (results.length != failures.length) {
+         throw new IllegalArgumentException(results.length + " results != " + failures.length + " failures");
+      }
+      int count = 0;
+      for (final RuntimeException failure : failures) {
+         if (failure != null) {
+            count++;
+         }
+      }
+      this.results = results.clone();
+      this.failures = failures.clone();
+      this.failureCount = count;
+   }
+
+   /**
+    * @return the number of messages.
+    */
+   public int size() {
+      return results.length;
+   }
+
+   /**
+    * @return the number of messages that failed.
+    */
+   public int getFailureCount() {
+      return failureCount;
+   }
+
+   /**
+    * @return true if the message at {@code index} succeeded.
+    */
+   public boolean isSuccess(final int index) {
+      return failures[index] == null;
+   }
+
+   /**
+    * @return the result for the message at {@code index}, or {@code null} if
+    *         it failed.
+    */
+   public byte[] get(final int index) {
+      return results[index];
+   }
+
+   /**
+    * @return the exception that made the message at {@code index} fail, or
+    *         {@code null} if it succeeded.
+    */
+   public RuntimeException getFailure(final int index) {
+      return failures[index];
+   }
+}
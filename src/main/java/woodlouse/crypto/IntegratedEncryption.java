@@ -4,10 +4,20 @@
  */
 package woodlouse.crypto;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import woodlouse.crypto.ec.ECIESPrivateKey;
 import woodlouse.crypto.ec.ECIESPublicKey;
+import woodlouse.crypto.ec.PreparedPrivateKey;
+import woodlouse.crypto.ec.PreparedPublicKey;
 
 /**
  * API for the integrated encryption scheme (IES) with ephemeral keys.
@@ -38,6 +48,240 @@ public interface IntegratedEncryption {
     */
    byte[] decryptEphemeral(byte[] cipherBytes, ECIESPrivateKey privateKey);
 
+   /**
+    * Decode and validate {@code publicKey} once, for repeated encryption with
+    * it. The returned key can be passed to every method that takes an
+    * {@code ECIESPublicKey}.
+    * 
+    * @param publicKey
+    *           the key to prepare.
+    * @return the prepared key ({@code publicKey} itself if it is one
+    *         already).
+    * @throws IllegalArgumentException
+    *            if {@code publicKey} is not a valid key of its domain.
+    */
+   PreparedPublicKey preparePublicKey(ECIESPublicKey publicKey);
+
+   /**
+    * Resolve and check {@code privateKey} once, for repeated decryption with
+    * it. The returned key can be passed to every method that takes an
+    * {@code ECIESPrivateKey}.
+    * 
+    * @param privateKey
+    *           the key to prepare.
+    * @return the prepared key ({@code privateKey} itself if it is one
+    *         already).
+    * @throws IllegalArgumentException
+    *            if {@code privateKey} is not a valid key of its domain.
+    */
+   PreparedPrivateKey preparePrivateKey(ECIESPrivateKey privateKey);
+
+   /**
+    * Encrypt each of the byte arrays {@code plainBytes} using the key
+    * {@code publicKey}, spread over the threads of {@code executor}. A message
+    * that fails doesn't stop the others.
+    * 
+    * @param plainBytes
+    *           the messages to encrypt.
+    * @param publicKey
+    *           key to use for encryption.
+    * @param executor
+    *           runs shares of the messages in parallel, may be {@code null} to
+    *           encrypt all on the calling thread.
+    * @return the encrypted bytes (or the failure) of each message, in the
+    *         order of {@code plainBytes}.
+    */
+   BatchResult encryptAll(List<byte[]> plainBytes, ECIESPublicKey publicKey, Executor executor);
+
+   /**
+    * Decrypt each of the crypted byte arrays {@code cipherBytes} using the key
+    * {@code privateKey}, spread over the threads of {@code executor}. A
+    * message that fails (e.g. with an {@link InvalidCipherBytesException})
+    * doesn't stop the others.
+    * 
+    * @param cipherBytes
+    *           the crypted messages to decrypt.
+    * @param privateKey
+    *           key to use for decryption.
+    * @param executor
+    *           runs shares of the messages in parallel, may be {@code null} to
+    *           decrypt all on the calling thread.
+    * @return the decrypted plain bytes (or the failure) of each message, in
+    *         the order of {@code cipherBytes}.
+    */
+   BatchResult decryptAll(List<byte[]> cipherBytes, ECIESPrivateKey privateKey, Executor executor);
+
+   /**
+    * The exact length of the encrypted message for {@code plainLength} bytes
+    * of plaintext and the key {@code publicKey}.
+    * 
+    * @param plainLength
+    *           number of bytes to encrypt.
+    * @param publicKey
+    *           key to use for encryption.
+    * @return the length of the encrypted message.
+    */
+   int getEncryptOutputSize(int plainLength, ECIESPublicKey publicKey);
+
+   /**
+    * An upper bound for the length of the plaintext of an encrypted message
+    * of {@code cipherLength} bytes for the key {@code privateKey}.
+    * 
+    * @param cipherLength
+    *           length of the encrypted message.
+    * @param privateKey
+    *           key to use for decryption.
+    * @return the maximum length of the decrypted message.
+    */
+   int getDecryptOutputSize(int cipherLength, ECIESPrivateKey privateKey);
+
+   /**
+    * Encrypt {@code inLength} bytes of {@code plainBytes} starting at
+    * {@code inOffset} using the key {@code publicKey}, writing the encrypted
+    * message straight into {@code out} at {@code outOffset}. {@code out} must
+    * have room for {@link #getEncryptOutputSize(int, ECIESPublicKey)} bytes.
+    * 
+    * @param plainBytes
+    *           bytes to encrypt.
+    * @param inOffset
+    *           offset of the plaintext in {@code plainBytes}.
+    * @param inLength
+    *           length of the plaintext.
+    * @param publicKey
+    *           key to use for encryption.
+    * @param out
+    *           buffer for the encrypted message.
+    * @param outOffset
+    *           offset of the encrypted message in {@code out}.
+    * @return the number of bytes written to {@code out}.
+    */
+   int encryptEphemeral(byte[] plainBytes, int inOffset, int inLength, ECIESPublicKey publicKey, byte[] out, int outOffset);
+
+   /**
+    * Decrypt {@code inLength} bytes of {@code cipherBytes} starting at
+    * {@code inOffset} using the key {@code privateKey}, writing the plaintext
+    * straight into {@code out} at {@code outOffset}. {@code out} must have
+    * room for the plaintext (at most
+    * {@link #getDecryptOutputSize(int, ECIESPrivateKey)} bytes); nothing is
+    * written to it unless the message is authentic.
+    * 
+    * @param cipherBytes
+    *           crypted byte array to decrypt.
+    * @param inOffset
+    *           offset of the encrypted message in {@code cipherBytes}.
+    * @param inLength
+    *           length of the encrypted message.
+    * @param privateKey
+    *           key to use for decryption.
+    * @param out
+    *           buffer for the decrypted bytes.
+    * @param outOffset
+    *           offset of the decrypted bytes in {@code out}.
+    * @return the number of bytes written to {@code out}.
+    */
+   int decryptEphemeral(byte[] cipherBytes, int inOffset, int inLength, ECIESPrivateKey privateKey, byte[] out,
+         int outOffset);
+
+   /**
+    * Encrypt the remaining bytes of {@code in} using the key
+    * {@code publicKey} into {@code out}, advancing the positions of both
+    * buffers. Buffers backed by an accessible array are worked on in place,
+    * others (e.g. direct buffers) through a copy.
+    * 
+    * @param in
+    *           bytes to encrypt.
+    * @param publicKey
+    *           key to use for encryption.
+    * @param out
+    *           buffer for the encrypted message, with at least
+    *           {@link #getEncryptOutputSize(int, ECIESPublicKey)} bytes
+    *           remaining.
+    * @return the number of bytes written to {@code out}.
+    */
+   int encryptEphemeral(ByteBuffer in, ECIESPublicKey publicKey, ByteBuffer out);
+
+   /**
+    * Decrypt the remaining bytes of {@code in} using the key
+    * {@code privateKey} into {@code out}, advancing the positions of both
+    * buffers. Buffers backed by an accessible array are worked on in place,
+    * others (e.g. direct buffers) through a copy.
+    * 
+    * @param in
+    *           the encrypted message.
+    * @param privateKey
+    *           key to use for decryption.
+    * @param out
+    *           buffer for the decrypted bytes, with room for the plaintext
+    *           (at most {@link #getDecryptOutputSize(int, ECIESPrivateKey)}
+    *           bytes).
+    * @return the number of bytes written to {@code out}.
+    */
+   int decryptEphemeral(ByteBuffer in, ECIESPrivateKey privateKey, ByteBuffer out);
+
+   /**
+    * Wrap {@code out} into a stream that encrypts everything written to it
+    * using the key {@code publicKey}. The encrypted message on {@code out} is
+    * the same as {@link #encryptEphemeral(byte[], ECIESPublicKey)} produces
+    * for the whole plaintext; it is complete only once the returned stream has
+    * been closed (which also closes {@code out}). Memory use doesn't depend
+    * on the message length.
+    * 
+    * @param out
+    *           stream to write the encrypted message to.
+    * @param publicKey
+    *           key to use for encryption.
+    * @return the encrypting stream.
+    * @throws IOException
+    *            if writing to {@code out} fails.
+    */
+   OutputStream encryptingStream(OutputStream out, ECIESPublicKey publicKey) throws IOException;
+
+   /**
+    * Wrap {@code in}, which supplies an encrypted message as produced by
+    * {@link #encryptEphemeral(byte[], ECIESPublicKey)} or
+    * {@link #encryptingStream(OutputStream, ECIESPublicKey)}, into a stream
+    * of the decrypted bytes using the key {@code privateKey}. The MAC can only
+    * be checked at the end of the message: the decrypted bytes must not be
+    * trusted until a read has returned {@code -1}, a read at the end of a
+    * forged or truncated message throws an {@link InvalidCipherBytesException}
+    * instead. Memory use doesn't depend on the message length.
+    * 
+    * @param in
+    *           stream to read the encrypted message from.
+    * @param privateKey
+    *           key to use for decryption.
+    * @return the decrypting stream.
+    * @throws IOException
+    *            if reading from {@code in} fails.
+    */
+   InputStream decryptingStream(InputStream in, ECIESPrivateKey privateKey) throws IOException;
+
+   /**
+    * Channel variant of {@link #encryptingStream(OutputStream, ECIESPublicKey)}.
+    * 
+    * @param out
+    *           channel to write the encrypted message to.
+    * @param publicKey
+    *           key to use for encryption.
+    * @return the encrypting channel.
+    * @throws IOException
+    *            if writing to {@code out} fails.
+    */
+   WritableByteChannel encryptingChannel(WritableByteChannel out, ECIESPublicKey publicKey) throws IOException;
+
+   /**
+    * Channel variant of {@link #decryptingStream(InputStream, ECIESPrivateKey)}.
+    * 
+    * @param in
+    *           channel to read the encrypted message from.
+    * @param privateKey
+    *           key to use for decryption.
+    * @return the decrypting channel.
+    * @throws IOException
+    *            if reading from {@code in} fails.
+    */
+   ReadableByteChannel decryptingChannel(ReadableByteChannel in, ECIESPrivateKey privateKey) throws IOException;
+
    /**
     * Create a new KeyPair with a key length of {@code keySize} bits using the
     * supplied random generator {@code prng}. This method can be used to
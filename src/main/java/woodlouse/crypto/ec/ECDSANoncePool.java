@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import bouncycastle.crypto.params.ECDomainParameters;
+import bouncycastle.crypto.signers.RandomDSAKCalculator;
+import bouncycastle.math.ec.ECAlgorithms;
+import bouncycastle.math.ec.ECPoint;
+import bouncycastle.util.BigIntegers;
+
+/**
+ * A bounded pool of pre-computed ECDSA nonces of an ECC domain, kept filled
+ * by a {@link RefillingPool}: for a random {@code k}, the {@code r} of
+ * {@code k * G} and {@code k^-1 mod n}, which is all of a signature that
+ * doesn't depend on the key and the message. Signing is left with a few
+ * modular multiplications. If the pool runs dry, a nonce is computed on the
+ * calling thread.
+ */
+final class ECDSANoncePool {
+
+   private final ECDomainParameters model;
+   private final SecureRandom random = new SecureRandom();
+   private final RefillingPool<Nonce> nonces;
+
+   ECDSANoncePool(final ECDomainParameters model, final int lowWatermark, final int highWatermark, final String name) {
+      if (model == null) {
+         throw new IllegalArgumentException("model == null");
+      }
+      this.model = model;
+      // only used by the refill thread
+      final RandomDSAKCalculator refillK = new RandomDSAKCalculator();
+      refillK.init(model.getN(), random);
+      this.nonces = new RefillingPool<Nonce>(new RefillingPool.BatchProducer<Nonce>() {
+         public Nonce[] produce(final int count) {
+            return computeNonces(refillK, count);
+         }
+      }, lowWatermark, highWatermark, name);
+   }
+
+   /**
+    * Take a nonce out of the pool (or compute one if the pool is empty).
+    *
+    * @return a nonce that has not been handed out before.
+    */
+   Nonce take() {
+      Nonce nonce = nonces.poll();
+      if (nonce == null) {
+         final BigInteger n = model.getN();
+         final RandomDSAKCalculator kCalculator = new RandomDSAKCalculator();
+         kCalculator.init(n, random);
+         BigInteger r;
+         BigInteger k;
+         do {
+            k = kCalculator.nextK();
+            r = model.getG().multiply(k).getX().toBigInteger().mod(n);
+         } while (r.signum() == 0);
+         nonce = new Nonce(r, k.modInverse(n));
+      }
+      return nonce;
+   }
+
+   /**
+    * Stop the refill and drop the pooled nonces. Nonces taken afterwards are
+    * computed on the calling thread.
+    */
+   void shutdown() {
+      nonces.shutdown();
+   }
+
+   // the points k * G of a batch share one field inversion, and the k^-1 one
+   // modular inversion (an r of zero, which is next to impossible, leaves a
+   // null in the batch)
+   private Nonce[] computeNonces(final RandomDSAKCalculator kCalculator, final int count) {
+      final BigInteger n = model.getN();
+      final BigInteger[] k = new BigInteger[count];
+      for (int i = 0; i < count; i++) {
+         k[i] = kCalculator.nextK();
+      }
+      final ECPoint[] points = ECAlgorithms.multiplyAll(model.getG(), k);
+      BigIntegers.modInverseAll(k, n);
+      final Nonce[] batch = new Nonce[count];
+      for (int i = 0; i < count; i++) {
+         final BigInteger r = points[i].getX().toBigInteger().mod(n);
+         if (r.signum() != 0) {
+            batch[i] = new Nonce(r, k[i]);
+         }
+      }
+      return batch;
+   }
+
+   /**
+    * The {@code r} and {@code k^-1} of a nonce {@code k}.
+    */
+   static final class Nonce {
+      final BigInteger r;
+      final BigInteger kInverse;
+
+      Nonce(final BigInteger r, final BigInteger kInverse) {
+         this.r = r;
+         this.kInverse = kInverse;
+      }
+   }
+}
@@ -4,11 +4,20 @@
  */
 package woodlouse.crypto.ec;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import bouncycastle.crypto.AsymmetricCipherKeyPair;
 import bouncycastle.crypto.KeyGenerationParameters;
+import bouncycastle.crypto.agreement.ECDHBasicAgreement;
+import bouncycastle.crypto.digests.SHA256Digest;
 import bouncycastle.crypto.generators.ECKeyPairGenerator;
 import bouncycastle.crypto.params.AsymmetricKeyParameter;
 import bouncycastle.crypto.params.ECDomainParameters;
@@ -16,7 +25,12 @@ import bouncycastle.crypto.params.ECKeyGenerationParameters;
 import bouncycastle.crypto.params.ECPrivateKeyParameters;
 import bouncycastle.crypto.params.ECPublicKeyParameters;
 import bouncycastle.crypto.parsers.ECIESPublicKeyParser;
+import bouncycastle.math.ec.ECCurve;
+import bouncycastle.math.ec.ECFieldElement;
 import bouncycastle.math.ec.ECPoint;
+import bouncycastle.math.ec.FixedPointUtil;
+import bouncycastle.util.BigIntegers;
+import woodlouse.crypto.BatchResult;
 import woodlouse.crypto.InvalidCipherBytesException;
 import woodlouse.crypto.KeyPair;
 
@@ -34,8 +48,40 @@ abstract class ECDomain {
 
    private final ECDomainParameters model;
 
+   // recently used receiver public keys (with their precomputation)
+   private final PublicKeyCache publicKeys = new PublicKeyCache();
+
+   // generator for ephemeral key pairs (stateless apart from its thread safe
+   // SecureRandom, so it is shared by all threads)
+   private final ECKeyPairGenerator ephemeralKeyGen;
+
+   // pre-generated ephemeral key pairs for encryption, null unless enabled
+   private volatile EphemeralKeyPool ephemeralKeys;
+
+   // pre-computed ECDSA nonces, null unless enabled
+   private volatile ECDSANoncePool nonces;
+
+   // per-thread engines, built once and reset after every message
+   private final ThreadLocal<ECIESEngine> encryptors = new ThreadLocal<ECIESEngine>() {
+      @Override
+      protected ECIESEngine initialValue() {
+         return new ECIESEngine(getKeyLength());
+      }
+   };
+   private final ThreadLocal<ECIESEngine> decryptors = new ThreadLocal<ECIESEngine>() {
+      @Override
+      protected ECIESEngine initialValue() {
+         return new ECIESEngine(getKeyLength(), true);
+      }
+   };
+
    protected ECDomain() {
       model = initializeDomain();
+      // G is multiplied for every key pair and every signature, set it up for
+      // fixed-base comb multiplication
+      FixedPointUtil.precompute(model.getG(), model.getN().bitLength());
+      ephemeralKeyGen = new ECKeyPairGenerator();
+      ephemeralKeyGen.init(new ECKeyGenerationParameters(model, new SecureRandom()));
    }
 
    @SuppressWarnings("unused")
@@ -61,6 +107,26 @@ abstract class ECDomain {
       return domain;
    }
 
+   private static ECDomain getModel(final ECIESPublicKey publicKey) {
+      if (publicKey instanceof PreparedPublicKey) {
+         return ((PreparedPublicKey) publicKey).getDomain();
+      }
+      if (publicKey == null) {
+         throw new IllegalArgumentException("publicKey == null");
+      }
+      return getModel(publicKey.getAlgorithm());
+   }
+
+   private static ECDomain getModel(final ECIESPrivateKey privateKey) {
+      if (privateKey instanceof PreparedPrivateKey) {
+         return ((PreparedPrivateKey) privateKey).getDomain();
+      }
+      if (privateKey == null) {
+         throw new IllegalArgumentException("privateKey == null");
+      }
+      return getModel(privateKey.getAlgorithm());
+   }
+
    private static ECDomain getModel(final int keySize) {
       final ECDomain domain = NamedCurves.getByKeySize(keySize);
       if (domain == null) {
@@ -91,17 +157,394 @@ abstract class ECDomain {
    protected abstract int getKeyLength();
 
    static byte[] encryptEphemeral(final byte[] plainBytes, final ECIESPublicKey receiverPublicKey) {
-      ECDomain domain = getModel(receiverPublicKey.getAlgorithm());
-      ECIESEngine encryptor = new ECIESEngine(domain.getKeyLength());
-      encryptor.initForEphemeralEncryption(domain.model, getReceiverPubKey(receiverPublicKey, domain.model));
-      return encryptor.encrypt(plainBytes, 0, plainBytes.length);
+      ECDomain domain = getModel(receiverPublicKey);
+      // the size is exact, the ephemeral key is always compressed
+      final byte[] out = new byte[domain.getEncryptOutputSize(plainBytes.length)];
+      encryptEphemeral(plainBytes, 0, plainBytes.length, receiverPublicKey, out, 0);
+      return out;
    }
 
    static byte[] decryptEphemeral(final byte[] cipherBytes, final ECIESPrivateKey receiverPrivateKey) {
-      ECDomain domain = getModel(receiverPrivateKey.getAlgorithm());
-      ECIESEngine decryptor = new ECIESEngine(domain.getKeyLength());
-      decryptor.initForEphemeralDecryption(domain.model, getReceiverPrivKey(receiverPrivateKey, domain));
-      return decryptor.decrypt(cipherBytes, 0, cipherBytes.length);
+      ECDomain domain = getModel(receiverPrivateKey);
+      return domain.decrypt(cipherBytes, getReceiverPrivKey(receiverPrivateKey, domain));
+   }
+
+   static int getEncryptOutputSize(final int plainLength, final ECIESPublicKey receiverPublicKey) {
+      if (plainLength < 0) {
+         throw new IllegalArgumentException("plainLength < 0");
+      }
+      return getModel(receiverPublicKey).getEncryptOutputSize(plainLength);
+   }
+
+   static int getDecryptOutputSize(final int cipherLength, final ECIESPrivateKey receiverPrivateKey) {
+      if (cipherLength < 0) {
+         throw new IllegalArgumentException("cipherLength < 0");
+      }
+      ECDomain domain = getModel(receiverPrivateKey);
+      // the ephemeral key takes at least the compressed encoding
+      return Math.max(0, cipherLength - 1 - domain.getFieldBytes() - ECIESParams.getMacSize(domain.getKeyLength()));
+   }
+
+   static int encryptEphemeral(final byte[] plainBytes, final int inOffset, final int inLength,
+         final ECIESPublicKey receiverPublicKey, final byte[] out, final int outOffset) {
+      checkRange(plainBytes, inOffset, inLength, "plainBytes");
+      checkRange(out, outOffset, getEncryptOutputSize(inLength, receiverPublicKey), "out");
+      ECDomain domain = getModel(receiverPublicKey);
+      return domain.encrypt(plainBytes, inOffset, inLength, domain.getReceiverPubKey(receiverPublicKey), out, outOffset);
+   }
+
+   static int decryptEphemeral(final byte[] cipherBytes, final int inOffset, final int inLength,
+         final ECIESPrivateKey receiverPrivateKey, final byte[] out, final int outOffset) {
+      checkRange(cipherBytes, inOffset, inLength, "cipherBytes");
+      ECDomain domain = getModel(receiverPrivateKey);
+      checkRange(out, outOffset, domain.getDecryptedLength(cipherBytes, inOffset, inLength), "out");
+      ECIESEngine decryptor = domain.decryptors.get();
+      try {
+         decryptor.initForEphemeralDecryption(domain.model, getReceiverPrivKey(receiverPrivateKey, domain));
+         return decryptor.decrypt(cipherBytes, inOffset, inLength, out, outOffset);
+      } finally {
+         decryptor.reset();
+      }
+   }
+
+   static BatchResult encryptAll(final List<byte[]> plainBytes, final ECIESPublicKey receiverPublicKey,
+         final Executor executor) {
+      if (plainBytes == null) {
+         throw new IllegalArgumentException("plainBytes == null");
+      }
+      final ECDomain domain = getModel(receiverPublicKey);
+      // the key is parsed once for the whole batch
+      final AsymmetricKeyParameter receiverKey = domain.getReceiverPubKey(receiverPublicKey);
+      final byte[][] in = plainBytes.toArray(new byte[plainBytes.size()][]);
+      final byte[][] results = new byte[in.length][];
+      final RuntimeException[] failures = new RuntimeException[in.length];
+      ParallelRanges.run(in.length, executor, new ParallelRanges.Range() {
+         public void run(final int from, final int to) {
+            for (int i = from; i < to; i++) {
+               try {
+                  if (in[i] == null) {
+                     throw new IllegalArgumentException("plainBytes == null");
+                  }
+                  final byte[] out = new byte[domain.getEncryptOutputSize(in[i].length)];
+                  domain.encrypt(in[i], 0, in[i].length, receiverKey, out, 0);
+                  results[i] = out;
+               } catch (RuntimeException e) {
+                  failures[i] = e;
+               }
+            }
+         }
+      });
+      return new BatchResult(results, failures);
+   }
+
+   static BatchResult decryptAll(final List<byte[]> cipherBytes, final ECIESPrivateKey receiverPrivateKey,
+         final Executor executor) {
+      if (cipherBytes == null) {
+         throw new IllegalArgumentException("cipherBytes == null");
+      }
+      final ECDomain domain = getModel(receiverPrivateKey);
+      // the key is parsed once for the whole batch
+      final ECPrivateKeyParameters receiverKey = (ECPrivateKeyParameters) getReceiverPrivKey(receiverPrivateKey, domain);
+      final byte[][] in = cipherBytes.toArray(new byte[cipherBytes.size()][]);
+      final byte[][] results = new byte[in.length][];
+      final RuntimeException[] failures = new RuntimeException[in.length];
+      ParallelRanges.run(in.length, executor, new ParallelRanges.Range() {
+         public void run(final int from, final int to) {
+            // the ephemeral keys of a share are multiplied in batches
+            new ECIESBatchDecryptor(domain.getKeyLength(), domain.model, receiverKey).decrypt(in, from, to, results,
+                  failures);
+         }
+      });
+      return new BatchResult(results, failures);
+   }
+
+   // encrypt with this thread's engine
+   private int encrypt(final byte[] in, final int inOffset, final int inLength, final AsymmetricKeyParameter receiverKey,
+         final byte[] out, final int outOffset) {
+      ECIESEngine encryptor = encryptors.get();
+      try {
+         encryptor.initForEphemeralEncryption(nextEphemeralKeyPair(), receiverKey);
+         return encryptor.encrypt(in, inOffset, inLength, out, outOffset);
+      } finally {
+         encryptor.reset();
+      }
+   }
+
+   // an ephemeral key pair from the pool, if enabled
+   private AsymmetricCipherKeyPair nextEphemeralKeyPair() {
+      final EphemeralKeyPool pool = ephemeralKeys;
+      return (pool != null) ? pool.take() : ephemeralKeyGen.generateKeyPair();
+   }
+
+   // decrypt with this thread's engine
+   private byte[] decrypt(final byte[] in, final AsymmetricKeyParameter receiverKey) {
+      ECIESEngine decryptor = decryptors.get();
+      try {
+         decryptor.initForEphemeralDecryption(model, receiverKey);
+         return decryptor.decrypt(in, 0, in.length);
+      } finally {
+         decryptor.reset();
+      }
+   }
+
+   static int encryptEphemeral(final ByteBuffer in, final ECIESPublicKey receiverPublicKey, final ByteBuffer out) {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      if (out == null) {
+         throw new IllegalArgumentException("out == null");
+      }
+      final int inLength = in.remaining();
+      final int outLength = getEncryptOutputSize(inLength, receiverPublicKey);
+      if (out.remaining() < outLength) {
+         throw new IllegalArgumentException("out too short : " + out.remaining() + " < " + outLength);
+      }
+      // heap buffers are used in place, other buffers through a copy
+      final byte[] inBytes = in.hasArray() ? in.array() : copyRemaining(in);
+      final int inOffset = in.hasArray() ? in.arrayOffset() + in.position() : 0;
+      final byte[] outBytes = out.hasArray() ? out.array() : new byte[outLength];
+      final int outOffset = out.hasArray() ? out.arrayOffset() + out.position() : 0;
+
+      final int n = encryptEphemeral(inBytes, inOffset, inLength, receiverPublicKey, outBytes, outOffset);
+
+      advance(out, outBytes, n);
+      in.position(in.position() + inLength);
+      return n;
+   }
+
+   static int decryptEphemeral(final ByteBuffer in, final ECIESPrivateKey receiverPrivateKey, final ByteBuffer out) {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      if (out == null) {
+         throw new IllegalArgumentException("out == null");
+      }
+      final int inLength = in.remaining();
+      // heap buffers are used in place, other buffers through a copy
+      final byte[] inBytes = in.hasArray() ? in.array() : copyRemaining(in);
+      final int inOffset = in.hasArray() ? in.arrayOffset() + in.position() : 0;
+      final int outLength = getModel(receiverPrivateKey).getDecryptedLength(inBytes, inOffset, inLength);
+      if (out.remaining() < outLength) {
+         throw new IllegalArgumentException("out too short : " + out.remaining() + " < " + outLength);
+      }
+      final byte[] outBytes = out.hasArray() ? out.array() : new byte[outLength];
+      final int outOffset = out.hasArray() ? out.arrayOffset() + out.position() : 0;
+
+      final int n = decryptEphemeral(inBytes, inOffset, inLength, receiverPrivateKey, outBytes, outOffset);
+
+      advance(out, outBytes, n);
+      in.position(in.position() + inLength);
+      return n;
+   }
+
+   private static byte[] copyRemaining(final ByteBuffer in) {
+      final byte[] bytes = new byte[in.remaining()];
+      in.duplicate().get(bytes);
+      return bytes;
+   }
+
+   // move the position of out past the n bytes written to outBytes (copying
+   // them into out unless outBytes is its backing array)
+   private static void advance(final ByteBuffer out, final byte[] outBytes, final int n) {
+      if (out.hasArray()) {
+         out.position(out.position() + n);
+      } else {
+         out.put(outBytes, 0, n);
+      }
+   }
+
+   private static void checkRange(final byte[] bytes, final int offset, final int length, final String name) {
+      if (bytes == null) {
+         throw new IllegalArgumentException(name + " == null");
+      }
+      if (offset < 0 || length < 0 || offset > bytes.length - length) {
+         throw new IllegalArgumentException(name + " too short : offset " + offset + ", length " + length + ", size "
+               + bytes.length);
+      }
+   }
+
+   static OutputStream encryptingStream(final OutputStream out, final ECIESPublicKey receiverPublicKey) throws IOException {
+      if (out == null) {
+         throw new IllegalArgumentException("out == null");
+      }
+      ECDomain domain = getModel(receiverPublicKey);
+      final AsymmetricCipherKeyPair ephemeral = domain.nextEphemeralKeyPair();
+      final byte[] V = ((ECPublicKeyParameters) ephemeral.getPublic()).getQ().getEncoded(true);
+      final ECIESStreamCipher cipher = new ECIESStreamCipher(domain.getKeyLength(), true, ephemeral.getPrivate(),
+            domain.getReceiverPubKey(receiverPublicKey), V, false);
+      final byte[] header = new byte[1 + V.length];
+      header[0] = ECIESParams.SUITE_AES_CTR;
+      System.arraycopy(V, 0, header, 1, V.length);
+      return new ECIESOutputStream(out, cipher, header);
+   }
+
+   static InputStream decryptingStream(final InputStream in, final ECIESPrivateKey receiverPrivateKey) throws IOException {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      ECDomain domain = getModel(receiverPrivateKey);
+      // the format byte, or the first byte of V in the legacy format
+      int first = in.read();
+      final boolean legacy = (first != ECIESParams.SUITE_AES_CTR);
+      if (!legacy) {
+         first = in.read();
+      }
+      final byte[] V = domain.readEphemeralKey(first, in);
+      final AsymmetricKeyParameter ephemeralPublicKey;
+      try {
+         ephemeralPublicKey = new ECIESPublicKeyParser(domain.model).readKey(new ByteArrayInputStream(V));
+      } catch (Exception e) {
+         throw new InvalidCipherBytesException(e);
+      }
+      final ECIESStreamCipher cipher = new ECIESStreamCipher(domain.getKeyLength(), false, getReceiverPrivKey(
+            receiverPrivateKey, domain), ephemeralPublicKey, V, legacy);
+      return new ECIESInputStream(in, cipher);
+   }
+
+   // the encoded ephemeral public key at the start of a message (whose first
+   // byte has been read already), sized by that byte as in ECIESPublicKeyParser
+   private byte[] readEphemeralKey(final int first, final InputStream in) throws IOException {
+      final int fieldBytes = getFieldBytes();
+      final byte[] V;
+      switch (first) {
+      case -1:
+         throw new InvalidCipherBytesException("truncated message");
+      case 0x02:
+      case 0x03:
+         V = new byte[1 + fieldBytes];
+         break;
+      case 0x04:
+      case 0x06:
+      case 0x07:
+         V = new byte[1 + 2 * fieldBytes];
+         break;
+      default:
+         throw new InvalidCipherBytesException("invalid ephemeral key encoding 0x" + Integer.toString(first, 16));
+      }
+      V[0] = (byte) first;
+      for (int off = 1; off < V.length;) {
+         final int n = in.read(V, off, V.length - off);
+         if (n == -1) {
+            throw new InvalidCipherBytesException("truncated message");
+         }
+         off += n;
+      }
+      return V;
+   }
+
+   static ECIESSession openSession(final ECIESPrivateKey ownPrivateKey, final ECIESPublicKey ownPublicKey,
+         final ECIESPublicKey peerPublicKey, final long rekeyMessages, final long rekeySeconds) {
+      ECDomain domain = getModel(ownPrivateKey);
+      if (!domain.getOid().equals(ownPublicKey.getAlgorithm()) || !domain.getOid().equals(peerPublicKey.getAlgorithm())) {
+         throw new IllegalArgumentException("keys from different domains");
+      }
+      final ECPublicKeyParameters own = (ECPublicKeyParameters) domain.getReceiverPubKey(ownPublicKey);
+      final ECPublicKeyParameters peer = (ECPublicKeyParameters) domain.getReceiverPubKey(peerPublicKey);
+      // the peer key is used for this single agreement only
+      final ECDHBasicAgreement agree = new ECDHBasicAgreement(true);
+      agree.init(getReceiverPrivKey(ownPrivateKey, domain));
+      final byte[] Z = BigIntegers.asUnsignedByteArray(agree.getFieldSize(), agree.calculateAgreement(peer));
+      return new ECIESSession(domain.getKeyLength(), Z, own.getQ().getEncoded(true), peer.getQ().getEncoded(true),
+            rekeyMessages, rekeySeconds);
+   }
+
+   // the first 8 bytes of the SHA-256 hash of the compressed public key
+   static byte[] getKeyId(final ECIESPublicKey publicKey) {
+      ECDomain domain = getModel(publicKey);
+      final byte[] Q = ((ECPublicKeyParameters) domain.getReceiverPubKey(publicKey)).getQ().getEncoded(true);
+      final SHA256Digest digest = new SHA256Digest();
+      digest.update(Q, 0, Q.length);
+      final byte[] hash = new byte[digest.getDigestSize()];
+      digest.doFinal(hash, 0);
+      final byte[] keyId = new byte[8];
+      System.arraycopy(hash, 0, keyId, 0, keyId.length);
+      return keyId;
+   }
+
+   static PreparedPublicKey preparePublicKey(final ECIESPublicKey publicKey) {
+      if (publicKey instanceof PreparedPublicKey) {
+         return (PreparedPublicKey) publicKey;
+      }
+      final ECDomain domain = getModel(publicKey);
+      final byte[] encoded = publicKey.getEncoded();
+      if (encoded == null) {
+         throw new IllegalArgumentException("publicKey has no encoding");
+      }
+      final ECPublicKeyParameters params = (ECPublicKeyParameters) domain.getReceiverPubKey(publicKey);
+      if (!isOnCurve(domain.model, params.getQ())) {
+         throw new IllegalArgumentException("public key is not a point of " + domain.getOid());
+      }
+      return new PreparedPublicKey(encoded, domain.getOid(), domain, params);
+   }
+
+   static PreparedPrivateKey preparePrivateKey(final ECIESPrivateKey privateKey) {
+      if (privateKey instanceof PreparedPrivateKey) {
+         return (PreparedPrivateKey) privateKey;
+      }
+      final ECDomain domain = getModel(privateKey);
+      final ECPrivateKeyParameters params = domain.getPrivateKeyParams(privateKey.getD());
+      if (params.getD().signum() <= 0 || params.getD().compareTo(domain.model.getN()) >= 0) {
+         throw new IllegalArgumentException("private key out of range for " + domain.getOid());
+      }
+      return new PreparedPrivateKey(domain.getOid(), domain, params);
+   }
+
+   static void enableEphemeralKeyPool(final int keySize, final int lowWatermark, final int highWatermark) {
+      ECDomain domain = getModel(keySize);
+      synchronized (domain) {
+         if (domain.ephemeralKeys == null) {
+            domain.ephemeralKeys = new EphemeralKeyPool(domain.model, lowWatermark, highWatermark, "woodlouse-ephemeral-keys-"
+                  + keySize);
+         }
+      }
+   }
+
+   static void disableEphemeralKeyPool(final int keySize) {
+      ECDomain domain = getModel(keySize);
+      final EphemeralKeyPool pool;
+      synchronized (domain) {
+         pool = domain.ephemeralKeys;
+         domain.ephemeralKeys = null;
+      }
+      if (pool != null) {
+         pool.shutdown();
+      }
+   }
+
+   static void enableNoncePool(final int keySize, final int lowWatermark, final int highWatermark) {
+      ECDomain domain = getModel(keySize);
+      synchronized (domain) {
+         if (domain.nonces == null) {
+            domain.nonces = new ECDSANoncePool(domain.model, lowWatermark, highWatermark, "woodlouse-ecdsa-nonces-" + keySize);
+         }
+      }
+   }
+
+   static void disableNoncePool(final int keySize) {
+      ECDomain domain = getModel(keySize);
+      final ECDSANoncePool pool;
+      synchronized (domain) {
+         pool = domain.nonces;
+         domain.nonces = null;
+      }
+      if (pool != null) {
+         pool.shutdown();
+      }
+   }
+
+   static ECSigner newSigner(final ECIESPrivateKey privateKey, final boolean pooledNonces) {
+      ECDomain domain = getModel(privateKey);
+      final ECDSANoncePool pool = domain.nonces;
+      if (pooledNonces && pool == null) {
+         throw new IllegalStateException("no nonce pool enabled for " + domain.getOid());
+      }
+      return new ECSigner(domain.getKeyLength(), (ECPrivateKeyParameters) getReceiverPrivKey(privateKey, domain),
+            pooledNonces ? pool : null);
+   }
+
+   static ECVerifier newVerifier(final ECIESPublicKey publicKey) {
+      ECDomain domain = getModel(publicKey);
+      return new ECVerifier(domain.getKeyLength(), (ECPublicKeyParameters) domain.getReceiverPubKey(publicKey));
    }
 
    static KeyPair createNewKeyPair(final int keySize, final SecureRandom prng) {
@@ -124,16 +567,67 @@ abstract class ECDomain {
       return createNewKeyPair(DEFAULT_KEY_LEN, new SecureRandom());
    }
 
-   private static AsymmetricKeyParameter getReceiverPubKey(final ECIESPublicKey publicKey, final ECDomainParameters model) {
+   // format byte || compressed ephemeral key || ciphertext (CTR, no
+   // expansion) || MAC
+   private int getEncryptOutputSize(final int plainLength) {
+      return 1 + 1 + getFieldBytes() + plainLength + ECIESParams.getMacSize(getKeyLength());
+   }
+
+   // the exact plaintext length of a message, judging by its header (if the
+   // header is invalid, decryption fails anyway)
+   private int getDecryptedLength(final byte[] cipherBytes, final int offset, final int length) {
+      final int suiteLength = (length > 0 && cipherBytes[offset] == ECIESParams.SUITE_AES_CTR) ? 1 : 0;
+      final int first = (length > suiteLength) ? cipherBytes[offset + suiteLength] : 0;
+      final int keyLength = (first == 0x04 || first == 0x06 || first == 0x07) ? 1 + 2 * getFieldBytes() : 1 + getFieldBytes();
+      return Math.max(0, length - suiteLength - keyLength - ECIESParams.getMacSize(getKeyLength()));
+   }
+
+   private int getFieldBytes() {
+      return (model.getCurve().getFieldSize() + 7) / 8;
+   }
+
+   // true if Q is a finite point satisfying the (short Weierstrass) curve
+   // equation; all domains have cofactor 1, so that makes it a valid key
+   static boolean isOnCurve(final ECDomainParameters model, final ECPoint Q) {
+      if (Q.isInfinity()) {
+         return false;
+      }
+      final ECPoint P = Q.normalize();
+      final ECCurve curve = model.getCurve();
+      final ECFieldElement x = P.getX();
+      final ECFieldElement lhs = P.getY().square();
+      final ECFieldElement rhs = x.square().add(curve.getA()).multiply(x).add(curve.getB());
+      return lhs.toBigInteger().equals(rhs.toBigInteger());
+   }
+
+   private AsymmetricKeyParameter getReceiverPubKey(final ECIESPublicKey publicKey) {
+      if (publicKey instanceof PreparedPublicKey) {
+         return ((PreparedPublicKey) publicKey).getParams();
+      }
+      final byte[] encoded = publicKey.getEncoded();
+      if (encoded != null) {
+         final ECPublicKeyParameters cached = publicKeys.get(encoded);
+         if (cached != null) {
+            return cached;
+         }
+      }
+      final ECPublicKeyParameters key;
       try {
          ECIESPublicKeyParser recvPubKeyParser = new ECIESPublicKeyParser(model);
-         return recvPubKeyParser.readKey(publicKey.getInputStream());
+         key = (ECPublicKeyParameters) recvPubKeyParser.readKey(publicKey.getInputStream());
       } catch (Exception e) {
          throw new InvalidCipherBytesException(e);
       }
+      if (encoded != null) {
+         publicKeys.put(encoded, key);
+      }
+      return key;
    }
 
    private static AsymmetricKeyParameter getReceiverPrivKey(final ECIESPrivateKey privateKey, final ECDomain domain) {
+      if (privateKey instanceof PreparedPrivateKey) {
+         return ((PreparedPrivateKey) privateKey).getParams();
+      }
       return domain.getPrivateKeyParams(privateKey.getD());
    }
 }
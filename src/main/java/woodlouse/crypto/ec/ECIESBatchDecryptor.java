@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+
+import bouncycastle.crypto.BasicAgreement;
+import bouncycastle.crypto.CipherParameters;
+import bouncycastle.crypto.KeyParser;
+import bouncycastle.crypto.params.AsymmetricKeyParameter;
+import bouncycastle.crypto.params.ECDomainParameters;
+import bouncycastle.crypto.params.ECPrivateKeyParameters;
+import bouncycastle.crypto.params.ECPublicKeyParameters;
+import bouncycastle.crypto.parsers.ECIESPublicKeyParser;
+import bouncycastle.math.ec.ECAlgorithms;
+import bouncycastle.math.ec.ECPoint;
+import woodlouse.crypto.InvalidCipherBytesException;
+
+/**
+ * Decrypts ephemeral key messages for one private key in batches. The
+ * ephemeral public keys of a batch are all decoded and validated first, and
+ * then multiplied by the private key together, so that the conversion of the
+ * shared points to affine co-ordinates costs one field inversion per batch
+ * rather than one per message. Key derivation, MAC check and decryption are
+ * done per message, exactly as by {@link ECIESEngine}. A message that fails
+ * doesn't affect the others of its batch.
+ * <p>
+ * Instances are not thread safe.
+ */
+final class ECIESBatchDecryptor {
+
+   // number of messages whose ephemeral keys are multiplied together
+   private static final int BATCH_SIZE = 64;
+
+   private final ECDomainParameters model;
+   private final ECPrivateKeyParameters privateKey;
+   private final ECIESPublicKeyParser parser;
+   private final PresetAgreement agreement;
+   private final PresetKeyParser presetKeys = new PresetKeyParser();
+   private final ECIESEngine engine;
+
+   ECIESBatchDecryptor(final int keySize, final ECDomainParameters model, final ECPrivateKeyParameters privateKey) {
+      if (model == null) {
+         throw new IllegalArgumentException("model == null");
+      }
+      if (privateKey == null) {
+         throw new IllegalArgumentException("privateKey == null");
+      }
+      this.model = model;
+      this.privateKey = privateKey;
+      this.parser = new ECIESPublicKeyParser(model);
+      this.agreement = new PresetAgreement((model.getCurve().getFieldSize() + 7) / 8);
+      this.engine = new ECIESEngine(keySize, agreement);
+   }
+
+   /**
+    * Decrypt the messages {@code in[from]} to {@code in[to - 1]}, storing the
+    * plaintext of each (or the exception that made it fail) at its index in
+    * {@code results} (or {@code failures}).
+    */
+   void decrypt(final byte[][] in, final int from, final int to, final byte[][] results,
+         final RuntimeException[] failures) {
+      for (int start = from; start < to; start += BATCH_SIZE) {
+         decryptBatch(in, start, Math.min(to, start + BATCH_SIZE), results, failures);
+      }
+   }
+
+   private void decryptBatch(final byte[][] in, final int from, final int to, final byte[][] results,
+         final RuntimeException[] failures) {
+      // the messages whose ephemeral key is valid, and these keys
+      final int[] indices = new int[to - from];
+      final ECPublicKeyParameters[] keys = new ECPublicKeyParameters[to - from];
+      int count = 0;
+      for (int i = from; i < to; i++) {
+         try {
+            keys[count] = readEphemeralKey(in[i]);
+            indices[count++] = i;
+         } catch (RuntimeException e) {
+            failures[i] = e;
+         }
+      }
+      if (count == 0) {
+         return;
+      }
+
+      final ECPoint[] points = new ECPoint[count];
+      for (int j = 0; j < count; j++) {
+         points[j] = keys[j].getQ();
+      }
+      final ECPoint[] shared = ECAlgorithms.montgomeryLadderAll(points, privateKey.getD());
+
+      for (int j = 0; j < count; j++) {
+         final int i = indices[j];
+         try {
+            if (shared[j].isInfinity()) {
+               throw new InvalidCipherBytesException("invalid ephemeral key");
+            }
+            agreement.z = shared[j].getX().toBigInteger();
+            presetKeys.key = keys[j];
+            engine.initForEphemeralDecryption(presetKeys, privateKey);
+            results[i] = engine.decrypt(in[i], 0, in[i].length);
+         } catch (RuntimeException e) {
+            failures[i] = e;
+         } finally {
+            engine.reset();
+            agreement.z = null;
+            presetKeys.key = null;
+         }
+      }
+   }
+
+   // decode the ephemeral key of a message, and make sure it is a point of
+   // the curve
+   private ECPublicKeyParameters readEphemeralKey(final byte[] message) {
+      if (message == null) {
+         throw new IllegalArgumentException("cipherBytes == null");
+      }
+      final int skip = (message.length > 0 && message[0] == ECIESParams.SUITE_AES_CTR) ? 1 : 0;
+      final ECPublicKeyParameters key;
+      try {
+         key = (ECPublicKeyParameters) parser.readKey(new ByteArrayInputStream(message, skip, message.length - skip));
+      } catch (Exception e) {
+         throw new InvalidCipherBytesException(e);
+      }
+      if (!ECDomain.isOnCurve(model, key.getQ())) {
+         throw new InvalidCipherBytesException("ephemeral key is not a point of the curve");
+      }
+      return key;
+   }
+
+   /**
+    * Hands out the agreed value computed for the current message.
+    */
+   private static final class PresetAgreement implements BasicAgreement {
+      private final int fieldSize;
+      BigInteger z;
+
+      PresetAgreement(final int fieldSize) {
+         this.fieldSize = fieldSize;
+      }
+
+      public void init(final CipherParameters param) {
+         // the private key has been applied already
+      }
+
+      public int getFieldSize() {
+         return fieldSize;
+      }
+
+      public BigInteger calculateAgreement(final CipherParameters pubKey) {
+         if (z == null) {
+            throw new IllegalStateException("no agreed value");
+         }
+         return z;
+      }
+   }
+
+   /**
+    * Hands out the ephemeral key decoded for the current message, skipping
+    * over its encoding instead of decoding it again.
+    */
+   private static final class PresetKeyParser implements KeyParser {
+      ECPublicKeyParameters key;
+
+      public AsymmetricKeyParameter readKey(final InputStream stream) throws IOException {
+         if (key == null) {
+            throw new IllegalStateException("no ephemeral key");
+         }
+         final int first = stream.read();
+         final int fieldBytes = (key.getParameters().getCurve().getFieldSize() + 7) / 8;
+         final int length = (first == 0x02 || first == 0x03) ? fieldBytes : 2 * fieldBytes;
+         if (stream.skip(length) != length) {
+            throw new IOException("ephemeral key truncated");
+         }
+         return key;
+      }
+   }
+}
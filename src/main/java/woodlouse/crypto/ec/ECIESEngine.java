@@ -4,38 +4,87 @@
  */
 package woodlouse.crypto.ec;
 
-import java.security.SecureRandom;
-
+import bouncycastle.crypto.AsymmetricCipherKeyPair;
+import bouncycastle.crypto.BasicAgreement;
 import bouncycastle.crypto.BufferedBlockCipher;
+import bouncycastle.crypto.EphemeralKeyPair;
 import bouncycastle.crypto.KeyEncoder;
+import bouncycastle.crypto.KeyParser;
+import bouncycastle.crypto.Mac;
 import bouncycastle.crypto.agreement.ECDHBasicAgreement;
 import bouncycastle.crypto.engines.AESFastEngine;
 import bouncycastle.crypto.engines.IESEngine;
-import bouncycastle.crypto.generators.ECKeyPairGenerator;
-import bouncycastle.crypto.generators.EphemeralKeyPairGenerator;
 import bouncycastle.crypto.generators.KDF2BytesGenerator;
 import bouncycastle.crypto.modes.CFBBlockCipher;
+import bouncycastle.crypto.modes.SICBlockCipher;
 import bouncycastle.crypto.params.AsymmetricKeyParameter;
 import bouncycastle.crypto.params.ECDomainParameters;
-import bouncycastle.crypto.params.ECKeyGenerationParameters;
 import bouncycastle.crypto.params.ECPublicKeyParameters;
 import bouncycastle.crypto.parsers.ECIESPublicKeyParser;
 import woodlouse.crypto.InvalidCipherBytesException;
 
 /**
- * Encapsulates the whole setup for the Bouncy Castle IESEngine.
+ * Encapsulates the whole setup for the Bouncy Castle IESEngine. An instance is
+ * not thread safe, but can be reused for any number of messages, each with its
+ * own initialization.
+ * <p>
+ * Messages with an ephemeral key are encrypted in the current format,
+ * {@code SUITE_AES_CTR || V || C || T} with the ciphertext {@code C} of 256
+ * bit AES in CTR mode. Decryption tells it from the legacy format
+ * {@code V || C || T} (256 bit AES in CFB-8 mode, which runs a whole AES block
+ * per byte) by its first byte, and accepts both.
  */
 final class ECIESEngine {
 
+   // use compressed format for the ephemeral public key
+   private static final KeyEncoder COMPRESSED_ENCODER = new KeyEncoder() {
+      public byte[] getEncoded(AsymmetricKeyParameter publicKey) {
+         return ((ECPublicKeyParameters) publicKey).getQ().getEncoded(true);
+      }
+   };
+
+   // the legacy format (AES in CFB-8 mode)
+   private final IESEngine legacyEngine;
+   // the current format (AES in CTR mode)
    private final IESEngine engine;
    private final int keySize;
 
+   // the engine the last initialization was for, null if the format of a
+   // message to decrypt is only known from the message itself
+   private IESEngine initialized;
+   private boolean withSuite;
+
+   // set up for ephemeral decryption
+   private AsymmetricKeyParameter receiverPrivateKey;
+   private KeyParser ephemeralKeyParser;
+
    ECIESEngine(final int keySize) {
+      this(keySize, false);
+   }
+
+   /**
+    * @param oneOffPeerKeys
+    *           true if the peer public keys this engine gets initialized with
+    *           are used only once (e.g. ephemeral keys when decrypting), so
+    *           that precomputation for them would be wasted
+    */
+   ECIESEngine(final int keySize, final boolean oneOffPeerKeys) {
+      this(keySize, new ECDHBasicAgreement(oneOffPeerKeys));
+   }
+
+   /**
+    * @param agree
+    *           the key agreement, e.g. one that hands out values computed in
+    *           advance
+    */
+   ECIESEngine(final int keySize, final BasicAgreement agree) {
       this.keySize = keySize;
-      // always 256-bit AES in CFB-8 mode
-      final BufferedBlockCipher c = new BufferedBlockCipher(new CFBBlockCipher(new AESFastEngine(), 8));
-      // setup the IESEngine
-      engine = new IESEngine(new ECDHBasicAgreement(), new KDF2BytesGenerator(ECIESParams.getKDFDigest(this.keySize)), ECIESParams.getMACGen(this.keySize), c);
+      // both formats share the agreement, the KDF and the MAC (only one of
+      // them is used at a time)
+      final KDF2BytesGenerator kdf = new KDF2BytesGenerator(ECIESParams.getKDFDigest(this.keySize));
+      final Mac mac = ECIESParams.getMACGen(this.keySize);
+      legacyEngine = new IESEngine(agree, kdf, mac, new BufferedBlockCipher(new CFBBlockCipher(new AESFastEngine(), 8)));
+      engine = new IESEngine(agree, kdf, mac, new BufferedBlockCipher(new SICBlockCipher(new AESFastEngine())));
    }
 
    void initForEncryption(final AsymmetricKeyParameter senderPrivateKey, final AsymmetricKeyParameter receiverPublicKey) {
@@ -45,26 +94,23 @@ final class ECIESEngine {
       if (receiverPublicKey == null) {
          throw new IllegalArgumentException("receiverPublicKey == null");
       }
-      engine.init(true, senderPrivateKey, receiverPublicKey, ECIESParams.getParams(keySize));
+      // without an ephemeral key there's no room for a format byte
+      legacyEngine.init(true, senderPrivateKey, receiverPublicKey, ECIESParams.getParams(keySize));
+      initialized = legacyEngine;
+      withSuite = false;
    }
 
-   void initForEphemeralEncryption(final ECDomainParameters model, final AsymmetricKeyParameter receiverPublicKey) {
-      if (model == null) {
-         throw new IllegalArgumentException("model == null");
+   void initForEphemeralEncryption(final AsymmetricCipherKeyPair ephemeralKeyPair, final AsymmetricKeyParameter receiverPublicKey) {
+      if (ephemeralKeyPair == null) {
+         throw new IllegalArgumentException("ephemeralKeyPair == null");
       }
       if (receiverPublicKey == null) {
          throw new IllegalArgumentException("receiverPublicKey == null");
       }
-      // create the KeyPairGenerator for ephemeral keys
-      ECKeyPairGenerator gen = new ECKeyPairGenerator();
-      gen.init(new ECKeyGenerationParameters(model, new SecureRandom()));
-      EphemeralKeyPairGenerator ephemeralKeyGen = new EphemeralKeyPairGenerator(gen, new KeyEncoder() {
-         public byte[] getEncoded(AsymmetricKeyParameter publicKey) {
-            // use compressed format for the public key
-            return ((ECPublicKeyParameters) publicKey).getQ().getEncoded(true);
-         }
-      });
-      engine.init(receiverPublicKey, ECIESParams.getParams(keySize), ephemeralKeyGen);
+      engine.init(receiverPublicKey, ECIESParams.getParams(keySize, ECIESParams.SUITE_AES_CTR), new EphemeralKeyPair(
+            ephemeralKeyPair, COMPRESSED_ENCODER));
+      initialized = engine;
+      withSuite = true;
    }
 
    void initForDecryption(final AsymmetricKeyParameter receiverPrivateKey, final AsymmetricKeyParameter senderPublicKey) {
@@ -74,22 +120,57 @@ final class ECIESEngine {
       if (senderPublicKey == null) {
          throw new IllegalArgumentException("senderPublicKey == null");
       }
-      engine.init(false, receiverPrivateKey, senderPublicKey, ECIESParams.getParams(keySize));
+      legacyEngine.init(false, receiverPrivateKey, senderPublicKey, ECIESParams.getParams(keySize));
+      initialized = legacyEngine;
+      withSuite = false;
    }
 
    void initForEphemeralDecryption(final ECDomainParameters model, final AsymmetricKeyParameter receiverPrivateKey) {
       if (model == null) {
          throw new IllegalArgumentException("model == null");
       }
+      initForEphemeralDecryption(new ECIESPublicKeyParser(model), receiverPrivateKey);
+   }
+
+   /**
+    * @param ephemeralKeyParser
+    *           reads the ephemeral public key from the front of a message
+    */
+   void initForEphemeralDecryption(final KeyParser ephemeralKeyParser, final AsymmetricKeyParameter receiverPrivateKey) {
+      if (ephemeralKeyParser == null) {
+         throw new IllegalArgumentException("ephemeralKeyParser == null");
+      }
       if (receiverPrivateKey == null) {
          throw new IllegalArgumentException("receiverPrivateKey == null");
       }
-      engine.init(receiverPrivateKey, ECIESParams.getParams(keySize), new ECIESPublicKeyParser(model));
+      this.ephemeralKeyParser = ephemeralKeyParser;
+      this.receiverPrivateKey = receiverPrivateKey;
+      initialized = null;
+   }
+
+   /**
+    * Drop the keys this engine was initialized with, so that it can be reused
+    * (after another initialization) for the next message.
+    */
+   void reset() {
+      legacyEngine.reset();
+      engine.reset();
+      initialized = null;
+      withSuite = false;
+      receiverPrivateKey = null;
+      ephemeralKeyParser = null;
    }
 
    byte[] encrypt(final byte[] in, final int inOffset, final int inLength) {
       try {
-         return engine.processBlock(in, inOffset, inLength);
+         final byte[] out = initialized.processBlock(in, inOffset, inLength);
+         if (!withSuite) {
+            return out;
+         }
+         final byte[] suiteOut = new byte[1 + out.length];
+         suiteOut[0] = ECIESParams.SUITE_AES_CTR;
+         System.arraycopy(out, 0, suiteOut, 1, out.length);
+         return suiteOut;
       } catch (Exception e) {
          throw new InvalidCipherBytesException(e);
       }
@@ -97,9 +178,68 @@ final class ECIESEngine {
 
    byte[] decrypt(final byte[] in, final int inOffset, final int inLength) {
       try {
-         return engine.processBlock(in, inOffset, inLength);
+         final int skip = selectForDecryption(in, inOffset, inLength);
+         return initialized.processBlock(in, inOffset + skip, inLength - skip);
       } catch (Exception e) {
          throw new InvalidCipherBytesException(e);
       }
    }
+
+   /**
+    * Encrypt straight into {@code out}, which must have room for the whole
+    * message.
+    * 
+    * @return the number of bytes written to {@code out}.
+    */
+   int encrypt(final byte[] in, final int inOffset, final int inLength, final byte[] out, final int outOffset) {
+      try {
+         if (!withSuite) {
+            return initialized.processBlock(in, inOffset, inLength, out, outOffset);
+         }
+         // the format byte goes in last, it may overwrite input
+         final int n = initialized.processBlock(in, inOffset, inLength, out, outOffset + 1);
+         out[outOffset] = ECIESParams.SUITE_AES_CTR;
+         return 1 + n;
+      } catch (Exception e) {
+         throw new InvalidCipherBytesException(e);
+      }
+   }
+
+   /**
+    * Decrypt straight into {@code out}, which must have room for the whole
+    * plaintext. Nothing is written to {@code out} unless the MAC is valid.
+    * 
+    * @return the number of bytes written to {@code out}.
+    */
+   int decrypt(final byte[] in, final int inOffset, final int inLength, final byte[] out, final int outOffset) {
+      try {
+         final int skip = selectForDecryption(in, inOffset, inLength);
+         return initialized.processBlock(in, inOffset + skip, inLength - skip, out, outOffset);
+      } catch (Exception e) {
+         throw new InvalidCipherBytesException(e);
+      }
+   }
+
+   /**
+    * Initialize the engine for the format of an ephemeral key message, unless
+    * it has been initialized for a known format already.
+    * 
+    * @return the number of format bytes in front of the message.
+    */
+   private int selectForDecryption(final byte[] in, final int inOffset, final int inLength) {
+      if (initialized != null) {
+         return 0;
+      }
+      if (receiverPrivateKey == null) {
+         throw new IllegalStateException("not initialized for decryption");
+      }
+      if (inLength > 0 && in[inOffset] == ECIESParams.SUITE_AES_CTR) {
+         engine.init(receiverPrivateKey, ECIESParams.getParams(keySize, ECIESParams.SUITE_AES_CTR), ephemeralKeyParser);
+         initialized = engine;
+         return 1;
+      }
+      legacyEngine.init(receiverPrivateKey, ECIESParams.getParams(keySize), ephemeralKeyParser);
+      initialized = legacyEngine;
+      return 0;
+   }
 }
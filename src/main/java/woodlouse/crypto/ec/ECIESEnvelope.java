@@ -0,0 +1,259 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import bouncycastle.crypto.BufferedBlockCipher;
+import bouncycastle.crypto.Mac;
+import bouncycastle.crypto.digests.SHA256Digest;
+import bouncycastle.crypto.engines.AESFastEngine;
+import bouncycastle.crypto.macs.HMac;
+import bouncycastle.crypto.modes.CFBBlockCipher;
+import bouncycastle.crypto.params.KeyParameter;
+import bouncycastle.crypto.util.Pack;
+import bouncycastle.util.Arrays;
+import woodlouse.crypto.InvalidCipherBytesException;
+import woodlouse.crypto.KeyPair;
+
+/**
+ * A message for any number of recipients: the payload is encrypted once under
+ * a random data key, and only the data key is encrypted (ECIES with an
+ * ephemeral key) for each recipient. The envelope is
+ *
+ * <pre>
+ * version || count || payloadOffset || index || wrapped keys || C || T
+ * </pre>
+ *
+ * where the index holds one {@code keyId || offset || length} record per
+ * recipient, sorted by the key id (a hash of the recipient's public key), so
+ * that a recipient finds its wrapped key by binary search. {@code C} is the
+ * payload (256-bit AES in CFB-128 mode) and {@code T} an HMAC-SHA256 over
+ * everything before it.
+ * <p>
+ * As every recipient knows the data key, the MAC protects the envelope
+ * against outsiders only, not against the other recipients.
+ */
+final class ECIESEnvelope {
+
+   private static final byte VERSION = 1;
+
+   // version (1) || count (4) || payloadOffset (4)
+   private static final int HEADER_SIZE = 9;
+
+   // keyId (8) || offset (4) || length (2)
+   private static final int KEY_ID_SIZE = 8;
+   private static final int RECORD_SIZE = KEY_ID_SIZE + 4 + 2;
+
+   private static final int CIPHER_KEY_SIZE = 32;
+   private static final int MAC_KEY_SIZE = 32;
+   private static final int MAC_SIZE = 32;
+
+   private static final SecureRandom random = new SecureRandom();
+
+   private static final Comparator<Recipient> BY_KEY_ID = new Comparator<Recipient>() {
+      public int compare(final Recipient r1, final Recipient r2) {
+         return compareKeyIds(r1.keyId, 0, r2.keyId, 0);
+      }
+   };
+
+   static byte[] seal(final byte[] payload, final Collection<? extends ECIESPublicKey> recipientKeys,
+         final Executor executor) {
+      if (payload == null) {
+         throw new IllegalArgumentException("payload == null");
+      }
+      if (recipientKeys == null) {
+         throw new IllegalArgumentException("recipientKeys == null");
+      }
+      if (recipientKeys.isEmpty()) {
+         throw new IllegalArgumentException("no recipients");
+      }
+      final List<Recipient> recipients = new ArrayList<Recipient>(recipientKeys.size());
+      for (final ECIESPublicKey key : recipientKeys) {
+         if (key == null) {
+            throw new IllegalArgumentException("recipient key == null");
+         }
+         recipients.add(new Recipient(key));
+      }
+
+      final byte[] dataKey = new byte[CIPHER_KEY_SIZE + MAC_KEY_SIZE];
+      random.nextBytes(dataKey);
+      wrapAll(recipients, dataKey, executor);
+      Collections.sort(recipients, BY_KEY_ID);
+
+      int payloadOffset = HEADER_SIZE + recipients.size() * RECORD_SIZE;
+      for (final Recipient recipient : recipients) {
+         payloadOffset += recipient.wrappedKey.length;
+      }
+      final byte[] envelope = new byte[payloadOffset + payload.length + MAC_SIZE];
+      envelope[0] = VERSION;
+      Pack.intToBigEndian(recipients.size(), envelope, 1);
+      Pack.intToBigEndian(payloadOffset, envelope, 5);
+      int record = HEADER_SIZE;
+      int offset = HEADER_SIZE + recipients.size() * RECORD_SIZE;
+      for (final Recipient recipient : recipients) {
+         System.arraycopy(recipient.keyId, 0, envelope, record, KEY_ID_SIZE);
+         Pack.intToBigEndian(offset, envelope, record + KEY_ID_SIZE);
+         envelope[record + KEY_ID_SIZE + 4] = (byte) (recipient.wrappedKey.length >>> 8);
+         envelope[record + KEY_ID_SIZE + 5] = (byte) recipient.wrappedKey.length;
+         System.arraycopy(recipient.wrappedKey, 0, envelope, offset, recipient.wrappedKey.length);
+         record += RECORD_SIZE;
+         offset += recipient.wrappedKey.length;
+      }
+
+      final BufferedBlockCipher cipher = newCipher(true, dataKey);
+      try {
+         final int n = cipher.processBytes(payload, 0, payload.length, envelope, payloadOffset);
+         cipher.doFinal(envelope, payloadOffset + n);
+      } catch (Exception e) {
+         throw new InvalidCipherBytesException(e);
+      }
+      final Mac mac = newMac(dataKey);
+      mac.update(envelope, 0, payloadOffset + payload.length);
+      mac.doFinal(envelope, payloadOffset + payload.length);
+      return envelope;
+   }
+
+   static byte[] open(final byte[] envelope, final KeyPair recipient) {
+      if (envelope == null) {
+         throw new IllegalArgumentException("envelope == null");
+      }
+      if (recipient == null) {
+         throw new IllegalArgumentException("recipient == null");
+      }
+      if (envelope.length < HEADER_SIZE + MAC_SIZE || envelope[0] != VERSION) {
+         throw new InvalidCipherBytesException("not an envelope");
+      }
+      final int count = Pack.bigEndianToInt(envelope, 1);
+      final int payloadOffset = Pack.bigEndianToInt(envelope, 5);
+      if (count <= 0 || count > (envelope.length - HEADER_SIZE) / RECORD_SIZE) {
+         throw new InvalidCipherBytesException("corrupt envelope header");
+      }
+      final int indexEnd = HEADER_SIZE + count * RECORD_SIZE;
+      if (payloadOffset < indexEnd || payloadOffset > envelope.length - MAC_SIZE) {
+         throw new InvalidCipherBytesException("corrupt envelope header");
+      }
+
+      // binary search for the first record with our key id
+      final byte[] keyId = ECDomain.getKeyId(recipient.getReceiverPublic());
+      int low = 0;
+      int high = count;
+      while (low < high) {
+         final int mid = (low + high) >>> 1;
+         if (compareKeyIds(envelope, HEADER_SIZE + mid * RECORD_SIZE, keyId, 0) < 0) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+
+      // try every record with that id (which is almost always just one)
+      byte[] dataKey = null;
+      for (int i = low; i < count && dataKey == null; i++) {
+         final int record = HEADER_SIZE + i * RECORD_SIZE;
+         if (compareKeyIds(envelope, record, keyId, 0) != 0) {
+            break;
+         }
+         final int offset = Pack.bigEndianToInt(envelope, record + KEY_ID_SIZE);
+         final int length = ((envelope[record + KEY_ID_SIZE + 4] & 0xff) << 8) | (envelope[record + KEY_ID_SIZE + 5] & 0xff);
+         if (offset < indexEnd || offset > payloadOffset - length) {
+            throw new InvalidCipherBytesException("corrupt envelope index");
+         }
+         try {
+            dataKey = ECDomain.decryptEphemeral(Arrays.copyOfRange(envelope, offset, offset + length),
+                  recipient.getReceiverPrivate());
+         } catch (InvalidCipherBytesException e) {
+            // a key id collision, or a forged record
+         }
+      }
+      if (dataKey == null || dataKey.length != CIPHER_KEY_SIZE + MAC_KEY_SIZE) {
+         throw new InvalidCipherBytesException("not a recipient of this envelope");
+      }
+
+      final int macOffset = envelope.length - MAC_SIZE;
+      final byte[] T = new byte[MAC_SIZE];
+      final Mac mac = newMac(dataKey);
+      mac.update(envelope, 0, macOffset);
+      mac.doFinal(T, 0);
+      if (!Arrays.constantTimeAreEqual(T, Arrays.copyOfRange(envelope, macOffset, envelope.length))) {
+         throw new InvalidCipherBytesException("Invalid MAC.");
+      }
+
+      final byte[] payload = new byte[macOffset - payloadOffset];
+      final BufferedBlockCipher cipher = newCipher(false, dataKey);
+      try {
+         final int n = cipher.processBytes(envelope, payloadOffset, payload.length, payload, 0);
+         cipher.doFinal(payload, n);
+      } catch (Exception e) {
+         throw new InvalidCipherBytesException(e);
+      }
+      return payload;
+   }
+
+   /**
+    * Wrap the data key for all recipients, in parallel if there is an
+    * executor.
+    */
+   private static void wrapAll(final List<Recipient> recipients, final byte[] dataKey, final Executor executor) {
+      ParallelRanges.run(recipients.size(), executor, new ParallelRanges.Range() {
+         public void run(final int from, final int to) {
+            wrap(recipients, from, to, dataKey);
+         }
+      });
+   }
+
+   private static void wrap(final List<Recipient> recipients, final int from, final int to, final byte[] dataKey) {
+      for (int i = from; i < to; i++) {
+         final Recipient recipient = recipients.get(i);
+         recipient.keyId = ECDomain.getKeyId(recipient.publicKey);
+         recipient.wrappedKey = ECDomain.encryptEphemeral(dataKey, recipient.publicKey);
+      }
+   }
+
+   // unsigned lexicographic order of two key ids
+   private static int compareKeyIds(final byte[] a, final int aOff, final byte[] b, final int bOff) {
+      for (int i = 0; i < KEY_ID_SIZE; i++) {
+         final int diff = (a[aOff + i] & 0xff) - (b[bOff + i] & 0xff);
+         if (diff != 0) {
+            return diff;
+         }
+      }
+      return 0;
+   }
+
+   // a fresh data key for every envelope, so the IV is all zeros
+   private static BufferedBlockCipher newCipher(final boolean forEncryption, final byte[] dataKey) {
+      final BufferedBlockCipher cipher = new BufferedBlockCipher(new CFBBlockCipher(new AESFastEngine(), 128));
+      cipher.init(forEncryption, new KeyParameter(dataKey, 0, CIPHER_KEY_SIZE));
+      return cipher;
+   }
+
+   private static Mac newMac(final byte[] dataKey) {
+      final Mac mac = new HMac(new SHA256Digest());
+      mac.init(new KeyParameter(dataKey, CIPHER_KEY_SIZE, MAC_KEY_SIZE));
+      return mac;
+   }
+
+   private static final class Recipient {
+      final ECIESPublicKey publicKey;
+      // set by the wrapping task (and read after it has been joined)
+      byte[] keyId;
+      byte[] wrappedKey;
+
+      Recipient(final ECIESPublicKey publicKey) {
+         this.publicKey = publicKey;
+      }
+   }
+
+   private ECIESEnvelope() {
+      throw new AssertionError();
+   }
+}
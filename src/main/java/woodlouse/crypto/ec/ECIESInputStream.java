@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import bouncycastle.util.Arrays;
+import woodlouse.crypto.InvalidCipherBytesException;
+
+/**
+ * An {@link InputStream} that decrypts an ECIES message read from the
+ * underlying stream (whose ephemeral public key has already been consumed).
+ * The last {@code macSize} bytes read are held back, as they may be the MAC;
+ * everything before them is decrypted and handed out right away, so memory
+ * use is constant whatever the length of the message.
+ * <p>
+ * The MAC can only be verified at the end of the message: the decrypted bytes
+ * must not be trusted before a read has returned {@code -1}. If the message
+ * has been tampered with, that last read throws an
+ * {@link InvalidCipherBytesException} instead.
+ */
+final class ECIESInputStream extends FilterInputStream {
+
+   private static final int BUFFER_SIZE = 8192;
+
+   private final ECIESStreamCipher cipher;
+   private final int macSize;
+
+   // ciphertext read but not yet decrypted, the last macSize bytes held back
+   private final byte[] inBuffer;
+   private int inLength;
+
+   // decrypted bytes not yet handed out
+   private final byte[] outBuffer;
+   private int outPos;
+   private int outLength;
+
+   private final byte[] oneByte = new byte[1];
+   private boolean eof;
+
+   ECIESInputStream(final InputStream in, final ECIESStreamCipher cipher) {
+      super(in);
+      this.cipher = cipher;
+      this.macSize = cipher.getMacSize();
+      this.inBuffer = new byte[BUFFER_SIZE + macSize];
+      this.outBuffer = new byte[cipher.getUpdateOutputSize(BUFFER_SIZE)];
+   }
+
+   @Override
+   public int read() throws IOException {
+      final int n = read(oneByte, 0, 1);
+      return (n == -1) ? -1 : (oneByte[0] & 0xff);
+   }
+
+   @Override
+   public int read(final byte[] b, final int off, final int len) throws IOException {
+      if (len == 0) {
+         return 0;
+      }
+      while (outPos == outLength) {
+         if (eof || !fill()) {
+            return -1;
+         }
+      }
+      final int n = Math.min(len, outLength - outPos);
+      System.arraycopy(outBuffer, outPos, b, off, n);
+      outPos += n;
+      return n;
+   }
+
+   @Override
+   public long skip(final long n) throws IOException {
+      final byte[] skipBuffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+      long skipped = 0;
+      while (skipped < n) {
+         final int r = read(skipBuffer, 0, (int) Math.min(n - skipped, skipBuffer.length));
+         if (r == -1) {
+            break;
+         }
+         skipped += r;
+      }
+      return skipped;
+   }
+
+   @Override
+   public int available() throws IOException {
+      return outLength - outPos;
+   }
+
+   @Override
+   public boolean markSupported() {
+      return false;
+   }
+
+   @Override
+   public synchronized void mark(final int readlimit) {
+   }
+
+   @Override
+   public synchronized void reset() throws IOException {
+      throw new IOException("mark/reset not supported");
+   }
+
+   /**
+    * Read and decrypt the next chunk of the message, or verify the MAC at its
+    * end.
+    *
+    * @return false at the (verified) end of the message.
+    */
+   private boolean fill() throws IOException {
+      final int n = in.read(inBuffer, inLength, inBuffer.length - inLength);
+      if (n == -1) {
+         eof = true;
+         if (inLength != macSize) {
+            throw new InvalidCipherBytesException("truncated message");
+         }
+         final byte[] T = new byte[macSize];
+         System.arraycopy(inBuffer, 0, T, 0, macSize);
+         if (!Arrays.constantTimeAreEqual(T, cipher.doFinal())) {
+            throw new InvalidCipherBytesException("Invalid MAC.");
+         }
+         return false;
+      }
+      inLength += n;
+      final int ready = inLength - macSize;
+      if (ready > 0) {
+         outPos = 0;
+         outLength = cipher.process(inBuffer, 0, ready, outBuffer, 0);
+         System.arraycopy(inBuffer, ready, inBuffer, 0, macSize);
+         inLength = macSize;
+      }
+      return true;
+   }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that encrypts everything written to it into an ECIES
+ * message on the underlying stream. The header (format byte and ephemeral
+ * public key) is written on construction, the MAC when the stream gets
+ * closed. Memory use is constant,
+ * whatever the length of the message.
+ */
+final class ECIESOutputStream extends FilterOutputStream {
+
+   private static final int BUFFER_SIZE = 8192;
+
+   private final ECIESStreamCipher cipher;
+   private final byte[] buffer;
+   private final byte[] oneByte = new byte[1];
+   private boolean closed;
+
+   ECIESOutputStream(final OutputStream out, final ECIESStreamCipher cipher, final byte[] header) throws IOException {
+      super(out);
+      this.cipher = cipher;
+      this.buffer = new byte[cipher.getUpdateOutputSize(BUFFER_SIZE)];
+      out.write(header);
+   }
+
+   @Override
+   public void write(final int b) throws IOException {
+      oneByte[0] = (byte) b;
+      write(oneByte, 0, 1);
+   }
+
+   @Override
+   public void write(final byte[] b, int off, int len) throws IOException {
+      if (closed) {
+         throw new IOException("stream closed");
+      }
+      while (len > 0) {
+         final int chunk = Math.min(len, BUFFER_SIZE);
+         final int n = cipher.process(b, off, chunk, buffer, 0);
+         out.write(buffer, 0, n);
+         off += chunk;
+         len -= chunk;
+      }
+   }
+
+   /**
+    * Finish the message by writing its MAC, and close the underlying stream.
+    */
+   @Override
+   public void close() throws IOException {
+      if (closed) {
+         return;
+      }
+      closed = true;
+      try {
+         out.write(cipher.doFinal());
+         out.flush();
+      } finally {
+         out.close();
+      }
+   }
+}
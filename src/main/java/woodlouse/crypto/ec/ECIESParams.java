@@ -23,6 +23,14 @@ final class ECIESParams {
     */
    private static final int CIPHER_KEY_SIZE = 256;
 
+   /*
+    * First byte of a message in the current format: 256 bit AES in CTR mode
+    * (followed by the ephemeral public key). Messages in the legacy format (256
+    * bit AES in CFB-8 mode) start right away with the ephemeral public key,
+    * whose encoding never starts with this byte.
+    */
+   static final byte SUITE_AES_CTR = 0x11;
+
    /*
     * Random derivation parameter for the KDF function (64 byte).
     */
@@ -41,14 +49,40 @@ final class ECIESParams {
       return new IESWithCipherParameters(derivation.clone(), encoding.clone(), macKeyLenInBits(keySize), CIPHER_KEY_SIZE);
    }
 
+   /*
+    * Parameters for the given cipher suite. The suite is appended to the KDF
+    * derivation parameter (except for the legacy format), so that a message
+    * can't be passed off in another suite's format under the same keys.
+    */
+   static IESWithCipherParameters getParams(final int keySize, final byte suite) {
+      final byte[] suiteDerivation = new byte[derivation.length + 1];
+      System.arraycopy(derivation, 0, suiteDerivation, 0, derivation.length);
+      suiteDerivation[derivation.length] = suite;
+      return new IESWithCipherParameters(suiteDerivation, encoding.clone(), macKeyLenInBits(keySize), CIPHER_KEY_SIZE);
+   }
+
    static Mac getMACGen(final int keySize) {
       return new HMac(getDigest(hashOutputLenForMAC(keySize)));
    }
 
+   /*
+    * Length in bytes of the MAC generated by getMACGen(keySize).
+    */
+   static int getMacSize(final int keySize) {
+      return hashOutputLenForMAC(keySize) / 8;
+   }
+
    static Digest getKDFDigest(final int keySize) {
       return getDigest(hashOutputLenForKDF(keySize));
    }
 
+   /*
+    * The hash of signed messages, as long as the ECC key (like the MAC).
+    */
+   static Digest getSignatureDigest(final int keySize) {
+      return getDigest(hashOutputLenForMAC(keySize));
+   }
+
    private static Digest getDigest(final int numBits) {
       switch (numBits) {
       case 224:
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import bouncycastle.crypto.BufferedBlockCipher;
+import bouncycastle.crypto.Mac;
+import bouncycastle.crypto.engines.AESFastEngine;
+import bouncycastle.crypto.generators.KDF2BytesGenerator;
+import bouncycastle.crypto.modes.CFBBlockCipher;
+import bouncycastle.crypto.params.IESWithCipherParameters;
+import bouncycastle.crypto.params.KDFParameters;
+import bouncycastle.crypto.params.KeyParameter;
+import bouncycastle.crypto.params.ParametersWithIV;
+import bouncycastle.crypto.util.Pack;
+import bouncycastle.util.Arrays;
+import woodlouse.crypto.InvalidCipherBytesException;
+
+/**
+ * A long-lived encrypted channel between two static key pairs. The ECDH
+ * agreement and the key derivation are done once, when the session is
+ * opened; after that every message costs only the symmetric cipher and the
+ * MAC.
+ * <p>
+ * Each direction has its own key chain, derived from the shared secret and
+ * both public keys. The keys of a direction are replaced by the next ones in
+ * the chain (and the old ones forgotten) after a given number of messages or
+ * a given time, whichever comes first. A message is
+ * {@code epoch || counter || C || T}: the 4-byte key epoch and the 8-byte
+ * message counter make up the nonce (the IV of 256-bit AES in CFB-128 mode),
+ * and the MAC {@code T} covers everything before it. A received message is
+ * rejected if its counter has been seen before (within a sliding window of
+ * 64 messages) or if its epoch is older than the current one, so replays are
+ * detected.
+ * <p>
+ * Both ends open their session with their own private key and the peer's
+ * public key. Instances are thread safe.
+ */
+public final class ECIESSession {
+
+   // epoch (4 bytes) || counter (8 bytes)
+   private static final int HEADER_SIZE = 12;
+
+   // length of the keys linking the epochs of a direction
+   private static final int CHAIN_KEY_SIZE = 64;
+
+   // how far a received epoch may be ahead of the current one
+   private static final int MAX_EPOCH_SKIP = 64;
+
+   // number of counters below the highest one received that are still accepted
+   private static final int REPLAY_WINDOW = 64;
+
+   private final int keySize;
+   private final byte[] derivation;
+   private final int cipherKeyLength;
+   private final int macKeyLength;
+   private final long rekeyMessages;
+   private final long rekeyNanos;
+
+   // sending side, guarded by sendLock
+   private final Object sendLock = new Object();
+   private EpochKeys sendKeys;
+   private long sendCounter;
+   private long sendEpochStart;
+
+   // receiving side, guarded by receiveLock
+   private final Object receiveLock = new Object();
+   private EpochKeys receiveKeys;
+   private long highestReceived = -1;
+   private long receivedWindow;
+
+   /**
+    * @param Z
+    *           the shared secret of the ECDH agreement.
+    * @param ownKey
+    *           the encoded public key of this end.
+    * @param peerKey
+    *           the encoded public key of the other end.
+    */
+   ECIESSession(final int keySize, final byte[] Z, final byte[] ownKey, final byte[] peerKey, final long rekeyMessages,
+         final long rekeySeconds) {
+      if (rekeyMessages <= 0) {
+         throw new IllegalArgumentException("rekeyMessages <= 0");
+      }
+      if (rekeySeconds <= 0) {
+         throw new IllegalArgumentException("rekeySeconds <= 0");
+      }
+      if (Arrays.areEqual(ownKey, peerKey)) {
+         throw new IllegalArgumentException("own key == peer key");
+      }
+      final IESWithCipherParameters params = ECIESParams.getParams(keySize);
+      this.keySize = keySize;
+      this.derivation = params.getDerivationV();
+      this.cipherKeyLength = params.getCipherKeySize() / 8;
+      this.macKeyLength = params.getMacKeySize() / 8;
+      this.rekeyMessages = rekeyMessages;
+      this.rekeyNanos = (rekeySeconds > Long.MAX_VALUE / 1000000000L) ? Long.MAX_VALUE : rekeySeconds * 1000000000L;
+
+      this.sendKeys = deriveKeys(0, chainKey(Z, ownKey, peerKey));
+      this.sendEpochStart = System.nanoTime();
+      this.receiveKeys = deriveKeys(0, chainKey(Z, peerKey, ownKey));
+   }
+
+   /**
+    * Encrypt the byte array {@code plainBytes} for the other end of the
+    * session.
+    *
+    * @param plainBytes
+    *           bytes to encrypt.
+    * @return encrypted bytes.
+    */
+   public byte[] encrypt(final byte[] plainBytes) {
+      if (plainBytes == null) {
+         throw new IllegalArgumentException("plainBytes == null");
+      }
+      final EpochKeys keys;
+      final long counter;
+      synchronized (sendLock) {
+         final long now = System.nanoTime();
+         if (sendCounter >= rekeyMessages || now - sendEpochStart >= rekeyNanos) {
+            if (sendKeys.epoch == Integer.MAX_VALUE) {
+               throw new IllegalStateException("session exhausted");
+            }
+            sendKeys = deriveKeys(sendKeys.epoch + 1, sendKeys.nextChainKey);
+            sendCounter = 0;
+            sendEpochStart = now;
+         }
+         keys = sendKeys;
+         counter = sendCounter++;
+      }
+
+      final Mac mac = ECIESParams.getMACGen(keySize);
+      final byte[] out = new byte[HEADER_SIZE + plainBytes.length + mac.getMacSize()];
+      Pack.intToBigEndian(keys.epoch, out, 0);
+      Pack.longToBigEndian(counter, out, 4);
+
+      final BufferedBlockCipher cipher = newCipher(true, keys, out);
+      try {
+         final int n = cipher.processBytes(plainBytes, 0, plainBytes.length, out, HEADER_SIZE);
+         cipher.doFinal(out, HEADER_SIZE + n);
+      } catch (Exception e) {
+         throw new InvalidCipherBytesException(e);
+      }
+
+      mac.init(new KeyParameter(keys.macKey));
+      mac.update(out, 0, HEADER_SIZE + plainBytes.length);
+      mac.doFinal(out, HEADER_SIZE + plainBytes.length);
+      return out;
+   }
+
+   /**
+    * Decrypt the crypted byte array {@code cipherBytes} from the other end of
+    * the session.
+    *
+    * @param cipherBytes
+    *           crypted byte array to decrypt.
+    * @return decrypted plain bytes.
+    * @throws InvalidCipherBytesException
+    *            if the message is not authentic, or has been received before.
+    */
+   public byte[] decrypt(final byte[] cipherBytes) {
+      if (cipherBytes == null) {
+         throw new IllegalArgumentException("cipherBytes == null");
+      }
+      final Mac mac = ECIESParams.getMACGen(keySize);
+      final int length = cipherBytes.length - HEADER_SIZE - mac.getMacSize();
+      if (length < 0) {
+         throw new InvalidCipherBytesException("message too short");
+      }
+      final int epoch = Pack.bigEndianToInt(cipherBytes, 0);
+      final long counter = Pack.bigEndianToLong(cipherBytes, 4);
+
+      // keys of a later epoch are derived tentatively, they replace the
+      // current ones only once the message has turned out to be authentic
+      EpochKeys keys;
+      synchronized (receiveLock) {
+         keys = receiveKeys;
+      }
+      if (epoch < keys.epoch || epoch - keys.epoch > MAX_EPOCH_SKIP) {
+         throw new InvalidCipherBytesException("message from a stale or unknown key epoch");
+      }
+      while (keys.epoch < epoch) {
+         keys = deriveKeys(keys.epoch + 1, keys.nextChainKey);
+      }
+
+      final byte[] T = new byte[mac.getMacSize()];
+      mac.init(new KeyParameter(keys.macKey));
+      mac.update(cipherBytes, 0, HEADER_SIZE + length);
+      mac.doFinal(T, 0);
+      if (!Arrays.constantTimeAreEqual(T, Arrays.copyOfRange(cipherBytes, HEADER_SIZE + length, cipherBytes.length))) {
+         throw new InvalidCipherBytesException("Invalid MAC.");
+      }
+
+      synchronized (receiveLock) {
+         if (epoch < receiveKeys.epoch) {
+            throw new InvalidCipherBytesException("message from a stale key epoch");
+         }
+         if (epoch > receiveKeys.epoch) {
+            receiveKeys = keys;
+            highestReceived = -1;
+            receivedWindow = 0;
+         }
+         if (!markReceived(counter)) {
+            throw new InvalidCipherBytesException("replayed message");
+         }
+      }
+
+      final byte[] plainBytes = new byte[length];
+      final BufferedBlockCipher cipher = newCipher(false, keys, cipherBytes);
+      try {
+         final int n = cipher.processBytes(cipherBytes, HEADER_SIZE, length, plainBytes, 0);
+         cipher.doFinal(plainBytes, n);
+      } catch (Exception e) {
+         throw new InvalidCipherBytesException(e);
+      }
+      return plainBytes;
+   }
+
+   /**
+    * Record {@code counter} as received in the current epoch.
+    *
+    * @return false if it had been received before, or is too old to tell.
+    */
+   private boolean markReceived(final long counter) {
+      if (counter < 0) {
+         return false;
+      }
+      if (counter > highestReceived) {
+         final long shift = counter - highestReceived;
+         receivedWindow = (shift >= REPLAY_WINDOW) ? 1L : (receivedWindow << shift) | 1L;
+         highestReceived = counter;
+         return true;
+      }
+      final long offset = highestReceived - counter;
+      if (offset >= REPLAY_WINDOW) {
+         return false;
+      }
+      final long bit = 1L << offset;
+      if ((receivedWindow & bit) != 0) {
+         return false;
+      }
+      receivedWindow |= bit;
+      return true;
+   }
+
+   // the IV is the message header (epoch || counter), padded with zeros
+   private static BufferedBlockCipher newCipher(final boolean forEncryption, final EpochKeys keys, final byte[] header) {
+      final byte[] iv = new byte[16];
+      System.arraycopy(header, 0, iv, 0, HEADER_SIZE);
+      final BufferedBlockCipher cipher = new BufferedBlockCipher(new CFBBlockCipher(new AESFastEngine(), 128));
+      cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(keys.cipherKey), iv));
+      return cipher;
+   }
+
+   // the first key of the chain from sender to receiver
+   private byte[] chainKey(final byte[] Z, final byte[] sender, final byte[] receiver) {
+      final byte[] seed = new byte[Z.length + sender.length + receiver.length];
+      System.arraycopy(Z, 0, seed, 0, Z.length);
+      System.arraycopy(sender, 0, seed, Z.length, sender.length);
+      System.arraycopy(receiver, 0, seed, Z.length + sender.length, receiver.length);
+      final byte[] chainKey = new byte[CHAIN_KEY_SIZE];
+      kdf(seed, chainKey);
+      return chainKey;
+   }
+
+   // the keys of an epoch, and the chain key for the next one
+   private EpochKeys deriveKeys(final int epoch, final byte[] chainKey) {
+      final byte[] seed = new byte[chainKey.length + 4];
+      System.arraycopy(chainKey, 0, seed, 0, chainKey.length);
+      Pack.intToBigEndian(epoch, seed, chainKey.length);
+      final byte[] K = new byte[cipherKeyLength + macKeyLength + CHAIN_KEY_SIZE];
+      kdf(seed, K);
+      return new EpochKeys(epoch, Arrays.copyOfRange(K, 0, cipherKeyLength), Arrays.copyOfRange(K, cipherKeyLength,
+            cipherKeyLength + macKeyLength), Arrays.copyOfRange(K, cipherKeyLength + macKeyLength, K.length));
+   }
+
+   private void kdf(final byte[] seed, final byte[] out) {
+      final KDF2BytesGenerator kdf = new KDF2BytesGenerator(ECIESParams.getKDFDigest(keySize));
+      kdf.init(new KDFParameters(seed, derivation));
+      kdf.generateBytes(out, 0, out.length);
+   }
+
+   private static final class EpochKeys {
+      final int epoch;
+      final byte[] cipherKey;
+      final byte[] macKey;
+      final byte[] nextChainKey;
+
+      EpochKeys(final int epoch, final byte[] cipherKey, final byte[] macKey, final byte[] nextChainKey) {
+         this.epoch = epoch;
+         this.cipherKey = cipherKey;
+         this.macKey = macKey;
+         this.nextChainKey = nextChainKey;
+      }
+   }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.math.BigInteger;
+
+import bouncycastle.crypto.BufferedBlockCipher;
+import bouncycastle.crypto.Mac;
+import bouncycastle.crypto.StreamCipher;
+import bouncycastle.crypto.agreement.ECDHBasicAgreement;
+import bouncycastle.crypto.engines.AESFastEngine;
+import bouncycastle.crypto.generators.KDF2BytesGenerator;
+import bouncycastle.crypto.modes.CFBBlockCipher;
+import bouncycastle.crypto.modes.SICBlockCipher;
+import bouncycastle.crypto.params.AsymmetricKeyParameter;
+import bouncycastle.crypto.params.IESWithCipherParameters;
+import bouncycastle.crypto.params.KDFParameters;
+import bouncycastle.crypto.params.KeyParameter;
+import bouncycastle.crypto.util.Pack;
+import bouncycastle.util.BigIntegers;
+
+/**
+ * The symmetric part of an ECIES message (cipher and MAC) in incremental
+ * form, for messages that are too large to be held in memory. It produces and
+ * consumes exactly the formats of {@link ECIESEngine}, i.e.
+ * {@code SUITE_AES_CTR || V || C || T} (or {@code V || C || T} in the legacy
+ * format) with the encoded ephemeral public key {@code V}, the ciphertext
+ * {@code C} and the MAC {@code T}.
+ */
+final class ECIESStreamCipher {
+
+   // AES in CTR mode, or in CFB-8 mode for the legacy format
+   private final StreamCipher cipher;
+   private final BufferedBlockCipher legacyCipher;
+   private final Mac mac;
+   private final byte[] encodingV;
+   private final boolean forEncryption;
+
+   /**
+    * @param keySize
+    *           the ECIES key length.
+    * @param forEncryption
+    *           true for encryption, false for decryption.
+    * @param privateKey
+    *           the ephemeral private key (encryption) or the receiver's
+    *           private key (decryption).
+    * @param publicKey
+    *           the receiver's public key (encryption) or the ephemeral public
+    *           key (decryption).
+    * @param V
+    *           the encoded ephemeral public key.
+    * @param legacy
+    *           true for the legacy format.
+    */
+   ECIESStreamCipher(final int keySize, final boolean forEncryption, final AsymmetricKeyParameter privateKey,
+         final AsymmetricKeyParameter publicKey, final byte[] V, final boolean legacy) {
+      this.forEncryption = forEncryption;
+      final IESWithCipherParameters params = legacy ? ECIESParams.getParams(keySize) : ECIESParams.getParams(keySize,
+            ECIESParams.SUITE_AES_CTR);
+
+      // the ephemeral key of an incoming message is seen only once
+      final ECDHBasicAgreement agree = new ECDHBasicAgreement(!forEncryption);
+      agree.init(privateKey);
+      final BigInteger z = agree.calculateAgreement(publicKey);
+      final byte[] Z = BigIntegers.asUnsignedByteArray(agree.getFieldSize(), z);
+
+      final byte[] VZ = new byte[V.length + Z.length];
+      System.arraycopy(V, 0, VZ, 0, V.length);
+      System.arraycopy(Z, 0, VZ, V.length, Z.length);
+
+      final KDF2BytesGenerator kdf = new KDF2BytesGenerator(ECIESParams.getKDFDigest(keySize));
+      kdf.init(new KDFParameters(VZ, params.getDerivationV()));
+      final byte[] K1 = new byte[params.getCipherKeySize() / 8];
+      final byte[] K2 = new byte[params.getMacKeySize() / 8];
+      final byte[] K = new byte[K1.length + K2.length];
+      kdf.generateBytes(K, 0, K.length);
+      System.arraycopy(K, 0, K1, 0, K1.length);
+      System.arraycopy(K, K1.length, K2, 0, K2.length);
+
+      if (legacy) {
+         cipher = null;
+         legacyCipher = new BufferedBlockCipher(new CFBBlockCipher(new AESFastEngine(), 8));
+         legacyCipher.init(forEncryption, new KeyParameter(K1));
+      } else {
+         cipher = new SICBlockCipher(new AESFastEngine());
+         cipher.init(forEncryption, new KeyParameter(K1));
+         legacyCipher = null;
+      }
+      mac = ECIESParams.getMACGen(keySize);
+      mac.init(new KeyParameter(K2));
+      encodingV = params.getEncodingV();
+   }
+
+   /**
+    * @return the length of the MAC {@code T} at the end of a message.
+    */
+   int getMacSize() {
+      return mac.getMacSize();
+   }
+
+   /**
+    * @return the maximum number of bytes {@link #process} writes for
+    *         {@code len} input bytes.
+    */
+   int getUpdateOutputSize(final int len) {
+      return (cipher != null) ? len : legacyCipher.getUpdateOutputSize(len);
+   }
+
+   /**
+    * Encrypt (or decrypt) the next part of the message, updating the MAC over
+    * the ciphertext.
+    *
+    * @return the number of bytes written to {@code out}.
+    */
+   int process(final byte[] in, final int inOff, final int len, final byte[] out, final int outOff) {
+      if (!forEncryption) {
+         mac.update(in, inOff, len);
+      }
+      final int n;
+      if (cipher != null) {
+         cipher.processBytes(in, inOff, len, out, outOff);
+         n = len;
+      } else {
+         n = legacyCipher.processBytes(in, inOff, len, out, outOff);
+      }
+      if (forEncryption) {
+         mac.update(out, outOff, n);
+      }
+      return n;
+   }
+
+   /**
+    * Finish the message (neither cipher mode buffers, so there is no output
+    * left) and compute its MAC.
+    *
+    * @return the MAC {@code T}.
+    */
+   byte[] doFinal() {
+      if (legacyCipher != null) {
+         final byte[] rest = new byte[legacyCipher.getOutputSize(0)];
+         try {
+            final int n = legacyCipher.doFinal(rest, 0);
+            if (n != 0) {
+               throw new IllegalStateException("unexpected cipher output at end of message");
+            }
+         } catch (final Exception e) {
+            throw new IllegalStateException(e);
+         }
+      }
+      final byte[] L2 = new byte[4];
+      Pack.intToBigEndian(encodingV.length * 8, L2, 0);
+      mac.update(encodingV, 0, encodingV.length);
+      mac.update(L2, 0, L2.length);
+      final byte[] T = new byte[mac.getMacSize()];
+      mac.doFinal(T, 0);
+      return T;
+   }
+}
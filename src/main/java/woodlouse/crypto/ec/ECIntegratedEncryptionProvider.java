@@ -4,9 +4,21 @@
  */
 package woodlouse.crypto.ec;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
 
+import woodlouse.crypto.BatchResult;
 import woodlouse.crypto.ECIntegratedEncryption;
+import woodlouse.crypto.InvalidCipherBytesException;
 import woodlouse.crypto.KeyPair;
 
 /**
@@ -26,6 +38,87 @@ public final class ECIntegratedEncryptionProvider extends ECIntegratedEncryption
       return ECDomain.decryptEphemeral(cipherBytes, privateKey);
    }
 
+   @Override
+   public PreparedPublicKey preparePublicKey(final ECIESPublicKey publicKey) {
+      return ECDomain.preparePublicKey(publicKey);
+   }
+
+   @Override
+   public PreparedPrivateKey preparePrivateKey(final ECIESPrivateKey privateKey) {
+      return ECDomain.preparePrivateKey(privateKey);
+   }
+
+   @Override
+   public BatchResult encryptAll(final List<byte[]> plainBytes, final ECIESPublicKey publicKey, final Executor executor) {
+      return ECDomain.encryptAll(plainBytes, publicKey, executor);
+   }
+
+   @Override
+   public BatchResult decryptAll(final List<byte[]> cipherBytes, final ECIESPrivateKey privateKey,
+         final Executor executor) {
+      return ECDomain.decryptAll(cipherBytes, privateKey, executor);
+   }
+
+   @Override
+   public int getEncryptOutputSize(final int plainLength, final ECIESPublicKey publicKey) {
+      return ECDomain.getEncryptOutputSize(plainLength, publicKey);
+   }
+
+   @Override
+   public int getDecryptOutputSize(final int cipherLength, final ECIESPrivateKey privateKey) {
+      return ECDomain.getDecryptOutputSize(cipherLength, privateKey);
+   }
+
+   @Override
+   public int encryptEphemeral(final byte[] plainBytes, final int inOffset, final int inLength,
+         final ECIESPublicKey publicKey, final byte[] out, final int outOffset) {
+      return ECDomain.encryptEphemeral(plainBytes, inOffset, inLength, publicKey, out, outOffset);
+   }
+
+   @Override
+   public int decryptEphemeral(final byte[] cipherBytes, final int inOffset, final int inLength,
+         final ECIESPrivateKey privateKey, final byte[] out, final int outOffset) {
+      return ECDomain.decryptEphemeral(cipherBytes, inOffset, inLength, privateKey, out, outOffset);
+   }
+
+   @Override
+   public int encryptEphemeral(final ByteBuffer in, final ECIESPublicKey publicKey, final ByteBuffer out) {
+      return ECDomain.encryptEphemeral(in, publicKey, out);
+   }
+
+   @Override
+   public int decryptEphemeral(final ByteBuffer in, final ECIESPrivateKey privateKey, final ByteBuffer out) {
+      return ECDomain.decryptEphemeral(in, privateKey, out);
+   }
+
+   @Override
+   public OutputStream encryptingStream(final OutputStream out, final ECIESPublicKey publicKey) throws IOException {
+      return ECDomain.encryptingStream(out, publicKey);
+   }
+
+   @Override
+   public InputStream decryptingStream(final InputStream in, final ECIESPrivateKey privateKey) throws IOException {
+      return ECDomain.decryptingStream(in, privateKey);
+   }
+
+   @Override
+   public WritableByteChannel encryptingChannel(final WritableByteChannel out, final ECIESPublicKey publicKey)
+         throws IOException {
+      if (out == null) {
+         throw new IllegalArgumentException("out == null");
+      }
+      return Channels.newChannel(ECDomain.encryptingStream(Channels.newOutputStream(out), publicKey));
+   }
+
+   @Override
+   public ReadableByteChannel decryptingChannel(final ReadableByteChannel in, final ECIESPrivateKey privateKey)
+         throws IOException {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      return Channels.newChannel(ECDomain.decryptingStream(Channels.newInputStream(in), privateKey));
+   }
+
    @Override
    public KeyPair createNewKeyPair(final int keySize, final SecureRandom prng) {
       return ECDomain.createNewKeyPair(keySize, prng);
@@ -36,6 +129,106 @@ public final class ECIntegratedEncryptionProvider extends ECIntegratedEncryption
       return ECDomain.createNewKeyPair();
    }
 
+   /**
+    * Keep a pool of pre-generated ephemeral key pairs for encryption with keys
+    * of {@code keySize} bits, which a background (daemon) thread refills up
+    * to {@code highWatermark} pairs whenever it has drained below
+    * {@code lowWatermark}. {@link #encryptEphemeral(byte[], ECIESPublicKey)}
+    * then takes its ephemeral key pairs from the pool. Each pair is used for
+    * exactly one encryption. Enabling an already enabled pool has no effect.
+    * 
+    * @param keySize
+    *           the key length in bits.
+    * @param lowWatermark
+    *           the pool size at which refilling starts.
+    * @param highWatermark
+    *           the maximum number of pooled key pairs.
+    */
+   public static void enableEphemeralKeyPool(final int keySize, final int lowWatermark, final int highWatermark) {
+      ECDomain.enableEphemeralKeyPool(keySize, lowWatermark, highWatermark);
+   }
+
+   /**
+    * Stop using the pool of ephemeral key pairs for keys of {@code keySize}
+    * bits: its background thread is stopped and the pooled key pairs are
+    * dropped. Encryption generates its ephemeral key pairs on the calling
+    * thread again. Disabling a pool that is not enabled has no effect.
+    * 
+    * @param keySize
+    *           the key length in bits.
+    */
+   public static void disableEphemeralKeyPool(final int keySize) {
+      ECDomain.disableEphemeralKeyPool(keySize);
+   }
+
+   /**
+    * Open a session for exchanging messages with the owner of
+    * {@code peerPublicKey}, who opens the matching session with the public
+    * key of {@code ownKeys} and their own key pair. The ECDH agreement is done
+    * once here; each direction of the session re-keys after
+    * {@code rekeyMessages} messages or {@code rekeySeconds} seconds, whichever
+    * comes first.
+    * 
+    * @param ownKeys
+    *           the key pair of this end.
+    * @param peerPublicKey
+    *           the public key of the other end, of the same key size.
+    * @param rekeyMessages
+    *           maximum number of messages sent with the same keys.
+    * @param rekeySeconds
+    *           maximum time in seconds the same keys are used for sending.
+    * @return the new {@link ECIESSession}.
+    */
+   public static ECIESSession openSession(final KeyPair ownKeys, final ECIESPublicKey peerPublicKey,
+         final long rekeyMessages, final long rekeySeconds) {
+      if (ownKeys == null) {
+         throw new IllegalArgumentException("ownKeys == null");
+      }
+      if (peerPublicKey == null) {
+         throw new IllegalArgumentException("peerPublicKey == null");
+      }
+      return ECDomain.openSession(ownKeys.getReceiverPrivate(), ownKeys.getReceiverPublic(), peerPublicKey,
+            rekeyMessages, rekeySeconds);
+   }
+
+   /**
+    * Encrypt {@code payload} for all of {@code recipientKeys} at once: the
+    * payload is encrypted only once under a random data key, and that key is
+    * encrypted for each recipient. The recipients' entries are indexed by key
+    * id, so {@link #openEnvelope(byte[], KeyPair)} finds its own one without
+    * trying the others.
+    * 
+    * @param payload
+    *           bytes to encrypt.
+    * @param recipientKeys
+    *           the public keys of the recipients (of any key sizes).
+    * @param executor
+    *           runs the per-recipient encryption of the data key in parallel,
+    *           may be {@code null} to do it all on the calling thread.
+    * @return the encrypted envelope.
+    */
+   public static byte[] sealEnvelope(final byte[] payload, final Collection<? extends ECIESPublicKey> recipientKeys,
+         final Executor executor) {
+      return ECIESEnvelope.seal(payload, recipientKeys, executor);
+   }
+
+   /**
+    * Decrypt an envelope created by
+    * {@link #sealEnvelope(byte[], Collection, Executor)}.
+    * 
+    * @param envelope
+    *           the encrypted envelope.
+    * @param recipient
+    *           the key pair of one of the recipients.
+    * @return the decrypted payload.
+    * @throws InvalidCipherBytesException
+    *            if the envelope is not authentic, or {@code recipient} is not
+    *            one of its recipients.
+    */
+   public static byte[] openEnvelope(final byte[] envelope, final KeyPair recipient) {
+      return ECIESEnvelope.open(envelope, recipient);
+   }
+
    public static ECIntegratedEncryption create() {
       return instance;
    }
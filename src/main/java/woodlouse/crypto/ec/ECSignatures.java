@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+/**
+ * Entry point for ECDSA signatures with the keys of
+ * {@link ECIntegratedEncryptionProvider}. The message is hashed with a hash as
+ * long as the key (SHA-2 up to 320 bit keys, SHA-3 above).
+ */
+public final class ECSignatures {
+
+   /**
+    * Create a signer for {@code privateKey} whose nonces are derived from the
+    * key and the message (RFC 6979), so that it needs no randomness and
+    * signs the same message always the same way.
+    * 
+    * @param privateKey
+    *           the key to sign with.
+    * @return a new signer.
+    */
+   public static ECSigner newSigner(final ECIESPrivateKey privateKey) {
+      return ECDomain.newSigner(privateKey, false);
+   }
+
+   /**
+    * Create a signer for {@code privateKey} that takes random nonces from the
+    * pool of its domain (see {@link #enableNoncePool(int, int, int)}), for
+    * the lowest signing latency.
+    * 
+    * @param privateKey
+    *           the key to sign with.
+    * @return a new signer.
+    * @throws IllegalStateException
+    *            if the nonce pool of the key's domain has not been enabled.
+    */
+   public static ECSigner newPooledSigner(final ECIESPrivateKey privateKey) {
+      return ECDomain.newSigner(privateKey, true);
+   }
+
+   /**
+    * Create a verifier for signatures of the owner of {@code publicKey}.
+    * 
+    * @param publicKey
+    *           the key to verify with.
+    * @return a new verifier.
+    */
+   public static ECVerifier newVerifier(final ECIESPublicKey publicKey) {
+      return ECDomain.newVerifier(publicKey);
+   }
+
+   /**
+    * Sign {@code message} with {@code privateKey} (RFC 6979 nonces).
+    * 
+    * @return the signature.
+    */
+   public static byte[] sign(final byte[] message, final ECIESPrivateKey privateKey) {
+      return newSigner(privateKey).sign(message);
+   }
+
+   /**
+    * Verify {@code signature} for {@code message} with {@code publicKey}.
+    * 
+    * @return true if the signature is valid.
+    */
+   public static boolean verify(final byte[] message, final byte[] signature, final ECIESPublicKey publicKey) {
+      return newVerifier(publicKey).verify(message, signature);
+   }
+
+   /**
+    * Keep a pool of pre-computed nonces for signing with keys of
+    * {@code keySize} bits, which a background (daemon) thread refills up to
+    * {@code highWatermark} nonces whenever it has drained below
+    * {@code lowWatermark}. Each nonce is used for exactly one signature.
+    * Enabling an already enabled pool has no effect.
+    * 
+    * @param keySize
+    *           the key length in bits.
+    * @param lowWatermark
+    *           the pool size at which refilling starts.
+    * @param highWatermark
+    *           the maximum number of pooled nonces.
+    */
+   public static void enableNoncePool(final int keySize, final int lowWatermark, final int highWatermark) {
+      ECDomain.enableNoncePool(keySize, lowWatermark, highWatermark);
+   }
+
+   /**
+    * Stop using the nonce pool for keys of {@code keySize} bits: its
+    * background thread is stopped and the pooled nonces are dropped. Signers
+    * created from the pool before compute their nonces on the calling thread
+    * from then on. Disabling a pool that is not enabled has no effect.
+    * 
+    * @param keySize
+    *           the key length in bits.
+    */
+   public static void disableNoncePool(final int keySize) {
+      ECDomain.disableNoncePool(keySize);
+   }
+
+   private ECSignatures() {
+      throw new AssertionError();
+   }
+}
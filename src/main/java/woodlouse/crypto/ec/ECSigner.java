@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.math.BigInteger;
+
+import bouncycastle.crypto.Digest;
+import bouncycastle.crypto.params.ECPrivateKeyParameters;
+import bouncycastle.crypto.signers.ECDSASigner;
+import bouncycastle.crypto.signers.HMacDSAKCalculator;
+import bouncycastle.util.BigIntegers;
+
+/**
+ * Creates ECDSA signatures with one private key. The message is hashed
+ * incrementally (with a hash as long as the key) by any number of
+ * {@link #update} calls before {@link #sign()}. A signature is
+ * {@code r || s}, both of the byte length of the domain's order.
+ * <p>
+ * The nonce {@code k} of a signature is either derived from the key and the
+ * message as specified by RFC 6979, or taken from the domain's pool of
+ * pre-computed nonces, which leaves only a few modular multiplications on the
+ * signing thread. Instances are not thread safe.
+ *
+ * @see ECSignatures
+ */
+public final class ECSigner {
+
+   private final ECPrivateKeyParameters key;
+   private final Digest digest;
+   private final int scalarLength;
+
+   // RFC 6979 signer, null if the nonces come from the pool
+   private final ECDSASigner deterministic;
+   private final ECDSANoncePool nonces;
+
+   ECSigner(final int keySize, final ECPrivateKeyParameters key, final ECDSANoncePool nonces) {
+      this.key = key;
+      this.digest = ECIESParams.getSignatureDigest(keySize);
+      this.scalarLength = (key.getParameters().getN().bitLength() + 7) / 8;
+      this.nonces = nonces;
+      if (nonces == null) {
+         deterministic = new ECDSASigner(new HMacDSAKCalculator(ECIESParams.getSignatureDigest(keySize)));
+         deterministic.init(true, key);
+      } else {
+         deterministic = null;
+      }
+   }
+
+   /**
+    * Add {@code length} bytes of {@code in}, starting at {@code offset}, to
+    * the message.
+    */
+   public void update(final byte[] in, final int offset, final int length) {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      if (offset < 0 || length < 0 || offset > in.length - length) {
+         throw new IllegalArgumentException("invalid range : " + offset + " / " + length);
+      }
+      digest.update(in, offset, length);
+   }
+
+   /**
+    * Add {@code in} to the message.
+    */
+   public void update(final byte[] in) {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      digest.update(in, 0, in.length);
+   }
+
+   /**
+    * Sign the message added so far, and start a new one.
+    *
+    * @return the signature.
+    */
+   public byte[] sign() {
+      final byte[] hash = new byte[digest.getDigestSize()];
+      digest.doFinal(hash, 0);
+
+      final BigInteger r;
+      final BigInteger s;
+      if (deterministic != null) {
+         final BigInteger[] rs = deterministic.generateSignature(hash);
+         r = rs[0];
+         s = rs[1];
+      } else {
+         final BigInteger n = key.getParameters().getN();
+         final BigInteger e = ECDSASigner.calculateE(n, hash);
+         ECDSANoncePool.Nonce nonce;
+         BigInteger t;
+         do {
+            nonce = nonces.take();
+            t = nonce.kInverse.multiply(e.add(key.getD().multiply(nonce.r))).mod(n);
+         } while (t.signum() == 0);
+         r = nonce.r;
+         s = t;
+      }
+
+      final byte[] signature = new byte[2 * scalarLength];
+      System.arraycopy(BigIntegers.asUnsignedByteArray(scalarLength, r), 0, signature, 0, scalarLength);
+      System.arraycopy(BigIntegers.asUnsignedByteArray(scalarLength, s), 0, signature, scalarLength, scalarLength);
+      return signature;
+   }
+
+   /**
+    * Sign {@code message} (discarding anything added by {@link #update}
+    * before).
+    *
+    * @return the signature.
+    */
+   public byte[] sign(final byte[] message) {
+      reset();
+      update(message);
+      return sign();
+   }
+
+   /**
+    * Discard the message added so far.
+    */
+   public void reset() {
+      digest.reset();
+   }
+
+   /**
+    * @return the length of the signatures in bytes.
+    */
+   public int getSignatureLength() {
+      return 2 * scalarLength;
+   }
+}
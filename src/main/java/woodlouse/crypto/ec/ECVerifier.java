@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.math.BigInteger;
+
+import bouncycastle.crypto.Digest;
+import bouncycastle.crypto.params.ECPublicKeyParameters;
+import bouncycastle.crypto.signers.ECDSASigner;
+
+/**
+ * Verifies ECDSA signatures (as created by {@link ECSigner}) with one public
+ * key. The message is hashed incrementally by any number of {@link #update}
+ * calls before {@link #verify(byte[])}. Instances are not thread safe.
+ *
+ * @see ECSignatures
+ */
+public final class ECVerifier {
+
+   private final Digest digest;
+   private final int scalarLength;
+   private final ECDSASigner verifier = new ECDSASigner();
+
+   ECVerifier(final int keySize, final ECPublicKeyParameters key) {
+      this.digest = ECIESParams.getSignatureDigest(keySize);
+      this.scalarLength = (key.getParameters().getN().bitLength() + 7) / 8;
+      this.verifier.init(false, key);
+   }
+
+   /**
+    * Add {@code length} bytes of {@code in}, starting at {@code offset}, to
+    * the message.
+    */
+   public void update(final byte[] in, final int offset, final int length) {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      if (offset < 0 || length < 0 || offset > in.length - length) {
+         throw new IllegalArgumentException("invalid range : " + offset + " / " + length);
+      }
+      digest.update(in, offset, length);
+   }
+
+   /**
+    * Add {@code in} to the message.
+    */
+   public void update(final byte[] in) {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      digest.update(in, 0, in.length);
+   }
+
+   /**
+    * Verify {@code signature} for the message added so far, and start a new
+    * one.
+    *
+    * @return true if the signature is valid.
+    */
+   public boolean verify(final byte[] signature) {
+      if (signature == null) {
+         throw new IllegalArgumentException("signature == null");
+      }
+      final byte[] hash = new byte[digest.getDigestSize()];
+      digest.doFinal(hash, 0);
+      if (signature.length != 2 * scalarLength) {
+         return false;
+      }
+      final byte[] r = new byte[scalarLength];
+      final byte[] s = new byte[scalarLength];
+      System.arraycopy(signature, 0, r, 0, scalarLength);
+      System.arraycopy(signature, scalarLength, s, 0, scalarLength);
+      return verifier.verifySignature(hash, new BigInteger(1, r), new BigInteger(1, s));
+   }
+
+   /**
+    * Verify {@code signature} for {@code message} (discarding anything added
+    * by {@link #update} before).
+    *
+    * @return true if the signature is valid.
+    */
+   public boolean verify(final byte[] message, final byte[] signature) {
+      reset();
+      update(message);
+      return verify(signature);
+   }
+
+   /**
+    * Discard the message added so far.
+    */
+   public void reset() {
+      digest.reset();
+   }
+}
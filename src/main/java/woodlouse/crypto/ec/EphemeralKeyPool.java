@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.security.SecureRandom;
+
+import bouncycastle.crypto.AsymmetricCipherKeyPair;
+import bouncycastle.crypto.generators.ECKeyPairGenerator;
+import bouncycastle.crypto.params.ECDomainParameters;
+import bouncycastle.crypto.params.ECKeyGenerationParameters;
+
+/**
+ * A bounded pool of pre-generated ephemeral key pairs of an ECC domain, kept
+ * filled by a {@link RefillingPool}, so that encryption usually doesn't have
+ * to pay for the {@code G * k} multiplication. The refill generates its key
+ * pairs in batches, which share the conversion to affine co-ordinates. If the
+ * pool runs dry, a key pair is generated on the calling thread.
+ */
+final class EphemeralKeyPool {
+
+   private final ECKeyPairGenerator generator;
+   private final RefillingPool<AsymmetricCipherKeyPair> pairs;
+
+   EphemeralKeyPool(final ECDomainParameters model, final int lowWatermark, final int highWatermark, final String name) {
+      if (model == null) {
+         throw new IllegalArgumentException("model == null");
+      }
+      // ECKeyPairGenerator keeps no state between key pairs (and SecureRandom
+      // is thread safe), so the refill and the callers can share it
+      this.generator = new ECKeyPairGenerator();
+      this.generator.init(new ECKeyGenerationParameters(model, new SecureRandom()));
+      this.pairs = new RefillingPool<AsymmetricCipherKeyPair>(new RefillingPool.BatchProducer<AsymmetricCipherKeyPair>() {
+         public AsymmetricCipherKeyPair[] produce(final int count) {
+            return generator.generateKeyPairs(count);
+         }
+      }, lowWatermark, highWatermark, name);
+   }
+
+   /**
+    * Take a key pair out of the pool (or generate one if the pool is empty).
+    *
+    * @return a key pair that has not been handed out before.
+    */
+   AsymmetricCipherKeyPair take() {
+      final AsymmetricCipherKeyPair keyPair = pairs.poll();
+      return (keyPair != null) ? keyPair : generator.generateKeyPair();
+   }
+
+   /**
+    * Stop the refill and drop the pooled key pairs. Key pairs taken
+    * afterwards are generated on the calling thread.
+    */
+   void shutdown() {
+      pairs.shutdown();
+   }
+}
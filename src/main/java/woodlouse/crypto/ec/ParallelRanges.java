@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the index range of a list of items into contiguous shares which run
+ * as tasks on an {@link Executor}, and waits for all of them.
+ * <p>
+ * The calling thread runs the last share itself, and then every share that
+ * the executor has not started yet, so the work gets done even if the
+ * executor is busy, for example because the caller is one of its own tasks.
+ */
+final class ParallelRanges {
+
+   // shares per processor, so that uneven items still keep all busy
+   private static final int SHARES_PER_PROCESSOR = 4;
+
+   /**
+    * The work on one share of the items.
+    */
+   interface Range {
+      void run(int from, int to);
+   }
+
+   /**
+    * Run {@code range} over the items {@code 0} to {@code size - 1}, in
+    * parallel on {@code executor} or, if that is {@code null}, on the calling
+    * thread. Returns when all items are done; an exception thrown by a share
+    * is rethrown (a checked one wrapped in an {@link IllegalStateException}).
+    * If a share fails or the calling thread is interrupted, the shares that
+    * have not started yet are cancelled, and the method returns only after
+    * the running ones have finished.
+    */
+   static void run(final int size, final Executor executor, final Range range) {
+      final int count = (executor == null) ? 1 : Math.min(size, SHARES_PER_PROCESSOR
+            * Runtime.getRuntime().availableProcessors());
+      if (count <= 1) {
+         range.run(0, size);
+         return;
+      }
+      final Share[] shares = new Share[count];
+      for (int t = 0; t < count; t++) {
+         shares[t] = new Share(range, (int) ((long) size * t / count), (int) ((long) size * (t + 1) / count));
+      }
+      for (int t = 0; t < count - 1; t++) {
+         executor.execute(shares[t]);
+      }
+
+      Throwable failure = null;
+      boolean interrupted = false;
+      shares[count - 1].run();
+      for (int t = count - 1; t >= 0 && failure == null && !interrupted; t--) {
+         if (Thread.currentThread().isInterrupted()) {
+            interrupted = true;
+            break;
+         }
+         // help out with a share the executor hasn't started
+         shares[t].run();
+         try {
+            failure = shares[t].await();
+         } catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (failure == null && !interrupted) {
+         return;
+      }
+
+      // no share may start, or still be writing, once this method is left
+      for (final Share share : shares) {
+         share.cancel();
+      }
+      for (final Share share : shares) {
+         if (share.awaitUninterruptibly() && failure == null) {
+            failure = share.failure;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("interrupted while waiting for the tasks", failure);
+      }
+      if (failure instanceof RuntimeException) {
+         throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+         throw (Error) failure;
+      }
+      throw new IllegalStateException(failure);
+   }
+
+   /**
+    * One share of the items, run at most once, by the executor or by the
+    * calling thread, whichever comes first.
+    */
+   private static final class Share implements Runnable {
+      private static final int NEW = 0;
+      private static final int RUNNING = 1;
+      private static final int CANCELLED = 2;
+
+      private final Range range;
+      private final int from;
+      private final int to;
+      private final AtomicInteger state = new AtomicInteger(NEW);
+      private final CountDownLatch done = new CountDownLatch(1);
+      // written before done is counted down
+      private Throwable failure;
+
+      Share(final Range range, final int from, final int to) {
+         this.range = range;
+         this.from = from;
+         this.to = to;
+      }
+
+      public void run() {
+         if (!state.compareAndSet(NEW, RUNNING)) {
+            return;
+         }
+         try {
+            range.run(from, to);
+         } catch (Throwable e) {
+            failure = e;
+         } finally {
+            done.countDown();
+         }
+      }
+
+      void cancel() {
+         if (state.compareAndSet(NEW, CANCELLED)) {
+            done.countDown();
+         }
+      }
+
+      /**
+       * @return the exception thrown by the share, if any.
+       */
+      Throwable await() throws InterruptedException {
+         done.await();
+         return failure;
+      }
+
+      /**
+       * @return whether the share has run (and not been cancelled).
+       */
+      boolean awaitUninterruptibly() {
+         boolean interrupted = false;
+         for (;;) {
+            try {
+               done.await();
+               break;
+            } catch (InterruptedException e) {
+               interrupted = true;
+            }
+         }
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
+         return state.get() == RUNNING;
+      }
+   }
+
+   private ParallelRanges() {
+      throw new AssertionError();
+   }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.math.BigInteger;
+
+import bouncycastle.crypto.params.ECPrivateKeyParameters;
+
+/**
+ * An {@link ECIESPrivateKey} whose domain and key parameters have been
+ * resolved (and checked) once, so that decryption with it skips rebuilding
+ * them for every message. It can be used wherever an {@code ECIESPrivateKey}
+ * is expected; it is serialized as a plain {@link PrivateKeyImpl}.
+ */
+public final class PreparedPrivateKey implements ECIESPrivateKey {
+
+   private static final long serialVersionUID = -3418528795270349042L;
+
+   private final BigInteger d;
+   private final String algorithm;
+   // the resolved domain and the key parameters
+   private final transient ECDomain domain;
+   private final transient ECPrivateKeyParameters params;
+
+   PreparedPrivateKey(final String algorithm, final ECDomain domain, final ECPrivateKeyParameters params) {
+      this.d = params.getD();
+      this.algorithm = algorithm;
+      this.domain = domain;
+      this.params = params;
+   }
+
+   ECDomain getDomain() {
+      return domain;
+   }
+
+   ECPrivateKeyParameters getParams() {
+      return params;
+   }
+
+   public String getAlgorithm() {
+      return algorithm;
+   }
+
+   public String getFormat() {
+      return "RAW";
+   }
+
+   public byte[] getEncoded() {
+      return d.toByteArray();
+   }
+
+   public BigInteger getD() {
+      return d;
+   }
+
+   public String toString() {
+      return algorithm + " : (prepared private key)";
+   }
+
+   private Object writeReplace() {
+      return new PrivateKeyImpl(d, algorithm);
+   }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import bouncycastle.crypto.params.ECPublicKeyParameters;
+
+/**
+ * An {@link ECIESPublicKey} that has been decoded and validated once, so that
+ * encryption with it skips the domain lookup and the point decoding. The
+ * decoded point also keeps the precomputation its first multiplication
+ * builds. It can be used wherever an {@code ECIESPublicKey} is expected; it
+ * is serialized as a plain {@link PublicKeyImpl}.
+ */
+public final class PreparedPublicKey implements ECIESPublicKey {
+
+   private static final long serialVersionUID = 2690735313476373411L;
+
+   private final byte[] encoded;
+   private final String algorithm;
+   // the resolved domain and the decoded point
+   private final transient ECDomain domain;
+   private final transient ECPublicKeyParameters params;
+
+   PreparedPublicKey(final byte[] encoded, final String algorithm, final ECDomain domain,
+         final ECPublicKeyParameters params) {
+      this.encoded = encoded;
+      this.algorithm = algorithm;
+      this.domain = domain;
+      this.params = params;
+   }
+
+   ECDomain getDomain() {
+      return domain;
+   }
+
+   ECPublicKeyParameters getParams() {
+      return params;
+   }
+
+   public String getAlgorithm() {
+      return algorithm;
+   }
+
+   public String getFormat() {
+      return "RAW";
+   }
+
+   public byte[] getEncoded() {
+      return encoded.clone();
+   }
+
+   /**
+    * @return an encoded InputStream for this {@code PublicKey}
+    */
+   public InputStream getInputStream() {
+      return new ByteArrayInputStream(encoded);
+   }
+
+   public String toString() {
+      return algorithm + " : " + Arrays.toString(encoded);
+   }
+
+   private Object writeReplace() {
+      return new PublicKeyImpl(encoded, algorithm);
+   }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bouncycastle.crypto.params.ECPublicKeyParameters;
+
+/**
+ * A bounded, least-recently-used cache of decoded public keys of an ECC
+ * domain, keyed by their encoding. The cached points keep the precomputation
+ * of their multiplier, so repeated key agreements with the same (hot) public
+ * key reuse it instead of rebuilding it for every message.
+ */
+final class PublicKeyCache {
+
+   // maximum number of public keys cached per domain
+   private static final int DEFAULT_CAPACITY = 64;
+
+   private final LinkedHashMap<ByteBuffer, ECPublicKeyParameters> cache;
+
+   PublicKeyCache() {
+      this(DEFAULT_CAPACITY);
+   }
+
+   PublicKeyCache(final int capacity) {
+      if (capacity <= 0) {
+         throw new IllegalArgumentException("capacity <= 0 : " + capacity);
+      }
+      cache = new LinkedHashMap<ByteBuffer, ECPublicKeyParameters>(16, 0.75f, true) {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, ECPublicKeyParameters> eldest) {
+            return size() > capacity;
+         }
+      };
+   }
+
+   /**
+    * Get the decoded public key for the given encoding.
+    * 
+    * @param encoded
+    *           the encoded public key.
+    * @return the cached public key (if found), otherwise {@code null}.
+    */
+   synchronized ECPublicKeyParameters get(final byte[] encoded) {
+      return cache.get(ByteBuffer.wrap(encoded));
+   }
+
+   /**
+    * Cache the decoded public key for the given encoding, evicting the least
+    * recently used entry if the cache is full.
+    * 
+    * @param encoded
+    *           the encoded public key (must not be modified afterwards).
+    * @param key
+    *           the decoded public key.
+    */
+   synchronized void put(final byte[] encoded, final ECPublicKeyParameters key) {
+      cache.put(ByteBuffer.wrap(encoded), key);
+   }
+}
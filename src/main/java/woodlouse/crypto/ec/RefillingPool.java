@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of items that are expensive to make. A low priority daemon
+ * thread refills the pool up to its high watermark, a batch at a time,
+ * whenever it has drained below its low watermark. Every item is handed out
+ * exactly once. {@link #shutdown()} stops the refill for good.
+ *
+ * @param <T>
+ *           the type of the items.
+ */
+final class RefillingPool<T> {
+
+   /**
+    * Makes the items of a pool. Only the refill thread calls it.
+    */
+   interface BatchProducer<T> {
+      /**
+       * Make up to {@code count} new items together.
+       *
+       * @return the items, any {@code null} entries are skipped.
+       */
+      T[] produce(int count);
+   }
+
+   // number of items produced together by the refill
+   private static final int BATCH_SIZE = 16;
+
+   private final BatchProducer<T> producer;
+   private final BlockingQueue<T> items;
+   private final int lowWatermark;
+   private final int highWatermark;
+
+   private final Thread refiller;
+   private volatile boolean shutdown;
+
+   private final Object refillLock = new Object();
+   private boolean refillRequested;
+
+   RefillingPool(final BatchProducer<T> producer, final int lowWatermark, final int highWatermark, final String name) {
+      if (producer == null) {
+         throw new IllegalArgumentException("producer == null");
+      }
+      if (lowWatermark < 0 || highWatermark <= 0 || lowWatermark > highWatermark) {
+         throw new IllegalArgumentException("invalid watermarks : " + lowWatermark + " / " + highWatermark);
+      }
+      this.producer = producer;
+      this.lowWatermark = lowWatermark;
+      this.highWatermark = highWatermark;
+      this.items = new ArrayBlockingQueue<T>(highWatermark);
+
+      this.refiller = new Thread(new Runnable() {
+         public void run() {
+            refill();
+         }
+      }, name);
+      refiller.setDaemon(true);
+      refiller.setPriority(Thread.MIN_PRIORITY);
+      refiller.start();
+      requestRefill();
+   }
+
+   /**
+    * Take an item out of the pool.
+    *
+    * @return an item that has not been handed out before, or {@code null} if
+    *         the pool is empty.
+    */
+   T poll() {
+      final T item = items.poll();
+      if ((items.size() < lowWatermark || item == null) && !shutdown) {
+         requestRefill();
+      }
+      return item;
+   }
+
+   /**
+    * Stop the refill thread and drop the pooled items.
+    */
+   void shutdown() {
+      shutdown = true;
+      refiller.interrupt();
+      try {
+         // a batch in progress is not interruptible, wait for it to be offered
+         refiller.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      items.clear();
+   }
+
+   private void requestRefill() {
+      synchronized (refillLock) {
+         if (!refillRequested) {
+            refillRequested = true;
+            refillLock.notify();
+         }
+      }
+   }
+
+   private void refill() {
+      try {
+         for (;;) {
+            synchronized (refillLock) {
+               while (!refillRequested) {
+                  refillLock.wait();
+               }
+               // requests coming in while refilling trigger another round
+               refillRequested = false;
+            }
+            int missing;
+            while ((missing = highWatermark - items.size()) > 0 && !shutdown) {
+               for (final T item : producer.produce(Math.min(missing, BATCH_SIZE))) {
+                  if (item != null && !items.offer(item)) {
+                     break;
+                  }
+               }
+            }
+         }
+      } catch (InterruptedException e) {
+         // the pool is no longer refilled
+         Thread.currentThread().interrupt();
+      }
+   }
+}
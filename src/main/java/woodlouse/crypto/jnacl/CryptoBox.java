@@ -4,9 +4,12 @@
  */
 package woodlouse.crypto.jnacl;
 
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
+import woodlouse.crypto.InvalidCipherBytesException;
+
 /**
  * An "ephemeral-static mode" key agreement variant of the combination of the <a
  * href=http://cr.yp.to/ecdh/curve25519-20060209.pdf> Curve25519</a>
@@ -22,6 +25,9 @@ import java.util.Arrays;
 public final class CryptoBox {
 
    private static final int NONCE_BYTE_COUNT = 24;
+   // nonce || ephemeral public key || authenticator
+   private static final int OVERHEAD_BYTE_COUNT = NONCE_BYTE_COUNT + NaCl.KEY_BYTE_COUNT
+         + NaCl.CRYPTO_OVERHEAD_BYTE_COUNT;
    private static final SecureRandom prng = new SecureRandom();
 
    /**
@@ -36,23 +42,11 @@ public final class CryptoBox {
     */
    public static byte[] encryptEphemeral(byte[] plainBytes, byte[] publicKeyBytes) {
 
-      byte[] nonce = new byte[NONCE_BYTE_COUNT];
-      prng.nextBytes(nonce);
-
-      byte[][] ephemeralKeyPair = createNewKeyPair();
-      byte[] ephemeralPrivKey = ephemeralKeyPair[0];
+      byte[] cipherBytes = new byte[getEncryptOutputSize(plainBytes.length)];
 
-      byte[] cipherBytes = NaCl.encrypt(plainBytes, nonce, publicKeyBytes, ephemeralPrivKey);
-      Arrays.fill(ephemeralPrivKey, (byte) 0);
+      encryptEphemeral(plainBytes, 0, plainBytes.length, publicKeyBytes, cipherBytes, 0);
 
-      byte[] triple = new byte[NONCE_BYTE_COUNT + NaCl.KEY_BYTE_COUNT + cipherBytes.length];
-      byte[] ephemeralPubKey = ephemeralKeyPair[1];
-
-      System.arraycopy(nonce, 0, triple, 0, nonce.length);
-      System.arraycopy(ephemeralPubKey, 0, triple, nonce.length, ephemeralPubKey.length);
-      System.arraycopy(cipherBytes, 0, triple, nonce.length + ephemeralPubKey.length, cipherBytes.length);
-
-      return triple;
+      return cipherBytes;
    }
 
    /**
@@ -67,15 +61,206 @@ public final class CryptoBox {
     */
    public static byte[] decryptEphemeral(byte[] cipherBytes, byte[] privateKeyBytes) {
 
-      byte[] rawCipherBytes = new byte[cipherBytes.length - NONCE_BYTE_COUNT - NaCl.KEY_BYTE_COUNT];
+      byte[] plainBytes = new byte[getDecryptOutputSize(cipherBytes.length)];
+
+      decryptEphemeral(cipherBytes, 0, cipherBytes.length, privateKeyBytes, plainBytes, 0);
+
+      return plainBytes;
+   }
+
+   /**
+    * The exact number of bytes {@code encryptEphemeral} produces for
+    * {@code plainLength} plain bytes.
+    * 
+    * @param plainLength
+    *           the number of bytes to encrypt.
+    * @return the size of the encrypted bytes.
+    */
+   public static int getEncryptOutputSize(int plainLength) {
+      if (plainLength < 0) {
+         throw new IllegalArgumentException("plainLength < 0");
+      }
+      return OVERHEAD_BYTE_COUNT + plainLength;
+   }
+
+   /**
+    * The number of bytes {@code decryptEphemeral} produces for
+    * {@code cipherLength} encrypted bytes.
+    * 
+    * @param cipherLength
+    *           the number of bytes to decrypt.
+    * @return the size of the decrypted bytes (0 if {@code cipherLength} is
+    *         too short to be valid).
+    */
+   public static int getDecryptOutputSize(int cipherLength) {
+      if (cipherLength < 0) {
+         throw new IllegalArgumentException("cipherLength < 0");
+      }
+      return Math.max(0, cipherLength - OVERHEAD_BYTE_COUNT);
+   }
+
+   /**
+    * Encrypt {@code inLength} bytes of {@code plainBytes} at {@code inOffset}
+    * using the key {@code publicKeyBytes}, writing the
+    * {@link #getEncryptOutputSize(int)} encrypted bytes (the same bytes as
+    * {@link #encryptEphemeral(byte[], byte[])}) directly to {@code out} at
+    * {@code outOffset}, without intermediate copies. The output must not
+    * overlap the input.
+    * 
+    * @param plainBytes
+    *           bytes to encrypt.
+    * @param inOffset
+    *           the offset of the first byte to encrypt.
+    * @param inLength
+    *           the number of bytes to encrypt.
+    * @param publicKeyBytes
+    *           key to use for encryption.
+    * @param out
+    *           the array for the encrypted bytes.
+    * @param outOffset
+    *           the offset of the first encrypted byte in {@code out}.
+    * @return the number of bytes written to {@code out}.
+    */
+   public static int encryptEphemeral(byte[] plainBytes, int inOffset, int inLength, byte[] publicKeyBytes,
+         byte[] out, int outOffset) {
+
+      checkRange(plainBytes, inOffset, inLength, "plainBytes");
+      final int outLength = getEncryptOutputSize(inLength);
+      checkRange(out, outOffset, outLength, "out");
+      checkKey(publicKeyBytes, "publicKeyBytes");
+
       byte[] nonce = new byte[NONCE_BYTE_COUNT];
-      byte[] pubKey = new byte[NaCl.KEY_BYTE_COUNT];
+      prng.nextBytes(nonce);
+      byte[] ephemeralPrivKey = new byte[NaCl.KEY_BYTE_COUNT];
+      prng.nextBytes(ephemeralPrivKey);
+      byte[] ephemeralPubKey = NaCl.getPublicKey(ephemeralPrivKey);
+
+      try {
+         NaCl.encrypt(plainBytes, inOffset, inLength, nonce, publicKeyBytes, ephemeralPrivKey, out, outOffset
+               + NONCE_BYTE_COUNT + NaCl.KEY_BYTE_COUNT);
+      } finally {
+         Arrays.fill(ephemeralPrivKey, (byte) 0);
+      }
+      System.arraycopy(nonce, 0, out, outOffset, NONCE_BYTE_COUNT);
+      System.arraycopy(ephemeralPubKey, 0, out, outOffset + NONCE_BYTE_COUNT, NaCl.KEY_BYTE_COUNT);
+
+      return outLength;
+   }
+
+   /**
+    * Decrypt {@code inLength} crypted bytes of {@code cipherBytes} at
+    * {@code inOffset} using the key {@code privateKeyBytes}, writing the
+    * {@link #getDecryptOutputSize(int)} plain bytes directly to {@code out} at
+    * {@code outOffset}. {@code out} may be {@code cipherBytes} itself, with
+    * {@code outOffset} anywhere up to the start of the encrypted message
+    * ({@code inOffset + 72}), so that a message can be decrypted in place.
+    * Nothing is written to {@code out} if the crypted bytes are not authentic.
+    * 
+    * @param cipherBytes
+    *           crypted bytes to decrypt.
+    * @param inOffset
+    *           the offset of the first byte to decrypt.
+    * @param inLength
+    *           the number of bytes to decrypt.
+    * @param privateKeyBytes
+    *           key to use for decryption.
+    * @param out
+    *           the array for the plain bytes.
+    * @param outOffset
+    *           the offset of the first plain byte in {@code out}.
+    * @return the number of bytes written to {@code out}.
+    * @throws InvalidCipherBytesException
+    *            if {@code cipherBytes} are too short or not authentic.
+    */
+   public static int decryptEphemeral(byte[] cipherBytes, int inOffset, int inLength, byte[] privateKeyBytes,
+         byte[] out, int outOffset) {
+
+      checkRange(cipherBytes, inOffset, inLength, "cipherBytes");
+      if (inLength < OVERHEAD_BYTE_COUNT) {
+         throw new InvalidCipherBytesException("cipherBytes too short : " + inLength + " < " + OVERHEAD_BYTE_COUNT);
+      }
+      final int outLength = getDecryptOutputSize(inLength);
+      checkRange(out, outOffset, outLength, "out");
+      checkKey(privateKeyBytes, "privateKeyBytes");
+
+      // copied first, as decrypting in place may overwrite them
+      byte[] nonce = Arrays.copyOfRange(cipherBytes, inOffset, inOffset + NONCE_BYTE_COUNT);
+      byte[] pubKey = Arrays.copyOfRange(cipherBytes, inOffset + NONCE_BYTE_COUNT, inOffset + NONCE_BYTE_COUNT
+            + NaCl.KEY_BYTE_COUNT);
+
+      NaCl.decrypt(cipherBytes, inOffset + NONCE_BYTE_COUNT + NaCl.KEY_BYTE_COUNT, inLength - NONCE_BYTE_COUNT
+            - NaCl.KEY_BYTE_COUNT, nonce, pubKey, privateKeyBytes, out, outOffset);
+
+      return outLength;
+   }
+
+   /**
+    * Encrypt the remaining bytes of {@code in} like
+    * {@link #encryptEphemeral(byte[], int, int, byte[], byte[], int)}, to
+    * {@code out} at its position. Buffers backed by an accessible array are
+    * used in place, others through a copy. The positions of both buffers are
+    * advanced past the bytes read and written.
+    * 
+    * @return the number of bytes written to {@code out}.
+    */
+   public static int encryptEphemeral(ByteBuffer in, byte[] publicKeyBytes, ByteBuffer out) {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      if (out == null) {
+         throw new IllegalArgumentException("out == null");
+      }
+      final int inLength = in.remaining();
+      final int outLength = getEncryptOutputSize(inLength);
+      if (out.remaining() < outLength) {
+         throw new IllegalArgumentException("out too short : " + out.remaining() + " < " + outLength);
+      }
+      final byte[] inBytes = in.hasArray() ? in.array() : copyRemaining(in);
+      final int inOffset = in.hasArray() ? in.arrayOffset() + in.position() : 0;
+      final byte[] outBytes = out.hasArray() ? out.array() : new byte[outLength];
+      final int outOffset = out.hasArray() ? out.arrayOffset() + out.position() : 0;
+
+      final int n = encryptEphemeral(inBytes, inOffset, inLength, publicKeyBytes, outBytes, outOffset);
+
+      advance(out, outBytes, n);
+      in.position(in.position() + inLength);
+      return n;
+   }
+
+   /**
+    * Decrypt the remaining bytes of {@code in} like
+    * {@link #decryptEphemeral(byte[], int, int, byte[], byte[], int)}, to
+    * {@code out} at its position. Buffers backed by an accessible array are
+    * used in place (so {@code out} may share the array of {@code in}), others
+    * through a copy. The positions of both buffers are advanced past the bytes
+    * read and written.
+    * 
+    * @return the number of bytes written to {@code out}.
+    * @throws InvalidCipherBytesException
+    *            if the bytes of {@code in} are too short or not authentic.
+    */
+   public static int decryptEphemeral(ByteBuffer in, byte[] privateKeyBytes, ByteBuffer out) {
+      if (in == null) {
+         throw new IllegalArgumentException("in == null");
+      }
+      if (out == null) {
+         throw new IllegalArgumentException("out == null");
+      }
+      final int inLength = in.remaining();
+      final int outLength = getDecryptOutputSize(inLength);
+      if (out.remaining() < outLength) {
+         throw new IllegalArgumentException("out too short : " + out.remaining() + " < " + outLength);
+      }
+      final byte[] inBytes = in.hasArray() ? in.array() : copyRemaining(in);
+      final int inOffset = in.hasArray() ? in.arrayOffset() + in.position() : 0;
+      final byte[] outBytes = out.hasArray() ? out.array() : new byte[outLength];
+      final int outOffset = out.hasArray() ? out.arrayOffset() + out.position() : 0;
 
-      System.arraycopy(cipherBytes, 0, nonce, 0, nonce.length);
-      System.arraycopy(cipherBytes, nonce.length, pubKey, 0, pubKey.length);
-      System.arraycopy(cipherBytes, nonce.length + pubKey.length, rawCipherBytes, 0, rawCipherBytes.length);
+      final int n = decryptEphemeral(inBytes, inOffset, inLength, privateKeyBytes, outBytes, outOffset);
 
-      return NaCl.decrypt(rawCipherBytes, nonce, pubKey, privateKeyBytes);
+      advance(out, outBytes, n);
+      in.position(in.position() + inLength);
+      return n;
    }
 
    /**
@@ -100,6 +285,41 @@ public final class CryptoBox {
       return keyPair;
    }
 
+   private static byte[] copyRemaining(ByteBuffer in) {
+      final byte[] bytes = new byte[in.remaining()];
+      in.duplicate().get(bytes);
+      return bytes;
+   }
+
+   // move the position of out past the n bytes written to outBytes (copying
+   // them into out unless outBytes is its backing array)
+   private static void advance(ByteBuffer out, byte[] outBytes, int n) {
+      if (out.hasArray()) {
+         out.position(out.position() + n);
+      } else {
+         out.put(outBytes, 0, n);
+      }
+   }
+
+   private static void checkRange(byte[] bytes, int offset, int length, String name) {
+      if (bytes == null) {
+         throw new IllegalArgumentException(name + " == null");
+      }
+      if (offset < 0 || length < 0 || offset > bytes.length - length) {
+         throw new IllegalArgumentException(name + " too short : offset " + offset + ", length " + length + ", size "
+               + bytes.length);
+      }
+   }
+
+   private static void checkKey(byte[] key, String name) {
+      if (key == null) {
+         throw new IllegalArgumentException(name + " == null");
+      }
+      if (key.length != NaCl.KEY_BYTE_COUNT) {
+         throw new IllegalArgumentException(name + ".length != " + NaCl.KEY_BYTE_COUNT + " : " + key.length);
+      }
+   }
+
    private CryptoBox() {
       throw new AssertionError();
    }
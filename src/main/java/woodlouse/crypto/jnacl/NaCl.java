@@ -4,6 +4,7 @@
  */
 package woodlouse.crypto.jnacl;
 
+import woodlouse.crypto.InvalidCipherBytesException;
 import woodlouse.crypto.jnacl.impl.Curve25519XSalsa20Poly1305;
 
 /**
@@ -12,41 +13,58 @@ import woodlouse.crypto.jnacl.impl.Curve25519XSalsa20Poly1305;
  */
 final class NaCl {
 
-   private static final int ZEROBYTES_COUNT = 32;
-   private static final int BOXZEROBYTES_COUNT = 16;
-   private static final int CRYPTO_OVERHEAD_BYTE_COUNT = 16;
+   static final int CRYPTO_OVERHEAD_BYTE_COUNT = 16;
    static final int KEY_BYTE_COUNT = 32;
 
    static byte[] encrypt(byte[] plainText, byte[] nonce, byte[] pubKey, byte[] privKey) {
 
-      byte[] paddedIn = new byte[plainText.length + ZEROBYTES_COUNT];
-      byte[] paddedOut = new byte[paddedIn.length];
-      byte[] cipherText = new byte[paddedOut.length - BOXZEROBYTES_COUNT];
+      byte[] cipherText = new byte[plainText.length + CRYPTO_OVERHEAD_BYTE_COUNT];
 
-      System.arraycopy(plainText, 0, paddedIn, ZEROBYTES_COUNT, plainText.length);
-      if (Curve25519XSalsa20Poly1305.crypto_box(paddedOut, paddedIn, paddedIn.length, nonce, pubKey, privKey) != 0) {
-         throw new RuntimeException("Curve25519XSalsa20Poly1305.crypto_box() != 0");
-      }
-      System.arraycopy(paddedOut, BOXZEROBYTES_COUNT, cipherText, 0, cipherText.length);
+      encrypt(plainText, 0, plainText.length, nonce, pubKey, privKey, cipherText, 0);
 
       return cipherText;
    }
 
    static byte[] decrypt(byte[] cipherText, byte[] nonce, byte[] pubKey, byte[] privKey) {
 
-      byte[] paddedIn = new byte[cipherText.length + BOXZEROBYTES_COUNT];
-      byte[] paddedOut = new byte[paddedIn.length];
+      if (cipherText.length < CRYPTO_OVERHEAD_BYTE_COUNT) {
+         throw new InvalidCipherBytesException("cipherText too short : " + cipherText.length);
+      }
       byte[] plainText = new byte[cipherText.length - CRYPTO_OVERHEAD_BYTE_COUNT];
 
-      System.arraycopy(cipherText, 0, paddedIn, BOXZEROBYTES_COUNT, cipherText.length);
-      if (Curve25519XSalsa20Poly1305.crypto_box_open(paddedOut, paddedIn, paddedIn.length, nonce, pubKey, privKey) != 0) {
-         throw new RuntimeException("Curve25519XSalsa20Poly1305.crypto_box_open() != 0");
-      }
-      System.arraycopy(paddedOut, ZEROBYTES_COUNT, plainText, 0, paddedOut.length - ZEROBYTES_COUNT);
+      decrypt(cipherText, 0, cipherText.length, nonce, pubKey, privKey, plainText, 0);
 
       return plainText;
    }
 
+   /**
+    * Write the authenticator and the ciphertext of the {@code inLength} bytes
+    * of {@code in} at {@code inOffset} ({@code inLength + 16} bytes) to
+    * {@code out} at {@code outOffset}, which must not overlap the input.
+    */
+   static void encrypt(byte[] in, int inOffset, int inLength, byte[] nonce, byte[] pubKey, byte[] privKey, byte[] out,
+         int outOffset) {
+
+      if (Curve25519XSalsa20Poly1305.crypto_box_easy(out, outOffset, in, inOffset, inLength, nonce, pubKey, privKey) != 0) {
+         throw new RuntimeException("Curve25519XSalsa20Poly1305.crypto_box_easy() != 0");
+      }
+   }
+
+   /**
+    * Write the plaintext of the {@code inLength} bytes of {@code in} at
+    * {@code inOffset} ({@code inLength - 16} bytes) to {@code out} at
+    * {@code outOffset}, which may be the ciphertext itself or any position
+    * before it in the same array.
+    */
+   static void decrypt(byte[] in, int inOffset, int inLength, byte[] nonce, byte[] pubKey, byte[] privKey, byte[] out,
+         int outOffset) {
+
+      if (Curve25519XSalsa20Poly1305.crypto_box_open_easy(out, outOffset, in, inOffset, inLength, nonce, pubKey,
+            privKey) != 0) {
+         throw new InvalidCipherBytesException("Curve25519XSalsa20Poly1305.crypto_box_open_easy() != 0");
+      }
+   }
+
    static byte[] getPublicKey(byte[] privKey) {
 
       byte[] publicKey = new byte[KEY_BYTE_COUNT];
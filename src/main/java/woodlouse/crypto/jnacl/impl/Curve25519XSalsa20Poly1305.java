@@ -27,6 +27,8 @@
 
 package woodlouse.crypto.jnacl.impl;
 
+import java.util.Arrays;
+
 public final class Curve25519XSalsa20Poly1305 {
    private static final int crypto_secretbox_BEFORENMBYTES = 32;
 
@@ -78,6 +80,46 @@ public final class Curve25519XSalsa20Poly1305 {
       return crypto_box_open(messageOut, cipherIn, (long) cipherIn.length, nonce, pubKey, privKey);
    }
 
+   /**
+    * Box {@code msgLen} bytes of {@code messageIn} at {@code msgOffset} to
+    * {@code cipherOut} at {@code cipherOffset} without the zero padding of
+    * {@link #crypto_box}: the output is the 16-byte authenticator followed by
+    * {@code msgLen} bytes of ciphertext, and must not overlap the input.
+    */
+   public static int crypto_box_easy(byte[] cipherOut, int cipherOffset, byte[] messageIn, int msgOffset, int msgLen,
+         byte[] nonce, byte[] pubKey, byte[] privKey) {
+      byte[] precomp = new byte[crypto_secretbox_BEFORENMBYTES];
+
+      crypto_box_beforenm(precomp, pubKey, privKey);
+      try {
+         return XSalsa20Poly1305.crypto_secretbox_easy(cipherOut, cipherOffset, messageIn, msgOffset, msgLen, nonce,
+               precomp);
+      } finally {
+         Arrays.fill(precomp, (byte) 0);
+      }
+   }
+
+   /**
+    * Open a box of {@link #crypto_box_easy} ({@code cipherLen} bytes at
+    * {@code cipherOffset}) to {@code cipherLen - 16} bytes of
+    * {@code messageOut} at {@code msgOffset}. Returns -1, without writing
+    * anything, if the box is not authentic. The output may be the same array
+    * as the input if it does not start after the ciphertext (i.e. after
+    * {@code cipherOffset + 16}), so that a box can be opened in place.
+    */
+   public static int crypto_box_open_easy(byte[] messageOut, int msgOffset, byte[] cipherIn, int cipherOffset,
+         int cipherLen, byte[] nonce, byte[] pubKey, byte[] privKey) {
+      byte[] precomp = new byte[crypto_secretbox_BEFORENMBYTES];
+
+      crypto_box_beforenm(precomp, pubKey, privKey);
+      try {
+         return XSalsa20Poly1305.crypto_secretbox_open_easy(messageOut, msgOffset, cipherIn, cipherOffset, cipherLen,
+               nonce, precomp);
+      } finally {
+         Arrays.fill(precomp, (byte) 0);
+      }
+   }
+
    private Curve25519XSalsa20Poly1305() {
       throw new AssertionError();
    }
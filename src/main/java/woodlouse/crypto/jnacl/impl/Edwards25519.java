@@ -0,0 +1,241 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.jnacl.impl;
+
+/**
+ * Fixed-base scalar multiplication on the twisted Edwards curve
+ * {@code -x^2 + y^2 = 1 + d x^2 y^2}, which is birationally equivalent to
+ * Curve25519, as in {@code ge_scalarmult_base} of the ref10 implementation.
+ * The scalar is split into 64 signed radix-16 digits, and the multiple of the
+ * base point for each digit is selected (in constant time) from a table of
+ * {@code 1..8 * 256^i * B}, so that a scalar multiplication takes 64 mixed
+ * additions and 4 doublings. The result is mapped back to the Montgomery
+ * {@code u} co-ordinate of Curve25519.
+ * <p>
+ * The table (768 field elements) is computed from the base point on first
+ * use. Points are arrays of field elements: {@code (X, Y, Z, T)} in extended
+ * co-ordinates with {@code x = X / Z}, {@code y = Y / Z} and
+ * {@code x y = T / Z}, and the table entries {@code (y + x, y - x, 2 d x y)}
+ * in affine co-ordinates.
+ */
+final class Edwards25519 {
+
+   // the base point B, whose image on Curve25519 is u = 9
+   private static final byte[] BASE_X = { 26, -43, 37, -113, 96, 45, 86, -55, -78, -89, 37, -107, 96, -57, 44, 105,
+         92, -36, -42, -3, 49, -30, -92, -64, -2, 83, 110, -51, -45, 54, 105, 33 };
+   private static final byte[] BASE_Y = { 88, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102,
+         102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102, 102 };
+
+   // co-ordinates of points and table entries
+   private static final int X = 0, Y = 1, Z = 2, T = 3;
+   private static final int YPLUSX = 0, YMINUSX = 1, XY2D = 2;
+
+   /**
+    * Compute the Curve25519 {@code u} co-ordinate of {@code a * B} to the 32
+    * bytes {@code q}.
+    *
+    * @param a
+    *           the scalar, 32 little-endian bytes with the top bit clear.
+    */
+   static void scalarmult_base(final byte[] q, final byte[] a) {
+      // signed digits e[i] in -8..8 with a = sum of e[i] * 16^i
+      final byte[] e = new byte[64];
+      for (int i = 0; i < 32; ++i) {
+         e[2 * i] = (byte) (a[i] & 15);
+         e[2 * i + 1] = (byte) ((a[i] >>> 4) & 15);
+      }
+      int carry = 0;
+      for (int i = 0; i < 63; ++i) {
+         e[i] += carry;
+         carry = (e[i] + 8) >> 4;
+         e[i] -= carry << 4;
+      }
+      e[63] += carry;
+
+      final int[][] table = new int[3][Field25519.LIMBS];
+      final int[][] minusTable = new int[3][Field25519.LIMBS];
+      final int[][] h = new int[4][Field25519.LIMBS];
+      final int[][] r = new int[4][Field25519.LIMBS];
+      final int[] t0 = new int[Field25519.LIMBS];
+      final int[][][][] base = BaseTable.BASE;
+
+      // the odd digits, times 16, plus the even digits
+      zero(h);
+      for (int i = 1; i < 64; i += 2) {
+         select(table, minusTable, base[i / 2], e[i]);
+         madd(r, h, table, t0);
+         toP3(h, r);
+      }
+      dbl(r, h, t0);
+      toP2(h, r);
+      dbl(r, h, t0);
+      toP2(h, r);
+      dbl(r, h, t0);
+      toP2(h, r);
+      dbl(r, h, t0);
+      toP3(h, r);
+      for (int i = 0; i < 64; i += 2) {
+         select(table, minusTable, base[i / 2], e[i]);
+         madd(r, h, table, t0);
+         toP3(h, r);
+      }
+
+      // u = (1 + y) / (1 - y) = (Z + Y) / (Z - Y)
+      final int[] u = r[X], w = r[Y];
+      Field25519.add(u, h[Z], h[Y]);
+      Field25519.sub(w, h[Z], h[Y]);
+      Field25519.invert(w, w, t0, r[Z], r[T], h[X]);
+      Field25519.mul(u, u, w);
+      Field25519.toBytes(q, 0, u);
+   }
+
+   // the neutral element (0, 1)
+   private static void zero(final int[][] p) {
+      Field25519.zero(p[X]);
+      Field25519.one(p[Y]);
+      Field25519.one(p[Z]);
+      Field25519.zero(p[T]);
+   }
+
+   /**
+    * Set {@code t} to {@code b * row[0]} for a digit {@code b} in -8..8, in
+    * constant time.
+    */
+   private static void select(final int[][] t, final int[][] minusT, final int[][][] row, final byte b) {
+      final int bnegative = (b >>> 31) & 1;
+      final int babs = b - ((-bnegative & b) << 1);
+
+      Field25519.one(t[YPLUSX]);
+      Field25519.one(t[YMINUSX]);
+      Field25519.zero(t[XY2D]);
+      for (int j = 0; j < 8; ++j) {
+         final int equal = ((babs ^ (j + 1)) - 1) >>> 31;
+         Field25519.cmov(t[YPLUSX], row[j][YPLUSX], equal);
+         Field25519.cmov(t[YMINUSX], row[j][YMINUSX], equal);
+         Field25519.cmov(t[XY2D], row[j][XY2D], equal);
+      }
+
+      // -(x, y) = (-x, y)
+      Field25519.copy(minusT[YPLUSX], t[YMINUSX]);
+      Field25519.copy(minusT[YMINUSX], t[YPLUSX]);
+      Field25519.neg(minusT[XY2D], t[XY2D]);
+      Field25519.cmov(t[YPLUSX], minusT[YPLUSX], bnegative);
+      Field25519.cmov(t[YMINUSX], minusT[YMINUSX], bnegative);
+      Field25519.cmov(t[XY2D], minusT[XY2D], bnegative);
+   }
+
+   /**
+    * r = p + q for a point {@code p} and a table entry {@code q}, in the
+    * completed co-ordinates of ref10 ({@link #toP2} and {@link #toP3} convert
+    * the result).
+    */
+   private static void madd(final int[][] r, final int[][] p, final int[][] q, final int[] t0) {
+      Field25519.add(r[X], p[Y], p[X]);
+      Field25519.sub(r[Y], p[Y], p[X]);
+      Field25519.mul(r[Z], r[X], q[YPLUSX]);
+      Field25519.mul(r[Y], r[Y], q[YMINUSX]);
+      Field25519.mul(r[T], q[XY2D], p[T]);
+      Field25519.add(t0, p[Z], p[Z]);
+      Field25519.sub(r[X], r[Z], r[Y]);
+      Field25519.add(r[Y], r[Z], r[Y]);
+      Field25519.add(r[Z], t0, r[T]);
+      Field25519.sub(r[T], t0, r[T]);
+   }
+
+   /**
+    * r = 2 p in completed co-ordinates, using only {@code X}, {@code Y} and
+    * {@code Z} of {@code p}.
+    */
+   private static void dbl(final int[][] r, final int[][] p, final int[] t0) {
+      Field25519.sq(r[X], p[X]);
+      Field25519.sq(r[Z], p[Y]);
+      Field25519.sq2(r[T], p[Z]);
+      Field25519.add(r[Y], p[X], p[Y]);
+      Field25519.sq(t0, r[Y]);
+      Field25519.add(r[Y], r[Z], r[X]);
+      Field25519.sub(r[Z], r[Z], r[X]);
+      Field25519.sub(r[X], t0, r[Y]);
+      Field25519.sub(r[T], r[T], r[Z]);
+   }
+
+   // completed to projective co-ordinates (without T)
+   private static void toP2(final int[][] p, final int[][] r) {
+      Field25519.mul(p[X], r[X], r[T]);
+      Field25519.mul(p[Y], r[Y], r[Z]);
+      Field25519.mul(p[Z], r[Z], r[T]);
+   }
+
+   // completed to extended co-ordinates
+   private static void toP3(final int[][] p, final int[][] r) {
+      Field25519.mul(p[X], r[X], r[T]);
+      Field25519.mul(p[Y], r[Y], r[Z]);
+      Field25519.mul(p[Z], r[Z], r[T]);
+      Field25519.mul(p[T], r[X], r[Y]);
+   }
+
+   // the table entry of the affine point p (X / Z, Y / Z)
+   private static void toEntry(final int[][] entry, final int[][] p, final int[] d2, final int[][] t) {
+      final int[] zInv = t[0], x = t[1], y = t[2];
+      Field25519.invert(zInv, p[Z], t[3], t[4], t[5], t[6]);
+      Field25519.mul(x, p[X], zInv);
+      Field25519.mul(y, p[Y], zInv);
+      Field25519.add(entry[YPLUSX], y, x);
+      Field25519.sub(entry[YMINUSX], y, x);
+      Field25519.mul(entry[XY2D], x, y);
+      Field25519.mul(entry[XY2D], entry[XY2D], d2);
+   }
+
+   // the table, initialized on first use
+   private static final class BaseTable {
+      // BASE[i][j] is (j + 1) * 256^i * B
+      static final int[][][][] BASE = new int[32][8][3][Field25519.LIMBS];
+
+      static {
+         final int[][] t = new int[7][Field25519.LIMBS];
+
+         // 2 d = 2 * -121665 / 121666
+         final int[] d2 = new int[Field25519.LIMBS];
+         d2[0] = 121666;
+         Field25519.invert(d2, d2, t[0], t[1], t[2], t[3]);
+         Field25519.zero(t[0]);
+         t[0][0] = -2 * 121665;
+         Field25519.mul(d2, d2, t[0]);
+
+         final int[][] p = new int[4][Field25519.LIMBS];
+         final int[][] q = new int[4][Field25519.LIMBS];
+         final int[][] r = new int[4][Field25519.LIMBS];
+         Field25519.fromBytes(p[X], BASE_X, 0);
+         Field25519.fromBytes(p[Y], BASE_Y, 0);
+         Field25519.one(p[Z]);
+         for (int i = 0; i < 32; ++i) {
+            // P = 256^i * B, with T set as needed by madd
+            final int[][][] row = BASE[i];
+            toEntry(row[0], p, d2, t);
+            Field25519.copy(q[X], t[1]);
+            Field25519.copy(q[Y], t[2]);
+            Field25519.one(q[Z]);
+            Field25519.mul(q[T], t[1], t[2]);
+            for (int j = 1; j < 8; ++j) {
+               madd(r, q, row[0], t[0]);
+               toP3(q, r);
+               toEntry(row[j], q, d2, t);
+            }
+
+            Field25519.copy(p[X], q[X]);
+            Field25519.copy(p[Y], q[Y]);
+            Field25519.copy(p[Z], q[Z]);
+            // 8 P to 256 P
+            for (int k = 0; k < 5; ++k) {
+               dbl(r, p, t[0]);
+               toP2(p, r);
+            }
+         }
+      }
+   }
+
+   private Edwards25519() {
+      throw new AssertionError();
+   }
+}
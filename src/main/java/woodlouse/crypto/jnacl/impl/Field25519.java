@@ -0,0 +1,342 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.jnacl.impl;
+
+/**
+ * Arithmetic in GF(2^255 - 19) on field elements of ten signed limbs in radix
+ * 2^25.5 (the representation of the ref10 implementation of Curve25519): an
+ * element {@code h} is {@code h[0] + 2^26 h[1] + 2^51 h[2] + 2^77 h[3] + ... +
+ * 2^230 h[9]}, with limbs of alternately 26 and 25 bits. Products of two
+ * limbs fit in a {@code long}, so a multiplication is 100 limb products with
+ * the wrap-around (2^255 = 19) folded in, and the carries are propagated
+ * once at the end.
+ * <p>
+ * The results of {@link #mul}, {@link #sq}, {@link #sq2}, {@link #mul121666}
+ * and {@link #fromBytes} are reduced (limbs of at most 2^25 and 2^24 in
+ * absolute value). {@link #add} and {@link #sub} do not carry; the
+ * multiplications take sums and differences of up to three reduced elements.
+ * All outputs may be the same array as any of the inputs. No method
+ * allocates.
+ */
+final class Field25519 {
+
+   // number of limbs of a field element
+   static final int LIMBS = 10;
+
+   static void zero(final int[] h) {
+      for (int i = 0; i < LIMBS; i++) {
+         h[i] = 0;
+      }
+   }
+
+   static void one(final int[] h) {
+      h[0] = 1;
+      for (int i = 1; i < LIMBS; i++) {
+         h[i] = 0;
+      }
+   }
+
+   static void copy(final int[] h, final int[] f) {
+      System.arraycopy(f, 0, h, 0, LIMBS);
+   }
+
+   // h = f + g
+   static void add(final int[] h, final int[] f, final int[] g) {
+      for (int i = 0; i < LIMBS; i++) {
+         h[i] = f[i] + g[i];
+      }
+   }
+
+   // h = f - g
+   static void sub(final int[] h, final int[] f, final int[] g) {
+      for (int i = 0; i < LIMBS; i++) {
+         h[i] = f[i] - g[i];
+      }
+   }
+
+   // h = -f
+   static void neg(final int[] h, final int[] f) {
+      for (int i = 0; i < LIMBS; i++) {
+         h[i] = -f[i];
+      }
+   }
+
+   /**
+    * Replace {@code f} by {@code g} if {@code b} is 1, leave it as it is if it
+    * is 0, in constant time.
+    */
+   static void cmov(final int[] f, final int[] g, final int b) {
+      final int mask = -b;
+      for (int i = 0; i < LIMBS; i++) {
+         f[i] ^= (f[i] ^ g[i]) & mask;
+      }
+   }
+
+   /**
+    * Swap {@code f} and {@code g} if {@code b} is 1, leave them as they are if
+    * it is 0, in constant time.
+    */
+   static void cswap(final int[] f, final int[] g, final int b) {
+      final int mask = -b;
+      for (int i = 0; i < LIMBS; i++) {
+         final int x = (f[i] ^ g[i]) & mask;
+         f[i] ^= x;
+         g[i] ^= x;
+      }
+   }
+
+   // h = f * g
+   static void mul(final int[] h, final int[] f, final int[] g) {
+      final int f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+      final int f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+      final int g0 = g[0], g1 = g[1], g2 = g[2], g3 = g[3], g4 = g[4];
+      final int g5 = g[5], g6 = g[6], g7 = g[7], g8 = g[8], g9 = g[9];
+      final int f1_2 = 2 * f1;
+      final int f3_2 = 2 * f3;
+      final int f5_2 = 2 * f5;
+      final int f7_2 = 2 * f7;
+      final int f9_2 = 2 * f9;
+      final int g1_19 = 19 * g1;
+      final int g2_19 = 19 * g2;
+      final int g3_19 = 19 * g3;
+      final int g4_19 = 19 * g4;
+      final int g5_19 = 19 * g5;
+      final int g6_19 = 19 * g6;
+      final int g7_19 = 19 * g7;
+      final int g8_19 = 19 * g8;
+      final int g9_19 = 19 * g9;
+      final long h0 = f0 * (long) g0 + f1_2 * (long) g9_19 + f2 * (long) g8_19 + f3_2 * (long) g7_19 + f4 * (long) g6_19 + f5_2 * (long) g5_19 + f6 * (long) g4_19 + f7_2 * (long) g3_19 + f8 * (long) g2_19 + f9_2 * (long) g1_19;
+      final long h1 = f0 * (long) g1 + f1 * (long) g0 + f2 * (long) g9_19 + f3 * (long) g8_19 + f4 * (long) g7_19 + f5 * (long) g6_19 + f6 * (long) g5_19 + f7 * (long) g4_19 + f8 * (long) g3_19 + f9 * (long) g2_19;
+      final long h2 = f0 * (long) g2 + f1_2 * (long) g1 + f2 * (long) g0 + f3_2 * (long) g9_19 + f4 * (long) g8_19 + f5_2 * (long) g7_19 + f6 * (long) g6_19 + f7_2 * (long) g5_19 + f8 * (long) g4_19 + f9_2 * (long) g3_19;
+      final long h3 = f0 * (long) g3 + f1 * (long) g2 + f2 * (long) g1 + f3 * (long) g0 + f4 * (long) g9_19 + f5 * (long) g8_19 + f6 * (long) g7_19 + f7 * (long) g6_19 + f8 * (long) g5_19 + f9 * (long) g4_19;
+      final long h4 = f0 * (long) g4 + f1_2 * (long) g3 + f2 * (long) g2 + f3_2 * (long) g1 + f4 * (long) g0 + f5_2 * (long) g9_19 + f6 * (long) g8_19 + f7_2 * (long) g7_19 + f8 * (long) g6_19 + f9_2 * (long) g5_19;
+      final long h5 = f0 * (long) g5 + f1 * (long) g4 + f2 * (long) g3 + f3 * (long) g2 + f4 * (long) g1 + f5 * (long) g0 + f6 * (long) g9_19 + f7 * (long) g8_19 + f8 * (long) g7_19 + f9 * (long) g6_19;
+      final long h6 = f0 * (long) g6 + f1_2 * (long) g5 + f2 * (long) g4 + f3_2 * (long) g3 + f4 * (long) g2 + f5_2 * (long) g1 + f6 * (long) g0 + f7_2 * (long) g9_19 + f8 * (long) g8_19 + f9_2 * (long) g7_19;
+      final long h7 = f0 * (long) g7 + f1 * (long) g6 + f2 * (long) g5 + f3 * (long) g4 + f4 * (long) g3 + f5 * (long) g2 + f6 * (long) g1 + f7 * (long) g0 + f8 * (long) g9_19 + f9 * (long) g8_19;
+      final long h8 = f0 * (long) g8 + f1_2 * (long) g7 + f2 * (long) g6 + f3_2 * (long) g5 + f4 * (long) g4 + f5_2 * (long) g3 + f6 * (long) g2 + f7_2 * (long) g1 + f8 * (long) g0 + f9_2 * (long) g9_19;
+      final long h9 = f0 * (long) g9 + f1 * (long) g8 + f2 * (long) g7 + f3 * (long) g6 + f4 * (long) g5 + f5 * (long) g4 + f6 * (long) g3 + f7 * (long) g2 + f8 * (long) g1 + f9 * (long) g0;
+      reduce(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+   }
+
+   // h = f * f
+   static void sq(final int[] h, final int[] f) {
+      square(h, f, 0);
+   }
+
+   // h = 2 * f * f
+   static void sq2(final int[] h, final int[] f) {
+      square(h, f, 1);
+   }
+
+   // h = f * f * ... * f, with n squarings
+   static void sq(final int[] h, final int[] f, final int n) {
+      square(h, f, 0);
+      for (int i = 1; i < n; i++) {
+         square(h, h, 0);
+      }
+   }
+
+   // h = f * 121666, (A + 2) / 4 of the Montgomery form of the curve
+   static void mul121666(final int[] h, final int[] f) {
+      reduce(h, f[0] * 121666L, f[1] * 121666L, f[2] * 121666L, f[3] * 121666L, f[4] * 121666L, f[5] * 121666L,
+            f[6] * 121666L, f[7] * 121666L, f[8] * 121666L, f[9] * 121666L);
+   }
+
+   /**
+    * h = 1 / z, as z^(p - 2) (so the inverse of zero is zero), with 254
+    * squarings and 11 multiplications. The temporaries {@code t0} to
+    * {@code t3} are overwritten.
+    */
+   static void invert(final int[] h, final int[] z, final int[] t0, final int[] t1, final int[] t2, final int[] t3) {
+      sq(t0, z);
+      sq(t1, t0, 2);
+      mul(t1, z, t1);
+      mul(t0, t0, t1);
+      sq(t2, t0);
+      mul(t1, t1, t2);
+      sq(t2, t1, 5);
+      mul(t1, t2, t1);
+      sq(t2, t1, 10);
+      mul(t2, t2, t1);
+      sq(t3, t2, 20);
+      mul(t2, t3, t2);
+      sq(t2, t2, 10);
+      mul(t1, t2, t1);
+      sq(t2, t1, 50);
+      mul(t2, t2, t1);
+      sq(t3, t2, 100);
+      mul(t2, t3, t2);
+      sq(t2, t2, 50);
+      mul(t1, t2, t1);
+      sq(t1, t1, 5);
+      mul(h, t1, t0);
+   }
+
+   /**
+    * Decode the 32 little-endian bytes {@code s} at {@code off}. All 256 bits
+    * are used, i.e. the top bit adds 2^255 = 19, as in the reference
+    * implementation of NaCl.
+    */
+   static void fromBytes(final int[] h, final byte[] s, final int off) {
+      final long h0 = load4(s, off);
+      final long h1 = load3(s, off + 4) << 6;
+      final long h2 = load3(s, off + 7) << 5;
+      final long h3 = load3(s, off + 10) << 3;
+      final long h4 = load3(s, off + 13) << 2;
+      final long h5 = load4(s, off + 16);
+      final long h6 = load3(s, off + 20) << 7;
+      final long h7 = load3(s, off + 23) << 5;
+      final long h8 = load3(s, off + 26) << 4;
+      final long h9 = load3(s, off + 29) << 2;
+      reduce(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+   }
+
+   /**
+    * Encode {@code h}, fully reduced modulo p, as 32 little-endian bytes to
+    * {@code s} at {@code off}.
+    */
+   static void toBytes(final byte[] s, final int off, final int[] h) {
+      int h0 = h[0], h1 = h[1], h2 = h[2], h3 = h[3], h4 = h[4];
+      int h5 = h[5], h6 = h[6], h7 = h[7], h8 = h[8], h9 = h[9];
+
+      // q = floor(h / p), which is 0 or 1 for a reduced h
+      int q = (19 * h9 + (1 << 24)) >> 25;
+      q = (h0 + q) >> 26;
+      q = (h1 + q) >> 25;
+      q = (h2 + q) >> 26;
+      q = (h3 + q) >> 25;
+      q = (h4 + q) >> 26;
+      q = (h5 + q) >> 25;
+      q = (h6 + q) >> 26;
+      q = (h7 + q) >> 25;
+      q = (h8 + q) >> 26;
+      q = (h9 + q) >> 25;
+
+      // h - q * p, the carry out of the top limb is q * 2^255
+      h0 += 19 * q;
+      int carry;
+      carry = h0 >> 26; h1 += carry; h0 -= carry << 26;
+      carry = h1 >> 25; h2 += carry; h1 -= carry << 25;
+      carry = h2 >> 26; h3 += carry; h2 -= carry << 26;
+      carry = h3 >> 25; h4 += carry; h3 -= carry << 25;
+      carry = h4 >> 26; h5 += carry; h4 -= carry << 26;
+      carry = h5 >> 25; h6 += carry; h5 -= carry << 25;
+      carry = h6 >> 26; h7 += carry; h6 -= carry << 26;
+      carry = h7 >> 25; h8 += carry; h7 -= carry << 25;
+      carry = h8 >> 26; h9 += carry; h8 -= carry << 26;
+      carry = h9 >> 25; h9 -= carry << 25;
+
+      s[off] = (byte) h0;
+      s[off + 1] = (byte) (h0 >> 8);
+      s[off + 2] = (byte) (h0 >> 16);
+      s[off + 3] = (byte) ((h0 >> 24) | (h1 << 2));
+      s[off + 4] = (byte) (h1 >> 6);
+      s[off + 5] = (byte) (h1 >> 14);
+      s[off + 6] = (byte) ((h1 >> 22) | (h2 << 3));
+      s[off + 7] = (byte) (h2 >> 5);
+      s[off + 8] = (byte) (h2 >> 13);
+      s[off + 9] = (byte) ((h2 >> 21) | (h3 << 5));
+      s[off + 10] = (byte) (h3 >> 3);
+      s[off + 11] = (byte) (h3 >> 11);
+      s[off + 12] = (byte) ((h3 >> 19) | (h4 << 6));
+      s[off + 13] = (byte) (h4 >> 2);
+      s[off + 14] = (byte) (h4 >> 10);
+      s[off + 15] = (byte) (h4 >> 18);
+      s[off + 16] = (byte) h5;
+      s[off + 17] = (byte) (h5 >> 8);
+      s[off + 18] = (byte) (h5 >> 16);
+      s[off + 19] = (byte) ((h5 >> 24) | (h6 << 1));
+      s[off + 20] = (byte) (h6 >> 7);
+      s[off + 21] = (byte) (h6 >> 15);
+      s[off + 22] = (byte) ((h6 >> 23) | (h7 << 3));
+      s[off + 23] = (byte) (h7 >> 5);
+      s[off + 24] = (byte) (h7 >> 13);
+      s[off + 25] = (byte) ((h7 >> 21) | (h8 << 4));
+      s[off + 26] = (byte) (h8 >> 4);
+      s[off + 27] = (byte) (h8 >> 12);
+      s[off + 28] = (byte) ((h8 >> 20) | (h9 << 6));
+      s[off + 29] = (byte) (h9 >> 2);
+      s[off + 30] = (byte) (h9 >> 10);
+      s[off + 31] = (byte) (h9 >> 18);
+   }
+
+   // h = f * f, or 2 * f * f for a shift of 1
+   private static void square(final int[] h, final int[] f, final int shift) {
+      final int f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+      final int f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+      final int f0_2 = 2 * f0;
+      final int f1_2 = 2 * f1;
+      final int f2_2 = 2 * f2;
+      final int f3_2 = 2 * f3;
+      final int f4_2 = 2 * f4;
+      final int f5_2 = 2 * f5;
+      final int f6_2 = 2 * f6;
+      final int f7_2 = 2 * f7;
+      final int f8_2 = 2 * f8;
+      final int f9_2 = 2 * f9;
+      final int f5_19 = 19 * f5;
+      final int f6_19 = 19 * f6;
+      final int f7_19 = 19 * f7;
+      final int f8_19 = 19 * f8;
+      final int f9_19 = 19 * f9;
+      final int f7_38 = 38 * f7;
+      final int f9_38 = 38 * f9;
+      final long h0 = f0 * (long) f0 + f1_2 * (long) f9_38 + f2_2 * (long) f8_19 + f3_2 * (long) f7_38 + f4_2 * (long) f6_19 + f5_2 * (long) f5_19;
+      final long h1 = f0_2 * (long) f1 + f2_2 * (long) f9_19 + f3_2 * (long) f8_19 + f4_2 * (long) f7_19 + f5_2 * (long) f6_19;
+      final long h2 = f0_2 * (long) f2 + f1_2 * (long) f1 + f3_2 * (long) f9_38 + f4_2 * (long) f8_19 + f5_2 * (long) f7_38 + f6 * (long) f6_19;
+      final long h3 = f0_2 * (long) f3 + f1_2 * (long) f2 + f4_2 * (long) f9_19 + f5_2 * (long) f8_19 + f6_2 * (long) f7_19;
+      final long h4 = f0_2 * (long) f4 + f1_2 * (long) f3_2 + f2 * (long) f2 + f5_2 * (long) f9_38 + f6_2 * (long) f8_19 + f7_2 * (long) f7_19;
+      final long h5 = f0_2 * (long) f5 + f1_2 * (long) f4 + f2_2 * (long) f3 + f6_2 * (long) f9_19 + f7_2 * (long) f8_19;
+      final long h6 = f0_2 * (long) f6 + f1_2 * (long) f5_2 + f2_2 * (long) f4 + f3_2 * (long) f3 + f7_2 * (long) f9_38 + f8 * (long) f8_19;
+      final long h7 = f0_2 * (long) f7 + f1_2 * (long) f6 + f2_2 * (long) f5 + f3_2 * (long) f4 + f8_2 * (long) f9_19;
+      final long h8 = f0_2 * (long) f8 + f1_2 * (long) f7_2 + f2_2 * (long) f6 + f3_2 * (long) f5_2 + f4 * (long) f4 + f9_2 * (long) f9_19;
+      final long h9 = f0_2 * (long) f9 + f1_2 * (long) f8 + f2_2 * (long) f7 + f3_2 * (long) f6 + f4_2 * (long) f5;
+      reduce(h, h0 << shift, h1 << shift, h2 << shift, h3 << shift, h4 << shift, h5 << shift, h6 << shift,
+            h7 << shift, h8 << shift, h9 << shift);
+   }
+
+   /**
+    * Carry the unreduced limbs {@code h0} to {@code h9} (rounding to the
+    * nearest, so that the limbs stay signed) into {@code h}.
+    */
+   private static void reduce(final int[] h, long h0, long h1, long h2, long h3, long h4, long h5, long h6, long h7,
+         long h8, long h9) {
+      long carry;
+      carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+      carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+      carry = (h1 + (1L << 24)) >> 25; h2 += carry; h1 -= carry << 25;
+      carry = (h5 + (1L << 24)) >> 25; h6 += carry; h5 -= carry << 25;
+      carry = (h2 + (1L << 25)) >> 26; h3 += carry; h2 -= carry << 26;
+      carry = (h6 + (1L << 25)) >> 26; h7 += carry; h6 -= carry << 26;
+      carry = (h3 + (1L << 24)) >> 25; h4 += carry; h3 -= carry << 25;
+      carry = (h7 + (1L << 24)) >> 25; h8 += carry; h7 -= carry << 25;
+      carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+      carry = (h8 + (1L << 25)) >> 26; h9 += carry; h8 -= carry << 26;
+      carry = (h9 + (1L << 24)) >> 25; h0 += carry * 19; h9 -= carry << 25;
+      carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+      h[0] = (int) h0;
+      h[1] = (int) h1;
+      h[2] = (int) h2;
+      h[3] = (int) h3;
+      h[4] = (int) h4;
+      h[5] = (int) h5;
+      h[6] = (int) h6;
+      h[7] = (int) h7;
+      h[8] = (int) h8;
+      h[9] = (int) h9;
+   }
+
+   private static long load3(final byte[] s, final int off) {
+      return (s[off] & 0xff) | ((s[off + 1] & 0xff) << 8) | ((s[off + 2] & 0xff) << 16);
+   }
+
+   private static long load4(final byte[] s, final int off) {
+      return (s[off] & 0xffL) | ((s[off + 1] & 0xff) << 8) | ((s[off + 2] & 0xff) << 16) | ((s[off + 3] & 0xffL) << 24);
+   }
+
+   private Field25519() {
+      throw new AssertionError();
+   }
+}
@@ -27,149 +27,236 @@
 
 package woodlouse.crypto.jnacl.impl;
 
+/**
+ * Poly1305 with the accumulator and the key {@code r} in five 26-bit limbs
+ * (as in poly1305-donna-32), so a 16-byte block takes 25 limb products in
+ * longs. Besides the one-shot {@link #crypto_onetimeauth} there is an
+ * incremental form: {@link #init}, any number of {@link #update}s and
+ * {@link #finish}, which process the message without allocating.
+ */
 final class Poly1305 {
-   private static final int[] minusp = { 5, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 252 };
-
-   static int crypto_onetimeauth_verify(byte[] h, int hoffset, byte[] inv, int invoffset, long inlen, byte[] k) {
-      byte[] correct = new byte[16];
-
-      crypto_onetimeauth(correct, 0, inv, invoffset, inlen, k);
-      return Verify_16.crypto_verify(h, hoffset, correct);
+   private static final int MASK26 = 0x3ffffff;
+
+   // the clamped key r, and 5 r for the reduction modulo 2^130 - 5
+   private int r0, r1, r2, r3, r4;
+   private int s1, s2, s3, s4;
+
+   // the accumulator
+   private int h0, h1, h2, h3, h4;
+
+   // the key s added at the end
+   private int pad0, pad1, pad2, pad3;
+
+   // the bytes of an incomplete block
+   private final byte[] buffer = new byte[16];
+   private int leftover;
+
+   /**
+    * Start a new MAC with the 32-byte one-time key {@code k} at
+    * {@code koffset}. The key is copied, so it may be overwritten by the
+    * output.
+    */
+   void init(byte[] k, int koffset) {
+      r0 = load32(k, koffset) & 0x3ffffff;
+      r1 = (load32(k, koffset + 3) >>> 2) & 0x3ffff03;
+      r2 = (load32(k, koffset + 6) >>> 4) & 0x3ffc0ff;
+      r3 = (load32(k, koffset + 9) >>> 6) & 0x3f03fff;
+      r4 = (load32(k, koffset + 12) >>> 8) & 0x00fffff;
+      s1 = r1 * 5;
+      s2 = r2 * 5;
+      s3 = r3 * 5;
+      s4 = r4 * 5;
+
+      h0 = 0;
+      h1 = 0;
+      h2 = 0;
+      h3 = 0;
+      h4 = 0;
+
+      pad0 = load32(k, koffset + 16);
+      pad1 = load32(k, koffset + 20);
+      pad2 = load32(k, koffset + 24);
+      pad3 = load32(k, koffset + 28);
+
+      leftover = 0;
    }
 
-   private static void add(int[] h, int[] c) {
-      int u = 0;
-      for (int j = 0; j < 17; ++j) {
-         u += h[j] + c[j];
-         h[j] = u & 255;
-         u >>>= 8;
-      }
-   }
-
-   private static void squeeze(int[] h) {
-      int u = 0;
-
-      for (int j = 0; j < 16; ++j) {
-         u += h[j];
-         h[j] = u & 255;
-         u >>>= 8;
-      }
-
-      u += h[16];
-      h[16] = u & 3;
-      u = 5 * (u >>> 2);
-
-      for (int j = 0; j < 16; ++j) {
-         u += h[j];
-         h[j] = u & 255;
-         u >>>= 8;
+   /**
+    * Add {@code inlen} bytes of {@code inv} at {@code invoffset} to the
+    * message.
+    */
+   void update(byte[] inv, int invoffset, int inlen) {
+      if (leftover > 0) {
+         final int want = Math.min(16 - leftover, inlen);
+         System.arraycopy(inv, invoffset, buffer, leftover, want);
+         leftover += want;
+         invoffset += want;
+         inlen -= want;
+         if (leftover < 16) {
+            return;
+         }
+         blocks(buffer, 0, 16, 1 << 24);
+         leftover = 0;
       }
 
-      u += h[16];
-      h[16] = u;
-   }
-
-   private static void freeze(int[] h) {
-      int[] horig = new int[17];
-
-      for (int j = 0; j < 17; ++j) {
-         horig[j] = h[j];
+      final int full = inlen & ~15;
+      if (full > 0) {
+         blocks(inv, invoffset, full, 1 << 24);
+         invoffset += full;
+         inlen -= full;
       }
 
-      add(h, minusp);
-
-      int negative = (int) (-(h[16] >>> 7));
-
-      for (int j = 0; j < 17; ++j) {
-         h[j] ^= negative & (horig[j] ^ h[j]);
+      if (inlen > 0) {
+         System.arraycopy(inv, invoffset, buffer, 0, inlen);
+         leftover = inlen;
       }
    }
 
-   private static void mulmod(int[] h, int[] r) {
-      int[] hr = new int[17];
-
-      for (int i = 0; i < 17; ++i) {
-         int u = 0;
-
-         for (int j = 0; j <= i; ++j) {
-            u += h[j] * r[i - j];
-         }
-
-         for (int j = i + 1; j < 17; ++j) {
-            u += 320 * h[j] * r[i + 17 - j];
+   /**
+    * Write the 16-byte MAC of the message to {@code outv} at
+    * {@code outvoffset}. The key is cleared, another MAC needs a new
+    * {@link #init}.
+    */
+   void finish(byte[] outv, int outvoffset) {
+      // the last, incomplete block is padded with 1 (in place of the 2^128 bit)
+      if (leftover > 0) {
+         buffer[leftover] = 1;
+         for (int i = leftover + 1; i < 16; ++i) {
+            buffer[i] = 0;
          }
-
-         hr[i] = u;
-      }
-
-      for (int i = 0; i < 17; ++i) {
-         h[i] = hr[i];
+         blocks(buffer, 0, 16, 0);
       }
 
-      squeeze(h);
+      // carry h fully
+      int c;
+      c = h1 >>> 26; h1 &= MASK26; h2 += c;
+      c = h2 >>> 26; h2 &= MASK26; h3 += c;
+      c = h3 >>> 26; h3 &= MASK26; h4 += c;
+      c = h4 >>> 26; h4 &= MASK26; h0 += c * 5;
+      c = h0 >>> 26; h0 &= MASK26; h1 += c;
+
+      // g = h + 5 - 2^130, which replaces h if it is not negative
+      int g0 = h0 + 5;
+      c = g0 >>> 26; g0 &= MASK26;
+      int g1 = h1 + c;
+      c = g1 >>> 26; g1 &= MASK26;
+      int g2 = h2 + c;
+      c = g2 >>> 26; g2 &= MASK26;
+      int g3 = h3 + c;
+      c = g3 >>> 26; g3 &= MASK26;
+      int g4 = h4 + c - (1 << 26);
+
+      int mask = (g4 >>> 31) - 1;
+      g0 &= mask;
+      g1 &= mask;
+      g2 &= mask;
+      g3 &= mask;
+      g4 &= mask;
+      mask = ~mask;
+      h0 = (h0 & mask) | g0;
+      h1 = (h1 & mask) | g1;
+      h2 = (h2 & mask) | g2;
+      h3 = (h3 & mask) | g3;
+      h4 = (h4 & mask) | g4;
+
+      // h mod 2^128 in 32-bit words, plus s
+      final int w0 = h0 | (h1 << 26);
+      final int w1 = (h1 >>> 6) | (h2 << 20);
+      final int w2 = (h2 >>> 12) | (h3 << 14);
+      final int w3 = (h3 >>> 18) | (h4 << 8);
+      long f = (w0 & 0xffffffffL) + (pad0 & 0xffffffffL);
+      store32(outv, outvoffset, (int) f);
+      f = (w1 & 0xffffffffL) + (pad1 & 0xffffffffL) + (f >>> 32);
+      store32(outv, outvoffset + 4, (int) f);
+      f = (w2 & 0xffffffffL) + (pad2 & 0xffffffffL) + (f >>> 32);
+      store32(outv, outvoffset + 8, (int) f);
+      f = (w3 & 0xffffffffL) + (pad3 & 0xffffffffL) + (f >>> 32);
+      store32(outv, outvoffset + 12, (int) f);
+
+      clear();
    }
 
-   static int crypto_onetimeauth(byte[] outv, int outvoffset, byte[] inv, int invoffset, long inlen, byte[] k) {
-      int j;
-      int[] r = new int[17];
-      int[] h = new int[17];
-      int[] c = new int[17];
-
-      r[0] = k[0] & 0xFF;
-      r[1] = k[1] & 0xFF;
-      r[2] = k[2] & 0xFF;
-      r[3] = k[3] & 15;
-      r[4] = k[4] & 252;
-      r[5] = k[5] & 0xFF;
-      r[6] = k[6] & 0xFF;
-      r[7] = k[7] & 15;
-      r[8] = k[8] & 252;
-      r[9] = k[9] & 0xFF;
-      r[10] = k[10] & 0xFF;
-      r[11] = k[11] & 15;
-      r[12] = k[12] & 252;
-      r[13] = k[13] & 0xFF;
-      r[14] = k[14] & 0xFF;
-      r[15] = k[15] & 15;
-      r[16] = 0;
-
-      for (j = 0; j < 17; ++j) {
-         h[j] = 0;
+   private void clear() {
+      r0 = r1 = r2 = r3 = r4 = 0;
+      s1 = s2 = s3 = s4 = 0;
+      h0 = h1 = h2 = h3 = h4 = 0;
+      pad0 = pad1 = pad2 = pad3 = 0;
+      for (int i = 0; i < 16; ++i) {
+         buffer[i] = 0;
       }
+      leftover = 0;
+   }
 
-      while (inlen > 0) {
-         for (j = 0; j < 17; ++j) {
-            c[j] = 0;
-         }
-
-         for (j = 0; (j < 16) && (j < inlen); ++j) {
-            c[j] = inv[invoffset + j] & 0xff;
-         }
-
-         c[j] = 1;
-         invoffset += j;
-         inlen -= j;
-         add(h, c);
-         mulmod(h, r);
+   /**
+    * h = (h + m) r for each of the 16-byte blocks m in {@code len} bytes at
+    * {@code off}, where {@code hibit} is the 2^128 bit of a full block.
+    */
+   private void blocks(byte[] m, int off, int len, int hibit) {
+      final long r0 = this.r0, r1 = this.r1, r2 = this.r2, r3 = this.r3, r4 = this.r4;
+      final long s1 = this.s1, s2 = this.s2, s3 = this.s3, s4 = this.s4;
+      int h0 = this.h0, h1 = this.h1, h2 = this.h2, h3 = this.h3, h4 = this.h4;
+
+      for (final int end = off + len; off < end; off += 16) {
+         final int t0 = load32(m, off);
+         final int t1 = load32(m, off + 4);
+         final int t2 = load32(m, off + 8);
+         final int t3 = load32(m, off + 12);
+         h0 += t0 & MASK26;
+         h1 += ((t0 >>> 26) | (t1 << 6)) & MASK26;
+         h2 += ((t1 >>> 20) | (t2 << 12)) & MASK26;
+         h3 += ((t2 >>> 14) | (t3 << 18)) & MASK26;
+         h4 += (t3 >>> 8) | hibit;
+
+         final long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+         long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+         long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+         long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+         long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+         h0 = (int) d0 & MASK26;
+         d1 += d0 >>> 26;
+         h1 = (int) d1 & MASK26;
+         d2 += d1 >>> 26;
+         h2 = (int) d2 & MASK26;
+         d3 += d2 >>> 26;
+         h3 = (int) d3 & MASK26;
+         d4 += d3 >>> 26;
+         h4 = (int) d4 & MASK26;
+         h0 += (int) (d4 >>> 26) * 5;
+         h1 += h0 >>> 26;
+         h0 &= MASK26;
       }
 
-      freeze(h);
-
-      for (j = 0; j < 16; ++j) {
-         c[j] = k[j + 16] & 0xFF;
-      }
+      this.h0 = h0;
+      this.h1 = h1;
+      this.h2 = h2;
+      this.h3 = h3;
+      this.h4 = h4;
+   }
 
-      c[16] = 0;
-      add(h, c);
+   static int crypto_onetimeauth_verify(byte[] h, int hoffset, byte[] inv, int invoffset, long inlen, byte[] k) {
+      byte[] correct = new byte[16];
 
-      for (j = 0; j < 16; ++j) {
-         outv[j + outvoffset] = (byte) h[j];
-      }
+      crypto_onetimeauth(correct, 0, inv, invoffset, inlen, k);
+      return Verify_16.crypto_verify(h, hoffset, correct);
+   }
 
+   static int crypto_onetimeauth(byte[] outv, int outvoffset, byte[] inv, int invoffset, long inlen, byte[] k) {
+      final Poly1305 poly = new Poly1305();
+      poly.init(k, 0);
+      poly.update(inv, invoffset, (int) inlen);
+      poly.finish(outv, outvoffset);
       return 0;
    }
 
-   private Poly1305() {
-      throw new AssertionError();
+   private static int load32(byte[] b, int off) {
+      return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | (b[off + 3] << 24);
+   }
+
+   private static void store32(byte[] b, int off, int v) {
+      b[off] = (byte) v;
+      b[off + 1] = (byte) (v >>> 8);
+      b[off + 2] = (byte) (v >>> 16);
+      b[off + 3] = (byte) (v >>> 24);
    }
 }
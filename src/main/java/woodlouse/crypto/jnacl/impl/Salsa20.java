@@ -27,213 +27,318 @@
 
 package woodlouse.crypto.jnacl.impl;
 
+/**
+ * The Salsa20 stream cipher with a 64-bit nonce and a 64-bit block counter.
+ * The input block is loaded into words once per message. The keystream is
+ * generated four blocks at a time, as two pairs of blocks whose rounds are
+ * interleaved (they are independent, and two blocks still fit the
+ * registers), and combined with the message a word at a time, at any
+ * offsets into the input and output arrays.
+ */
 final class Salsa20 {
    private static final int ROUNDS = 20;
 
-   private static long rotate(int u, int c) {
-      return (u << c) | (u >>> (32 - c));
-   }
+   // "expand 32-byte k"
+   private static final int SIGMA0 = 0x61707865, SIGMA1 = 0x3320646e, SIGMA2 = 0x79622d32, SIGMA3 = 0x6b206574;
 
-   private static int load_littleendian(byte[] x, int offset) {
-      return ((int) (x[offset]) & 0xff) | ((((int) (x[offset + 1]) & 0xff)) << 8) | ((((int) (x[offset + 2]) & 0xff)) << 16)
-            | ((((int) (x[offset + 3]) & 0xff)) << 24);
-   }
+   // bytes of a block, and of the four blocks generated at a time
+   private static final int BLOCK_BYTES = 64;
+   private static final int WIDE_BYTES = 4 * BLOCK_BYTES;
 
-   private static void store_littleendian(byte[] x, int offset, int u) {
-      x[offset] = (byte) u;
-      u >>>= 8;
-      x[offset + 1] = (byte) u;
-      u >>>= 8;
-      x[offset + 2] = (byte) u;
-      u >>>= 8;
-      x[offset + 3] = (byte) u;
+   static int crypto_stream(byte[] c, int clen, byte[] n, int noffset, byte[] k) {
+      return crypto_stream(c, 0, clen, n, noffset, k);
    }
 
-   private static int crypto_core(byte[] outv, byte[] inv, byte[] k, byte[] c) {
-      int x0, x1, x2, x3, x4, x5, x6, x7, x8, x9, x10, x11, x12, x13, x14, x15;
-      int j0, j1, j2, j3, j4, j5, j6, j7, j8, j9, j10, j11, j12, j13, j14, j15;
-
-      j0 = x0 = load_littleendian(c, 0);
-      j1 = x1 = load_littleendian(k, 0);
-      j2 = x2 = load_littleendian(k, 4);
-      j3 = x3 = load_littleendian(k, 8);
-      j4 = x4 = load_littleendian(k, 12);
-      j5 = x5 = load_littleendian(c, 4);
-      j6 = x6 = load_littleendian(inv, 0);
-      j7 = x7 = load_littleendian(inv, 4);
-      j8 = x8 = load_littleendian(inv, 8);
-      j9 = x9 = load_littleendian(inv, 12);
-      j10 = x10 = load_littleendian(c, 8);
-      j11 = x11 = load_littleendian(k, 16);
-      j12 = x12 = load_littleendian(k, 20);
-      j13 = x13 = load_littleendian(k, 24);
-      j14 = x14 = load_littleendian(k, 28);
-      j15 = x15 = load_littleendian(c, 12);
-
-      for (int i = ROUNDS; i > 0; i -= 2) {
-         x4 ^= rotate(x0 + x12, 7);
-         x8 ^= rotate(x4 + x0, 9);
-         x12 ^= rotate(x8 + x4, 13);
-         x0 ^= rotate(x12 + x8, 18);
-         x9 ^= rotate(x5 + x1, 7);
-         x13 ^= rotate(x9 + x5, 9);
-         x1 ^= rotate(x13 + x9, 13);
-         x5 ^= rotate(x1 + x13, 18);
-         x14 ^= rotate(x10 + x6, 7);
-         x2 ^= rotate(x14 + x10, 9);
-         x6 ^= rotate(x2 + x14, 13);
-         x10 ^= rotate(x6 + x2, 18);
-         x3 ^= rotate(x15 + x11, 7);
-         x7 ^= rotate(x3 + x15, 9);
-         x11 ^= rotate(x7 + x3, 13);
-         x15 ^= rotate(x11 + x7, 18);
-         x1 ^= rotate(x0 + x3, 7);
-         x2 ^= rotate(x1 + x0, 9);
-         x3 ^= rotate(x2 + x1, 13);
-         x0 ^= rotate(x3 + x2, 18);
-         x6 ^= rotate(x5 + x4, 7);
-         x7 ^= rotate(x6 + x5, 9);
-         x4 ^= rotate(x7 + x6, 13);
-         x5 ^= rotate(x4 + x7, 18);
-         x11 ^= rotate(x10 + x9, 7);
-         x8 ^= rotate(x11 + x10, 9);
-         x9 ^= rotate(x8 + x11, 13);
-         x10 ^= rotate(x9 + x8, 18);
-         x12 ^= rotate(x15 + x14, 7);
-         x13 ^= rotate(x12 + x15, 9);
-         x14 ^= rotate(x13 + x12, 13);
-         x15 ^= rotate(x14 + x13, 18);
-      }
-
-      x0 += j0;
-      x1 += j1;
-      x2 += j2;
-      x3 += j3;
-      x4 += j4;
-      x5 += j5;
-      x6 += j6;
-      x7 += j7;
-      x8 += j8;
-      x9 += j9;
-      x10 += j10;
-      x11 += j11;
-      x12 += j12;
-      x13 += j13;
-      x14 += j14;
-      x15 += j15;
-
-      store_littleendian(outv, 0, x0);
-      store_littleendian(outv, 4, x1);
-      store_littleendian(outv, 8, x2);
-      store_littleendian(outv, 12, x3);
-      store_littleendian(outv, 16, x4);
-      store_littleendian(outv, 20, x5);
-      store_littleendian(outv, 24, x6);
-      store_littleendian(outv, 28, x7);
-      store_littleendian(outv, 32, x8);
-      store_littleendian(outv, 36, x9);
-      store_littleendian(outv, 40, x10);
-      store_littleendian(outv, 44, x11);
-      store_littleendian(outv, 48, x12);
-      store_littleendian(outv, 52, x13);
-      store_littleendian(outv, 56, x14);
-      store_littleendian(outv, 60, x15);
-
+   /**
+    * Write {@code clen} bytes of keystream to {@code c} at {@code coffset}.
+    */
+   static int crypto_stream(byte[] c, int coffset, int clen, byte[] n, int noffset, byte[] k) {
+      stream(c, coffset, null, 0, clen, n, noffset, 0, k);
       return 0;
    }
 
-   static int crypto_stream(byte[] c, int clen, byte[] n, int noffset, byte[] k) {
-      byte[] inv = new byte[16];
-      byte[] block = new byte[64];
+   static int crypto_stream_xor(byte[] c, byte[] m, int mlen, byte[] n, int noffset, byte[] k) {
+      return crypto_stream_xor(c, 0, m, 0, mlen, n, noffset, k);
+   }
 
-      int coffset = 0;
+   /**
+    * Write the {@code mlen} bytes of {@code m} at {@code moffset}, XORed with
+    * the keystream, to {@code c} at {@code coffset}. The ranges may be the
+    * same (but must not overlap otherwise).
+    */
+   static int crypto_stream_xor(byte[] c, int coffset, byte[] m, int moffset, int mlen, byte[] n, int noffset, byte[] k) {
+      stream(c, coffset, m, moffset, mlen, n, noffset, 0, k);
+      return 0;
+   }
 
-      if (clen == 0) {
-         return 0;
-      }
+   /**
+    * Like {@link #crypto_stream_xor(byte[], int, byte[], int, int, byte[], int, byte[])},
+    * but with the keystream starting at block {@code ic} instead of block 0.
+    * The output may also precede the input in the same array.
+    */
+   static int crypto_stream_xor_ic(byte[] c, int coffset, byte[] m, int moffset, int mlen, byte[] n, int noffset, long ic,
+         byte[] k) {
+      stream(c, coffset, m, moffset, mlen, n, noffset, ic, k);
+      return 0;
+   }
 
-      for (int i = 0; i < 8; ++i) {
-         inv[i] = n[noffset + i];
+   // the keystream (m == null) or m XOR the keystream, from block counter on
+   private static void stream(byte[] c, int coffset, byte[] m, int moffset, int len, byte[] n, int noffset, long counter,
+         byte[] k) {
+      if (len == 0) {
+         return;
       }
 
-      for (int i = 8; i < 16; ++i) {
-         inv[i] = 0;
+      // the input block, but for the counter (words 8 and 9)
+      final int[] j = new int[16];
+      j[0] = SIGMA0;
+      j[1] = load_littleendian(k, 0);
+      j[2] = load_littleendian(k, 4);
+      j[3] = load_littleendian(k, 8);
+      j[4] = load_littleendian(k, 12);
+      j[5] = SIGMA1;
+      j[6] = load_littleendian(n, noffset);
+      j[7] = load_littleendian(n, noffset + 4);
+      j[10] = SIGMA2;
+      j[11] = load_littleendian(k, 16);
+      j[12] = load_littleendian(k, 20);
+      j[13] = load_littleendian(k, 24);
+      j[14] = load_littleendian(k, 28);
+      j[15] = SIGMA3;
+
+      final int[] ks = new int[WIDE_BYTES / 4];
+
+      while (len >= WIDE_BYTES) {
+         core2(j, counter, ks, 0);
+         core2(j, counter + 2, ks, 32);
+         xor(c, coffset, m, moffset, ks, WIDE_BYTES);
+         counter += 4;
+         len -= WIDE_BYTES;
+         coffset += WIDE_BYTES;
+         moffset += WIDE_BYTES;
       }
 
-      while (clen >= 64) {
-         crypto_core(c, inv, k, XSalsa20.sigma);
-
-         int u = 1;
-
-         for (int i = 8; i < 16; ++i) {
-            u += inv[i] & 0xff;
-            inv[i] = (byte) u;
-            u >>>= 8;
+      // the remaining (at most four) blocks one at a time
+      if (len > 0) {
+         final int blocks = (len + BLOCK_BYTES - 1) / BLOCK_BYTES;
+         for (int b = 0; b < blocks; ++b) {
+            core(j, counter + b, ks, 16 * b);
          }
-
-         clen -= 64;
-         coffset += 64;
+         xor(c, coffset, m, moffset, ks, len);
       }
+   }
 
-      if (clen != 0) {
-         crypto_core(block, inv, k, XSalsa20.sigma);
-
-         for (int i = 0; i < clen; ++i) {
-            c[coffset + i] = block[i];
+   // c = m XOR ks (or c = ks if there is no m) for len bytes
+   private static void xor(byte[] c, int coffset, byte[] m, int moffset, int[] ks, int len) {
+      final int words = len >>> 2;
+      if (m == null) {
+         for (int i = 0; i < words; ++i, coffset += 4) {
+            store_littleendian(c, coffset, ks[i]);
+         }
+      } else {
+         for (int i = 0; i < words; ++i, coffset += 4, moffset += 4) {
+            final int u = ks[i];
+            c[coffset] = (byte) (m[moffset] ^ u);
+            c[coffset + 1] = (byte) (m[moffset + 1] ^ (u >>> 8));
+            c[coffset + 2] = (byte) (m[moffset + 2] ^ (u >>> 16));
+            c[coffset + 3] = (byte) (m[moffset + 3] ^ (u >>> 24));
          }
       }
 
-      return 0;
-   }
-
-   static int crypto_stream_xor(byte[] c, byte[] m, int mlen, byte[] n, int noffset, byte[] k) {
-      byte[] inv = new byte[16];
-      byte[] block = new byte[64];
-
-      int coffset = 0;
-      int moffset = 0;
-
-      if (mlen == 0) {
-         return 0;
+      // the bytes of the last, incomplete word
+      int u = (words < ks.length) ? ks[words] : 0;
+      for (int i = words << 2; i < len; ++i, ++coffset, ++moffset, u >>>= 8) {
+         c[coffset] = (byte) ((m == null) ? u : m[moffset] ^ u);
       }
+   }
 
-      for (int i = 0; i < 8; ++i) {
-         inv[i] = n[noffset + i];
-      }
+   // one block of keystream words for the given counter, to ks at ksoffset
+   private static void core(int[] j, long counter, int[] ks, int ksoffset) {
+      final int ctr0 = (int) counter, ctr1 = (int) (counter >>> 32);
+      int x0 = j[0], x1 = j[1], x2 = j[2], x3 = j[3];
+      int x4 = j[4], x5 = j[5], x6 = j[6], x7 = j[7];
+      int x8 = ctr0, x9 = ctr1, x10 = j[10], x11 = j[11];
+      int x12 = j[12], x13 = j[13], x14 = j[14], x15 = j[15];
 
-      for (int i = 8; i < 16; ++i) {
-         inv[i] = 0;
+      for (int i = ROUNDS; i > 0; i -= 2) {
+         x4 ^= Integer.rotateLeft(x0 + x12, 7);
+         x8 ^= Integer.rotateLeft(x4 + x0, 9);
+         x12 ^= Integer.rotateLeft(x8 + x4, 13);
+         x0 ^= Integer.rotateLeft(x12 + x8, 18);
+         x9 ^= Integer.rotateLeft(x5 + x1, 7);
+         x13 ^= Integer.rotateLeft(x9 + x5, 9);
+         x1 ^= Integer.rotateLeft(x13 + x9, 13);
+         x5 ^= Integer.rotateLeft(x1 + x13, 18);
+         x14 ^= Integer.rotateLeft(x10 + x6, 7);
+         x2 ^= Integer.rotateLeft(x14 + x10, 9);
+         x6 ^= Integer.rotateLeft(x2 + x14, 13);
+         x10 ^= Integer.rotateLeft(x6 + x2, 18);
+         x3 ^= Integer.rotateLeft(x15 + x11, 7);
+         x7 ^= Integer.rotateLeft(x3 + x15, 9);
+         x11 ^= Integer.rotateLeft(x7 + x3, 13);
+         x15 ^= Integer.rotateLeft(x11 + x7, 18);
+         x1 ^= Integer.rotateLeft(x0 + x3, 7);
+         x2 ^= Integer.rotateLeft(x1 + x0, 9);
+         x3 ^= Integer.rotateLeft(x2 + x1, 13);
+         x0 ^= Integer.rotateLeft(x3 + x2, 18);
+         x6 ^= Integer.rotateLeft(x5 + x4, 7);
+         x7 ^= Integer.rotateLeft(x6 + x5, 9);
+         x4 ^= Integer.rotateLeft(x7 + x6, 13);
+         x5 ^= Integer.rotateLeft(x4 + x7, 18);
+         x11 ^= Integer.rotateLeft(x10 + x9, 7);
+         x8 ^= Integer.rotateLeft(x11 + x10, 9);
+         x9 ^= Integer.rotateLeft(x8 + x11, 13);
+         x10 ^= Integer.rotateLeft(x9 + x8, 18);
+         x12 ^= Integer.rotateLeft(x15 + x14, 7);
+         x13 ^= Integer.rotateLeft(x12 + x15, 9);
+         x14 ^= Integer.rotateLeft(x13 + x12, 13);
+         x15 ^= Integer.rotateLeft(x14 + x13, 18);
       }
 
-      while (mlen >= 64) {
-         crypto_core(block, inv, k, XSalsa20.sigma);
-
-         for (int i = 0; i < 64; ++i) {
-            c[coffset + i] = (byte) (m[moffset + i] ^ block[i]);
-         }
-
-         int u = 1;
+      ks[ksoffset] = x0 + j[0];
+      ks[ksoffset + 1] = x1 + j[1];
+      ks[ksoffset + 2] = x2 + j[2];
+      ks[ksoffset + 3] = x3 + j[3];
+      ks[ksoffset + 4] = x4 + j[4];
+      ks[ksoffset + 5] = x5 + j[5];
+      ks[ksoffset + 6] = x6 + j[6];
+      ks[ksoffset + 7] = x7 + j[7];
+      ks[ksoffset + 8] = x8 + ctr0;
+      ks[ksoffset + 9] = x9 + ctr1;
+      ks[ksoffset + 10] = x10 + j[10];
+      ks[ksoffset + 11] = x11 + j[11];
+      ks[ksoffset + 12] = x12 + j[12];
+      ks[ksoffset + 13] = x13 + j[13];
+      ks[ksoffset + 14] = x14 + j[14];
+      ks[ksoffset + 15] = x15 + j[15];
+   }
 
-         for (int i = 8; i < 16; ++i) {
-            u += inv[i] & 0xff;
-            inv[i] = (byte) u;
-            u >>>= 8;
-         }
+   // two blocks of keystream words, for counter and counter + 1, to ks at ksoffset
+   private static void core2(int[] j, long counter, int[] ks, int ksoffset) {
+      final long counter1 = counter + 1;
+      int x0 = j[0], x1 = j[1], x2 = j[2], x3 = j[3];
+      int x4 = j[4], x5 = j[5], x6 = j[6], x7 = j[7];
+      int x8 = (int) counter, x9 = (int) (counter >>> 32), x10 = j[10], x11 = j[11];
+      int x12 = j[12], x13 = j[13], x14 = j[14], x15 = j[15];
+      int y0 = j[0], y1 = j[1], y2 = j[2], y3 = j[3];
+      int y4 = j[4], y5 = j[5], y6 = j[6], y7 = j[7];
+      int y8 = (int) counter1, y9 = (int) (counter1 >>> 32), y10 = j[10], y11 = j[11];
+      int y12 = j[12], y13 = j[13], y14 = j[14], y15 = j[15];
 
-         mlen -= 64;
-         coffset += 64;
-         moffset += 64;
+      for (int i = ROUNDS; i > 0; i -= 2) {
+         x4 ^= Integer.rotateLeft(x0 + x12, 7);
+         y4 ^= Integer.rotateLeft(y0 + y12, 7);
+         x8 ^= Integer.rotateLeft(x4 + x0, 9);
+         y8 ^= Integer.rotateLeft(y4 + y0, 9);
+         x12 ^= Integer.rotateLeft(x8 + x4, 13);
+         y12 ^= Integer.rotateLeft(y8 + y4, 13);
+         x0 ^= Integer.rotateLeft(x12 + x8, 18);
+         y0 ^= Integer.rotateLeft(y12 + y8, 18);
+         x9 ^= Integer.rotateLeft(x5 + x1, 7);
+         y9 ^= Integer.rotateLeft(y5 + y1, 7);
+         x13 ^= Integer.rotateLeft(x9 + x5, 9);
+         y13 ^= Integer.rotateLeft(y9 + y5, 9);
+         x1 ^= Integer.rotateLeft(x13 + x9, 13);
+         y1 ^= Integer.rotateLeft(y13 + y9, 13);
+         x5 ^= Integer.rotateLeft(x1 + x13, 18);
+         y5 ^= Integer.rotateLeft(y1 + y13, 18);
+         x14 ^= Integer.rotateLeft(x10 + x6, 7);
+         y14 ^= Integer.rotateLeft(y10 + y6, 7);
+         x2 ^= Integer.rotateLeft(x14 + x10, 9);
+         y2 ^= Integer.rotateLeft(y14 + y10, 9);
+         x6 ^= Integer.rotateLeft(x2 + x14, 13);
+         y6 ^= Integer.rotateLeft(y2 + y14, 13);
+         x10 ^= Integer.rotateLeft(x6 + x2, 18);
+         y10 ^= Integer.rotateLeft(y6 + y2, 18);
+         x3 ^= Integer.rotateLeft(x15 + x11, 7);
+         y3 ^= Integer.rotateLeft(y15 + y11, 7);
+         x7 ^= Integer.rotateLeft(x3 + x15, 9);
+         y7 ^= Integer.rotateLeft(y3 + y15, 9);
+         x11 ^= Integer.rotateLeft(x7 + x3, 13);
+         y11 ^= Integer.rotateLeft(y7 + y3, 13);
+         x15 ^= Integer.rotateLeft(x11 + x7, 18);
+         y15 ^= Integer.rotateLeft(y11 + y7, 18);
+         x1 ^= Integer.rotateLeft(x0 + x3, 7);
+         y1 ^= Integer.rotateLeft(y0 + y3, 7);
+         x2 ^= Integer.rotateLeft(x1 + x0, 9);
+         y2 ^= Integer.rotateLeft(y1 + y0, 9);
+         x3 ^= Integer.rotateLeft(x2 + x1, 13);
+         y3 ^= Integer.rotateLeft(y2 + y1, 13);
+         x0 ^= Integer.rotateLeft(x3 + x2, 18);
+         y0 ^= Integer.rotateLeft(y3 + y2, 18);
+         x6 ^= Integer.rotateLeft(x5 + x4, 7);
+         y6 ^= Integer.rotateLeft(y5 + y4, 7);
+         x7 ^= Integer.rotateLeft(x6 + x5, 9);
+         y7 ^= Integer.rotateLeft(y6 + y5, 9);
+         x4 ^= Integer.rotateLeft(x7 + x6, 13);
+         y4 ^= Integer.rotateLeft(y7 + y6, 13);
+         x5 ^= Integer.rotateLeft(x4 + x7, 18);
+         y5 ^= Integer.rotateLeft(y4 + y7, 18);
+         x11 ^= Integer.rotateLeft(x10 + x9, 7);
+         y11 ^= Integer.rotateLeft(y10 + y9, 7);
+         x8 ^= Integer.rotateLeft(x11 + x10, 9);
+         y8 ^= Integer.rotateLeft(y11 + y10, 9);
+         x9 ^= Integer.rotateLeft(x8 + x11, 13);
+         y9 ^= Integer.rotateLeft(y8 + y11, 13);
+         x10 ^= Integer.rotateLeft(x9 + x8, 18);
+         y10 ^= Integer.rotateLeft(y9 + y8, 18);
+         x12 ^= Integer.rotateLeft(x15 + x14, 7);
+         y12 ^= Integer.rotateLeft(y15 + y14, 7);
+         x13 ^= Integer.rotateLeft(x12 + x15, 9);
+         y13 ^= Integer.rotateLeft(y12 + y15, 9);
+         x14 ^= Integer.rotateLeft(x13 + x12, 13);
+         y14 ^= Integer.rotateLeft(y13 + y12, 13);
+         x15 ^= Integer.rotateLeft(x14 + x13, 18);
+         y15 ^= Integer.rotateLeft(y14 + y13, 18);
       }
 
-      if (mlen != 0) {
-         crypto_core(block, inv, k, XSalsa20.sigma);
+      ks[ksoffset] = x0 + j[0];
+      ks[ksoffset + 1] = x1 + j[1];
+      ks[ksoffset + 2] = x2 + j[2];
+      ks[ksoffset + 3] = x3 + j[3];
+      ks[ksoffset + 4] = x4 + j[4];
+      ks[ksoffset + 5] = x5 + j[5];
+      ks[ksoffset + 6] = x6 + j[6];
+      ks[ksoffset + 7] = x7 + j[7];
+      ks[ksoffset + 8] = x8 + (int) counter;
+      ks[ksoffset + 9] = x9 + (int) (counter >>> 32);
+      ks[ksoffset + 10] = x10 + j[10];
+      ks[ksoffset + 11] = x11 + j[11];
+      ks[ksoffset + 12] = x12 + j[12];
+      ks[ksoffset + 13] = x13 + j[13];
+      ks[ksoffset + 14] = x14 + j[14];
+      ks[ksoffset + 15] = x15 + j[15];
+      ks[ksoffset + 16] = y0 + j[0];
+      ks[ksoffset + 17] = y1 + j[1];
+      ks[ksoffset + 18] = y2 + j[2];
+      ks[ksoffset + 19] = y3 + j[3];
+      ks[ksoffset + 20] = y4 + j[4];
+      ks[ksoffset + 21] = y5 + j[5];
+      ks[ksoffset + 22] = y6 + j[6];
+      ks[ksoffset + 23] = y7 + j[7];
+      ks[ksoffset + 24] = y8 + (int) counter1;
+      ks[ksoffset + 25] = y9 + (int) (counter1 >>> 32);
+      ks[ksoffset + 26] = y10 + j[10];
+      ks[ksoffset + 27] = y11 + j[11];
+      ks[ksoffset + 28] = y12 + j[12];
+      ks[ksoffset + 29] = y13 + j[13];
+      ks[ksoffset + 30] = y14 + j[14];
+      ks[ksoffset + 31] = y15 + j[15];
+   }
 
-         for (int i = 0; i < mlen; ++i) {
-            c[coffset + i] = (byte) (m[moffset + i] ^ block[i]);
-         }
-      }
+   private static int load_littleendian(byte[] x, int offset) {
+      return ((int) (x[offset]) & 0xff) | ((((int) (x[offset + 1]) & 0xff)) << 8) | ((((int) (x[offset + 2]) & 0xff)) << 16)
+            | ((((int) (x[offset + 3]) & 0xff)) << 24);
+   }
 
-      return 0;
+   private static void store_littleendian(byte[] x, int offset, int u) {
+      x[offset] = (byte) u;
+      u >>>= 8;
+      x[offset + 1] = (byte) u;
+      u >>>= 8;
+      x[offset + 2] = (byte) u;
+      u >>>= 8;
+      x[offset + 3] = (byte) u;
    }
 
    private Salsa20() {
@@ -31,7 +31,7 @@ final class Verify_16 {
    static int crypto_verify(byte[] x, int xoffset, byte[] y) {
       int differentbits = 0;
 
-      for (int i = 0; i < 15; i++) {
+      for (int i = 0; i < 16; i++) {
          differentbits |= ((int) (x[xoffset + i] ^ y[i])) & 0xff;
       }
 
@@ -45,6 +45,13 @@ final class XSalsa20 {
       return Salsa20.crypto_stream_xor(c, m, (int) mlen, n, 16, subkey);
    }
 
+   static int crypto_stream_xor(byte[] c, int coffset, byte[] m, int moffset, int mlen, byte[] n, byte[] k) {
+      byte[] subkey = new byte[32];
+
+      HSalsa20.crypto_core(subkey, n, k, sigma);
+      return Salsa20.crypto_stream_xor(c, coffset, m, moffset, mlen, n, 16, subkey);
+   }
+
    private XSalsa20() {
       throw new AssertionError();
    }
@@ -65,6 +65,89 @@ final class XSalsa20Poly1305 {
       return 0;
    }
 
+   /**
+    * Like {@link #crypto_secretbox}, but without the zero padding: write the
+    * 16-byte authenticator followed by the {@code mlen} bytes of ciphertext to
+    * {@code c} at {@code coffset}. The output must not overlap the input.
+    */
+   static int crypto_secretbox_easy(byte[] c, int coffset, byte[] m, int moffset, int mlen, byte[] n, byte[] k) {
+      byte[] subkey = new byte[32];
+      byte[] block0 = new byte[64];
+
+      firstBlock(block0, subkey, n, k);
+      final int head = Math.min(mlen, 32);
+      for (int i = 0; i < head; ++i) {
+         c[coffset + 16 + i] = (byte) (m[moffset + i] ^ block0[32 + i]);
+      }
+      if (mlen > head) {
+         Salsa20.crypto_stream_xor_ic(c, coffset + 16 + head, m, moffset + head, mlen - head, n, 16, 1, subkey);
+      }
+
+      Poly1305 poly = new Poly1305();
+      poly.init(block0, 0);
+      poly.update(c, coffset + 16, mlen);
+      poly.finish(c, coffset);
+
+      clear(block0);
+      clear(subkey);
+      return 0;
+   }
+
+   /**
+    * The inverse of {@link #crypto_secretbox_easy}: verify the authenticator
+    * of the {@code clen} bytes of {@code c} at {@code coffset} and write the
+    * {@code clen - 16} bytes of plaintext to {@code m} at {@code moffset}.
+    * Nothing is written unless the authenticator is valid. The output may
+    * overlap the input as long as it does not start after the ciphertext, so
+    * that a box can be opened in place.
+    */
+   static int crypto_secretbox_open_easy(byte[] m, int moffset, byte[] c, int coffset, int clen, byte[] n, byte[] k) {
+      if (clen < 16) {
+         return -1;
+      }
+
+      byte[] subkey = new byte[32];
+      byte[] block0 = new byte[64];
+      byte[] tag = new byte[16];
+      final int mlen = clen - 16;
+
+      firstBlock(block0, subkey, n, k);
+      Poly1305 poly = new Poly1305();
+      poly.init(block0, 0);
+      poly.update(c, coffset + 16, mlen);
+      poly.finish(tag, 0);
+      if (Verify_16.crypto_verify(c, coffset, tag) != 0) {
+         clear(block0);
+         clear(subkey);
+         return -1;
+      }
+
+      final int head = Math.min(mlen, 32);
+      for (int i = 0; i < head; ++i) {
+         m[moffset + i] = (byte) (c[coffset + 16 + i] ^ block0[32 + i]);
+      }
+      if (mlen > head) {
+         Salsa20.crypto_stream_xor_ic(m, moffset + head, c, coffset + 16 + head, mlen - head, n, 16, 1, subkey);
+      }
+
+      clear(block0);
+      clear(subkey);
+      return 0;
+   }
+
+   // the XSalsa20 subkey and its first keystream block (the Poly1305 key and
+   // the keystream for the first 32 message bytes)
+   private static void firstBlock(byte[] block0, byte[] subkey, byte[] n, byte[] k) {
+      HSalsa20.crypto_core(subkey, n, k, XSalsa20.sigma);
+      Salsa20.crypto_stream(block0, 0, 64, n, 16, subkey);
+   }
+
+   private static void clear(byte[] x) {
+      for (int i = 0; i < x.length; ++i) {
+         x[i] = 0;
+      }
+   }
+
    private XSalsa20Poly1305() {
       throw new AssertionError();
    }
@@ -0,0 +1,84 @@
+package bouncycastle.crypto.signers;
+
+import java.math.BigInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bouncycastle.crypto.Digest;
+import bouncycastle.crypto.digests.SHA256Digest;
+import bouncycastle.crypto.params.ECDomainParameters;
+import bouncycastle.crypto.params.ECPrivateKeyParameters;
+import bouncycastle.crypto.params.ECPublicKeyParameters;
+import bouncycastle.math.ec.ECCurve;
+import bouncycastle.util.Strings;
+import bouncycastle.util.encoders.Hex;
+
+/**
+ * The ECDSA test vectors of RFC 6979, appendix A.2.5 (curve P-256 with
+ * SHA-256), for the K values and the signatures made with them.
+ */
+public class HMacDSAKCalculatorTest
+{
+    private static final ECCurve.Fp P256 = new ECCurve.Fp(
+        new BigInteger("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFF", 16), // q
+        new BigInteger("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFC", 16), // a
+        new BigInteger("5AC635D8AA3A93E7B3EBBD55769886BC651D06B0CC53B0F63BCE3C3E27D2604B", 16)); // b
+
+    private static final ECDomainParameters DOMAIN = new ECDomainParameters(
+        P256,
+        P256.decodePoint(Hex.decode("04"
+            + "6B17D1F2E12C4247F8BCE6E563A440F277037D812DEB33A0F4A13945D898C296"
+            + "4FE342E2FE1A7F9B8EE7EB4A7C0F9E162BCE33576B315ECECBB6406837BF51F5")), // G
+        new BigInteger("FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551", 16)); // n
+
+    private static final BigInteger X = new BigInteger(
+        "C9AFA9D845BA75166B5C215767B1D6934E50C3DB36E89B127B8A622B120F6721", 16);
+
+    @Test
+    public void sample()
+    {
+        check("sample",
+            "A6E3C57DD01ABE90086538398355DD4C3B17AA873382B0F24D6129493D8AAD60",
+            "EFD48B2AACB6A8FD1140DD9CD45E81D69D2C877B56AAF991C34D0EA84EAF3716",
+            "F7CB1C942D657C41D436C7A1B6E29F65F3E900DBB9AFF4064DC4AB2F843ACDA8");
+    }
+
+    @Test
+    public void test()
+    {
+        check("test",
+            "D16B6AE827F17175E040871A1C7EC3500192C4C92677336EC2537ACAEE0008E0",
+            "F1ABB023518351CD71D881567B1EA663ED3EFCF6C5132B354F28D3B0B7D38367",
+            "019F4113742A2B14BD25926B49C649155F267E60D3814B4C0CC84250E46F0083");
+    }
+
+    private static void check(String message, String k, String r, String s)
+    {
+        byte[] hash = sha256(message);
+
+        HMacDSAKCalculator kCalculator = new HMacDSAKCalculator(new SHA256Digest());
+        kCalculator.init(DOMAIN.getN(), X, hash);
+        Assert.assertEquals("k", new BigInteger(k, 16), kCalculator.nextK());
+
+        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+        signer.init(true, new ECPrivateKeyParameters(X, DOMAIN));
+        BigInteger[] rs = signer.generateSignature(hash);
+        Assert.assertEquals("r", new BigInteger(r, 16), rs[0]);
+        Assert.assertEquals("s", new BigInteger(s, 16), rs[1]);
+
+        ECDSASigner verifier = new ECDSASigner();
+        verifier.init(false, new ECPublicKeyParameters(DOMAIN.getG().multiply(X), DOMAIN));
+        Assert.assertTrue(verifier.verifySignature(hash, rs[0], rs[1]));
+    }
+
+    private static byte[] sha256(String message)
+    {
+        Digest digest = new SHA256Digest();
+        byte[] in = Strings.toByteArray(message);
+        digest.update(in, 0, in.length);
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return hash;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import woodlouse.crypto.IntegratedEncryption;
+import woodlouse.crypto.KeyPair;
+import woodlouse.crypto.util.DeterministicSecureRandom;
+
+/**
+ * Key generation and encryption from many threads at once. Both multiply the
+ * generator {@code G} of a domain, a single {@code ECPoint} instance shared by
+ * all threads, so any lock on it would serialize them.
+ * <p>
+ * The scaling test depends on the machine and its load, so it only runs with
+ * {@code -Dscaling.test=true}, and not on a single processor. It encrypts
+ * for 1, 2, 4, ... up to all available processors (or
+ * {@code -Dscaling.threads=N}) threads, for {@code -Dscaling.millis}
+ * (default 1000) ms each, and fails if the throughput on all threads is less
+ * than half of linear. The failure message holds the throughput table.
+ */
+public class ConcurrentScalingTest {
+
+   private static final int KEY_SIZE = 256;
+   private static final byte[] MESSAGE = new byte[64];
+
+   private final IntegratedEncryption provider = ECIntegratedEncryptionProvider.create();
+
+   @Test
+   public void concurrentKeyGenerationMatchesSequential() throws Exception {
+      final int count = 64;
+      final byte[][] expected = new byte[count][];
+      for (int i = 0; i < count; i++) {
+         expected[i] = newKeyPair(i).getReceiverPublic().getEncoded();
+      }
+
+      final int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+         final CountDownLatch start = new CountDownLatch(1);
+         final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+         for (int i = 0; i < count; i++) {
+            final int seed = i;
+            results.add(executor.submit(new Callable<byte[]>() {
+               public byte[] call() throws Exception {
+                  start.await();
+                  return newKeyPair(seed).getReceiverPublic().getEncoded();
+               }
+            }));
+         }
+         start.countDown();
+         for (int i = 0; i < count; i++) {
+            Assert.assertTrue("key pair " + i, Arrays.equals(expected[i], results.get(i).get()));
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void encryptionThroughputScales() throws Exception {
+      Assume.assumeTrue(Boolean.getBoolean("scaling.test"));
+      final int maxThreads = Integer.getInteger("scaling.threads", Runtime.getRuntime().availableProcessors());
+      Assume.assumeTrue(maxThreads > 1);
+      final long millis = Long.getLong("scaling.millis", 1000L);
+      final KeyPair receiver = newKeyPair(-1);
+
+      // warm up (and build the comb table of G) on one thread
+      measure(1, millis, receiver);
+
+      final List<Integer> steps = new ArrayList<Integer>();
+      for (int threads = 1; threads < maxThreads; threads *= 2) {
+         steps.add(threads);
+      }
+      steps.add(maxThreads);
+
+      final StringBuilder table = new StringBuilder("efficiency on " + maxThreads + " threads below 0.5");
+      double single = 0;
+      double efficiency = 0;
+      for (final int threads : steps) {
+         final double opsPerSecond = measure(threads, millis, receiver);
+         if (threads == 1) {
+            single = opsPerSecond;
+         }
+         efficiency = opsPerSecond / (single * threads);
+         table.append(String.format("%n%3d threads : %9.1f encryptions/s, speedup %5.2f, efficiency %4.2f",
+               threads, opsPerSecond, opsPerSecond / single, efficiency));
+      }
+      Assert.assertTrue(table.toString(), efficiency >= 0.5);
+   }
+
+   /**
+    * Encrypt on {@code threads} threads for about {@code millis} ms.
+    *
+    * @return the number of encryptions per second, over all threads.
+    */
+   private double measure(final int threads, final long millis, final KeyPair receiver) throws Exception {
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+         final CountDownLatch start = new CountDownLatch(1);
+         final long[] deadline = new long[1];
+         final List<Future<Long>> counts = new ArrayList<Future<Long>>();
+         for (int i = 0; i < threads; i++) {
+            counts.add(executor.submit(new Callable<Long>() {
+               public Long call() throws Exception {
+                  start.await();
+                  long n = 0;
+                  while (System.nanoTime() < deadline[0]) {
+                     provider.encryptEphemeral(MESSAGE, receiver.getReceiverPublic());
+                     n++;
+                  }
+                  return n;
+               }
+            }));
+         }
+         final long begin = System.nanoTime();
+         deadline[0] = begin + TimeUnit.MILLISECONDS.toNanos(millis);
+         start.countDown();
+         long total = 0;
+         for (final Future<Long> count : counts) {
+            total += count.get();
+         }
+         return total * 1e9 / (System.nanoTime() - begin);
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   private KeyPair newKeyPair(final int seed) {
+      return provider.createNewKeyPair(KEY_SIZE, new DeterministicSecureRandom("scaling" + seed, 128));
+   }
+}
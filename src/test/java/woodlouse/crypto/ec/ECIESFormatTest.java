@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bouncycastle.util.encoders.Hex;
+import woodlouse.crypto.IntegratedEncryption;
+import woodlouse.crypto.InvalidCipherBytesException;
+import woodlouse.crypto.KeyPair;
+import woodlouse.crypto.util.DeterministicSecureRandom;
+
+/**
+ * The ECIES message formats: {@code V || C || T} with AES-CFB-8 written by
+ * earlier versions, and {@code SUITE_AES_CTR || V || C || T} with AES-CTR.
+ */
+public class ECIESFormatTest {
+
+   // written by the version before the cipher suite byte (brainpoolP256r1)
+   private static final String LEGACY_CURVE = "1.3.36.3.3.2.8.1.1.7 (256 bit)";
+   private static final BigInteger LEGACY_D = new BigInteger(
+         "8258a7fadfbb038a873938909ce612a29d338e36d456ab23883396dc04d60b03", 16);
+   private static final byte[] LEGACY_PLAIN = ascii("a message in the legacy CFB-8 format");
+   private static final byte[] LEGACY_CIPHER = Hex.decode("039b23108bf66eb6ba3570af662b78d06e262e9a8d3cc7d12338ab5b"
+         + "316213a6afcd1a48ff4947fe92be8487627f6eb08b0e8f88ccbff2d4dc6d2887a008d4403019e70ea8803103f51577a040e2"
+         + "23a05c42e75a3cf50cef3648a9e54a501841a0f29c687d");
+
+   private final IntegratedEncryption provider = ECIntegratedEncryptionProvider.create();
+   private final ECIESPrivateKey legacyKey = new PrivateKeyImpl(LEGACY_D, LEGACY_CURVE);
+
+   @Test
+   public void legacyMessageDecrypts() throws IOException {
+      Assert.assertArrayEquals(LEGACY_PLAIN, provider.decryptEphemeral(LEGACY_CIPHER, legacyKey));
+
+      final byte[] out = new byte[provider.getDecryptOutputSize(LEGACY_CIPHER.length, legacyKey)];
+      final int length = provider.decryptEphemeral(LEGACY_CIPHER, 0, LEGACY_CIPHER.length, legacyKey, out, 0);
+      Assert.assertArrayEquals(LEGACY_PLAIN, Arrays.copyOf(out, length));
+
+      final ByteBuffer buffer = ByteBuffer.allocate(out.length);
+      provider.decryptEphemeral(ByteBuffer.wrap(LEGACY_CIPHER), legacyKey, buffer);
+      buffer.flip();
+      final byte[] fromBuffer = new byte[buffer.remaining()];
+      buffer.get(fromBuffer);
+      Assert.assertArrayEquals(LEGACY_PLAIN, fromBuffer);
+
+      Assert.assertArrayEquals(LEGACY_PLAIN, decryptStream(LEGACY_CIPHER, legacyKey));
+   }
+
+   @Test
+   public void newFormatRoundTrip() throws IOException {
+      final KeyPair keyPair = provider.createNewKeyPair(256, new DeterministicSecureRandom("format", 128));
+      for (final int length : new int[] { 0, 1, 15, 16, 17, 1000 }) {
+         final byte[] plain = new byte[length];
+         new DeterministicSecureRandom("plain" + length, length).nextBytes(plain);
+
+         final byte[] cipher = provider.encryptEphemeral(plain, keyPair.getReceiverPublic());
+         Assert.assertEquals(ECIESParams.SUITE_AES_CTR, cipher[0]);
+         Assert.assertArrayEquals(plain, provider.decryptEphemeral(cipher, keyPair.getReceiverPrivate()));
+
+         final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         final OutputStream out = provider.encryptingStream(bytes, keyPair.getReceiverPublic());
+         out.write(plain);
+         out.close();
+         Assert.assertEquals(ECIESParams.SUITE_AES_CTR, bytes.toByteArray()[0]);
+         Assert.assertArrayEquals(plain, decryptStream(bytes.toByteArray(), keyPair.getReceiverPrivate()));
+      }
+   }
+
+   @Test
+   public void strippedSuiteByteIsRejected() {
+      final KeyPair keyPair = provider.createNewKeyPair(256, new DeterministicSecureRandom("strip", 128));
+      final byte[] cipher = provider.encryptEphemeral(LEGACY_PLAIN, keyPair.getReceiverPublic());
+      // what is left is a well-formed legacy message, but under other keys
+      assertRejected(Arrays.copyOfRange(cipher, 1, cipher.length), keyPair.getReceiverPrivate());
+   }
+
+   @Test
+   public void flippedSuiteByteIsRejected() {
+      final KeyPair keyPair = provider.createNewKeyPair(256, new DeterministicSecureRandom("flip", 128));
+      final byte[] cipher = provider.encryptEphemeral(LEGACY_PLAIN, keyPair.getReceiverPublic());
+      for (int bit = 0; bit < 8; bit++) {
+         final byte[] flipped = cipher.clone();
+         flipped[0] ^= 1 << bit;
+         assertRejected(flipped, keyPair.getReceiverPrivate());
+      }
+   }
+
+   @Test
+   public void suiteByteAddedToLegacyMessageIsRejected() {
+      final byte[] upgraded = new byte[1 + LEGACY_CIPHER.length];
+      upgraded[0] = ECIESParams.SUITE_AES_CTR;
+      System.arraycopy(LEGACY_CIPHER, 0, upgraded, 1, LEGACY_CIPHER.length);
+      assertRejected(upgraded, legacyKey);
+   }
+
+   private void assertRejected(final byte[] cipher, final ECIESPrivateKey key) {
+      try {
+         provider.decryptEphemeral(cipher, key);
+         Assert.fail("accepted " + new String(Hex.encode(cipher)));
+      } catch (InvalidCipherBytesException e) {
+         // expected
+      }
+   }
+
+   private byte[] decryptStream(final byte[] cipher, final ECIESPrivateKey key) throws IOException {
+      final InputStream in = provider.decryptingStream(new ByteArrayInputStream(cipher), key);
+      final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[100];
+      int length;
+      while ((length = in.read(buffer)) != -1) {
+         plain.write(buffer, 0, length);
+      }
+      in.close();
+      return plain.toByteArray();
+   }
+
+   private static byte[] ascii(final String s) {
+      final byte[] bytes = new byte[s.length()];
+      for (int i = 0; i < bytes.length; i++) {
+         bytes[i] = (byte) s.charAt(i);
+      }
+      return bytes;
+   }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.ec;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelRangesTest {
+
+   private static final int SIZE = 1000;
+
+   private final ExecutorService executor = Executors.newFixedThreadPool(1);
+
+   @After
+   public void shutdown() {
+      executor.shutdownNow();
+   }
+
+   @Test
+   public void everyItemRunsOnce() {
+      final AtomicIntegerArray runs = new AtomicIntegerArray(SIZE);
+      ParallelRanges.run(SIZE, executor, new ParallelRanges.Range() {
+         public void run(final int from, final int to) {
+            for (int i = from; i < to; i++) {
+               runs.incrementAndGet(i);
+            }
+         }
+      });
+      for (int i = 0; i < SIZE; i++) {
+         Assert.assertEquals("item " + i, 1, runs.get(i));
+      }
+   }
+
+   @Test(timeout = 10000)
+   public void callerOnTheExecutorDoesNotDeadlock() throws Exception {
+      final AtomicInteger items = new AtomicInteger();
+      // the only thread of the executor waits for the shares it submitted
+      final Future<?> outer = executor.submit(new Runnable() {
+         public void run() {
+            ParallelRanges.run(SIZE, executor, new ParallelRanges.Range() {
+               public void run(final int from, final int to) {
+                  items.addAndGet(to - from);
+               }
+            });
+         }
+      });
+      outer.get();
+      Assert.assertEquals(SIZE, items.get());
+   }
+
+   @Test
+   public void failureCancelsTheSharesNotStarted() throws Exception {
+      final AtomicInteger running = new AtomicInteger();
+      final AtomicInteger shares = new AtomicInteger();
+      final IllegalStateException failure = new IllegalStateException("share failed");
+      try {
+         ParallelRanges.run(SIZE, executor, new ParallelRanges.Range() {
+            public void run(final int from, final int to) {
+               running.incrementAndGet();
+               try {
+                  shares.incrementAndGet();
+                  if (to == SIZE) {
+                     throw failure;
+                  }
+               } finally {
+                  running.decrementAndGet();
+               }
+            }
+         });
+         Assert.fail();
+      } catch (IllegalStateException e) {
+         Assert.assertSame(failure, e);
+      }
+      Assert.assertEquals("a share is still running", 0, running.get());
+      final int started = shares.get();
+      executor.shutdown();
+      Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+      Assert.assertEquals("a share started after the failure", started, shares.get());
+   }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.jnacl.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bouncycastle.util.encoders.Hex;
+
+/**
+ * X25519 known answers from RFC 7748 (sections 5.2 and 6.1), which are also
+ * the keys of the NaCl box tests. Unlike RFC 7748, NaCl does not ignore the
+ * top bit of {@code u} but reduces all 256 bits modulo p, and so does
+ * {@link Curve25519}. Multiples of the base point come from the Edwards
+ * table, and have to match the ladder.
+ */
+public class Curve25519Test {
+
+   private static final byte[] ALICE_SK = Hex.decode("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+   private static final byte[] ALICE_PK = Hex.decode("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a");
+   private static final byte[] BOB_SK = Hex.decode("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+   private static final byte[] BOB_PK = Hex.decode("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f");
+   private static final byte[] SHARED = Hex.decode("4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742");
+
+   @Test
+   public void rfc7748Vectors() {
+      assertScalarmult("c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552",
+            "a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4",
+            "e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c");
+      // with the top bit of u, which RFC 7748 ignores, cleared
+      assertScalarmult("95cbde9476e8907d7aade45cb4b873f88b595a68799fa152e6f8f7647aac7957",
+            "4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d",
+            "e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a413");
+   }
+
+   @Test
+   public void rfc7748Iterated() {
+      byte[] k = basePoint();
+      byte[] u = basePoint();
+      for (int i = 1; i <= 1000; i++) {
+         final byte[] r = new byte[32];
+         Curve25519.crypto_scalarmult(r, k, u);
+         u = k;
+         k = r;
+         if (i == 1) {
+            Assert.assertEquals("422c8e7a6227d7bca1350b3e2bb7279f7897b87bb6854b783c60e80311ae3079", hex(k));
+         }
+      }
+      Assert.assertEquals("684cf59ba83309552800ef566f2f4d3c1c3887c49360e3875f2eb94d99532c51", hex(k));
+   }
+
+   @Test
+   public void nonCanonicalU() {
+      final String n = "4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d";
+      // the second RFC 7748 vector as it stands, top bit of u included
+      assertScalarmult("d5f33573c9f6b8129483acce1e2534e95d3c41af6b00d0d30437b87cada57e4a", n,
+            "e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a493");
+      // 2^256 - 1 is 37 modulo p
+      assertScalarmult(hex(scalarmult(Hex.decode(n), u(37))), n,
+            "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff");
+      // p + 9 is the base point
+      assertScalarmult(hex(scalarmult(Hex.decode(n), basePoint())), n,
+            "f6ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f");
+   }
+
+   @Test
+   public void rfc7748DiffieHellman() {
+      Assert.assertArrayEquals(ALICE_PK, scalarmult(ALICE_SK, basePoint()));
+      Assert.assertArrayEquals(BOB_PK, scalarmult(BOB_SK, basePoint()));
+      Assert.assertArrayEquals(SHARED, scalarmult(ALICE_SK, BOB_PK));
+      Assert.assertArrayEquals(SHARED, scalarmult(BOB_SK, ALICE_PK));
+   }
+
+   @Test
+   public void baseFromEdwardsTable() {
+      final byte[] q = new byte[32];
+      Assert.assertEquals(0, Curve25519.crypto_scalarmult_base(q, ALICE_SK));
+      Assert.assertArrayEquals(ALICE_PK, q);
+      Assert.assertEquals(0, Curve25519.crypto_scalarmult_base(q, BOB_SK));
+      Assert.assertArrayEquals(BOB_PK, q);
+   }
+
+   @Test
+   public void baseMatchesLadder() {
+      final Random random = new Random(25519);
+      final byte[] n = new byte[32];
+      final byte[] q = new byte[32];
+      for (int i = 0; i < 200; i++) {
+         switch (i) {
+         case 0:
+            Arrays.fill(n, (byte) 0);
+            break;
+         case 1:
+            Arrays.fill(n, (byte) 0xff);
+            break;
+         case 2:
+            // the clamped scalar 2^254 + 8
+            Arrays.fill(n, (byte) 0);
+            n[0] = 8;
+            break;
+         default:
+            random.nextBytes(n);
+         }
+         Curve25519.crypto_scalarmult_base(q, n);
+         Assert.assertArrayEquals("scalar " + hex(n), scalarmult(n, basePoint()), q);
+      }
+   }
+
+   private static void assertScalarmult(final String expected, final String n, final String p) {
+      Assert.assertEquals(expected, hex(scalarmult(Hex.decode(n), Hex.decode(p))));
+   }
+
+   private static byte[] scalarmult(final byte[] n, final byte[] p) {
+      final byte[] q = new byte[32];
+      Assert.assertEquals(0, Curve25519.crypto_scalarmult(q, n, p));
+      return q;
+   }
+
+   private static byte[] basePoint() {
+      return u(9);
+   }
+
+   private static byte[] u(final int small) {
+      final byte[] u = new byte[32];
+      u[0] = (byte) small;
+      return u;
+   }
+
+   private static String hex(final byte[] b) {
+      return new String(Hex.encode(b));
+   }
+}
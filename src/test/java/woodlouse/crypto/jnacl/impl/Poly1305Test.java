@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.jnacl.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bouncycastle.util.encoders.Hex;
+
+/**
+ * Poly1305 known answers from RFC 8439 (section 2.5.2 and the edge cases of
+ * appendix A.3), limbs at their maximum, and messages ending in an
+ * incomplete block. The incremental form must give the same MAC however the
+ * message is split.
+ */
+public class Poly1305Test {
+
+   private static final byte[] ALL_FF = new byte[1024];
+   static {
+      Arrays.fill(ALL_FF, (byte) 0xff);
+   }
+
+   @Test
+   public void rfc8439() {
+      assertMac("a8061dc1305136c6c22b8baf0c0127a9",
+            "85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b",
+            Hex.decode("43727970746f6772617068696320466f72756d2052657365617263682047726f7570"));
+   }
+
+   @Test
+   public void rfc8439EdgeCases() {
+      // #5: h is just beyond p
+      assertMac("03000000000000000000000000000000", key("02", "00"), Arrays.copyOf(ALL_FF, 16));
+      // #6: h + s wraps around 2^128
+      assertMac("03000000000000000000000000000000", key("02", "ffffffffffffffffffffffffffffffff"),
+            Hex.decode("02000000000000000000000000000000"));
+      // #7 to #9: h at or just beyond p before the final reduction
+      assertMac("05000000000000000000000000000000", key("01", "00"),
+            Hex.decode("fffffffffffffffffffffffffffffffff0ffffffffffffffffffffffffffffff"
+                  + "11000000000000000000000000000000"));
+      assertMac("00000000000000000000000000000000", key("01", "00"),
+            Hex.decode("fffffffffffffffffffffffffffffffffbfefefefefefefefefefefefefefefe"
+                  + "01010101010101010101010101010101"));
+      assertMac("faffffffffffffffffffffffffffffff", key("02", "00"),
+            Hex.decode("fdffffffffffffffffffffffffffffff"));
+   }
+
+   @Test
+   public void allOnes() {
+      // the largest clamped r, s and message limbs
+      final String k = "ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff";
+      assertMac("fbffff17faffff17faffff17faffff17", k, Arrays.copyOf(ALL_FF, 16));
+      assertMac("900f0bfaca5fd0a5c6a817b3d1e3a687", k, Arrays.copyOf(ALL_FF, 63));
+      assertMac("900fe32bc15fa8d7bca8efe4c7e37eb1", k, Arrays.copyOf(ALL_FF, 64));
+      assertMac("de9406b10e7023bcd692ff687f4cbc7f", k, Arrays.copyOf(ALL_FF, 1000));
+      assertMac("25d4926a53bb480da228ec61e0a31a38", k, ALL_FF);
+   }
+
+   @Test
+   public void incompleteLastBlock() {
+      final String k = "0102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f20";
+      final int[] lengths = { 0, 1, 15, 16, 17, 31, 33, 63, 64, 65 };
+      final String[] macs = { "1112131415161718191a1b1c1d1e1f20", "911396181b1ca0222526aa2c2f30b436",
+            "2fa9ad2ecc30208b115e3485f020f2e1", "928179fcfcd6b92610d29beebc620f70",
+            "ca46a3962de69d1063447835b8e1ecc4", "5aa14f211bebcdf886578dd86b5890b6",
+            "786df6924403a880375ab12867ed7356", "efda0628036b3d0ac74447b92fc739a6",
+            "cf67c3e69cb6b8871f4f81f546905a64", "a069cc71599f8092393208793fc41f01" };
+      for (int i = 0; i < lengths.length; i++) {
+         final byte[] m = new byte[lengths[i]];
+         for (int j = 0; j < m.length; j++) {
+            m[j] = (byte) (0x80 + j);
+         }
+         assertMac(macs[i], k, m);
+      }
+   }
+
+   @Test
+   public void incrementalMatchesOneShot() {
+      final Random random = new Random(1305);
+      final byte[] k = new byte[32];
+      final byte[] expected = new byte[16];
+      final byte[] mac = new byte[16];
+      final Poly1305 poly = new Poly1305();
+      for (int i = 0; i < 500; i++) {
+         random.nextBytes(k);
+         final byte[] m = new byte[random.nextInt(300)];
+         random.nextBytes(m);
+         Poly1305.crypto_onetimeauth(expected, 0, m, 0, m.length, k);
+
+         // one instance for all messages, each split at random
+         poly.init(k, 0);
+         int off = 0;
+         while (off < m.length) {
+            final int n = Math.min(m.length - off, random.nextInt(40));
+            poly.update(m, off, n);
+            off += n;
+         }
+         poly.finish(mac, 0);
+         Assert.assertArrayEquals("message " + i, expected, mac);
+      }
+   }
+
+   @Test
+   public void verify() {
+      final byte[] k = Hex.decode("85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b");
+      final byte[] m = new byte[40];
+      System.arraycopy(Hex.decode("43727970746f6772617068696320466f72756d2052657365617263682047726f7570"), 0, m,
+            3, 34);
+      final byte[] h = new byte[20];
+      System.arraycopy(Hex.decode("a8061dc1305136c6c22b8baf0c0127a9"), 0, h, 4, 16);
+      Assert.assertEquals(0, Poly1305.crypto_onetimeauth_verify(h, 4, m, 3, 34, k));
+      h[4 + 15] ^= 1;
+      Assert.assertEquals(-1, Poly1305.crypto_onetimeauth_verify(h, 4, m, 3, 34, k));
+   }
+
+   private static String key(final String r, final String s) {
+      return pad(r) + pad(s);
+   }
+
+   private static String pad(final String half) {
+      final StringBuilder padded = new StringBuilder(half);
+      while (padded.length() < 32) {
+         padded.append('0');
+      }
+      return padded.toString();
+   }
+
+   private static void assertMac(final String expected, final String k, final byte[] m) {
+      final byte[] mac = new byte[16];
+      Assert.assertEquals(0, Poly1305.crypto_onetimeauth(mac, 0, m, 0, m.length, Hex.decode(k)));
+      Assert.assertEquals(expected, new String(Hex.encode(mac)));
+   }
+}
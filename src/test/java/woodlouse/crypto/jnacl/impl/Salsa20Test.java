@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.jnacl.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bouncycastle.util.encoders.Hex;
+
+/**
+ * XSalsa20 known answers from the NaCl tests (stream3 and the SHA-256 of the
+ * 4 MiB stream), and every way of reaching the keystream, at lengths on and
+ * off the 64-byte block and the 256-byte four-block boundaries.
+ */
+public class Salsa20Test {
+
+   private static final byte[] FIRSTKEY = Hex.decode("1b27556473e985d462cd51197a9a46c76009549eac6474f206c4ee0844f68389");
+   private static final byte[] NONCE = Hex.decode("69696ee955b62b73cd62bda875fc73d68219e0036b7a0b37");
+
+   private static final int[] LENGTHS = { 0, 1, 63, 64, 65, 127, 128, 129, 191, 192, 193, 255, 256, 257, 319, 320,
+         511, 512, 513, 1000 };
+
+   // the first 1000 bytes of the keystream, checked by naclStream
+   private static final byte[] STREAM = Arrays.copyOf(stream(4194304), 1000);
+
+   @Test
+   public void naclStream() throws NoSuchAlgorithmException {
+      Assert.assertEquals("662b9d0e3463029156069b12f918691a98f7dfb2ca0393c96bbfc6b1fbd630a2", sha256(stream(4194304)));
+   }
+
+   @Test
+   public void naclStream3() {
+      final byte[] c = new byte[32];
+      Assert.assertEquals(0, XSalsa20.crypto_stream(c, c.length, NONCE, FIRSTKEY));
+      Assert.assertEquals("eea6a7251c1e72916d11c2cb214d3c252539121d8e234e652d651fa4c8cff880", new String(Hex.encode(c)));
+   }
+
+   @Test
+   public void shortStreamsArePrefixes() {
+      for (final int length : LENGTHS) {
+         final byte[] c = new byte[length];
+         XSalsa20.crypto_stream(c, length, NONCE, FIRSTKEY);
+         Assert.assertArrayEquals("length " + length, Arrays.copyOf(STREAM, length), c);
+      }
+   }
+
+   @Test
+   public void xorAtOffsets() {
+      final Random random = new Random(20);
+      for (final int length : LENGTHS) {
+         final byte[] m = new byte[length + 7];
+         random.nextBytes(m);
+         final byte[] c = new byte[length + 5];
+         XSalsa20.crypto_stream_xor(c, 5, m, 7, length, NONCE, FIRSTKEY);
+         for (int i = 0; i < length; i++) {
+            Assert.assertEquals("length " + length + ", byte " + i, STREAM[i] ^ m[7 + i], c[5 + i]);
+         }
+
+         // in place
+         XSalsa20.crypto_stream_xor(m, 7, m, 7, length, NONCE, FIRSTKEY);
+         Assert.assertArrayEquals("in place, length " + length, Arrays.copyOfRange(c, 5, 5 + length),
+               Arrays.copyOfRange(m, 7, 7 + length));
+      }
+   }
+
+   @Test
+   public void initialCounter() {
+      final byte[] subkey = new byte[32];
+      HSalsa20.crypto_core(subkey, NONCE, FIRSTKEY, XSalsa20.sigma);
+      for (final int ic : new int[] { 0, 1, 3, 4, 5 }) {
+         for (final int length : LENGTHS) {
+            if (64 * ic + length > STREAM.length) {
+               continue;
+            }
+            final byte[] c = new byte[length];
+            Salsa20.crypto_stream_xor_ic(c, 0, new byte[length], 0, length, NONCE, 16, ic, subkey);
+            Assert.assertArrayEquals("block " + ic + ", length " + length,
+                  Arrays.copyOfRange(STREAM, 64 * ic, 64 * ic + length), c);
+         }
+      }
+   }
+
+   @Test
+   public void outputBeforeInput() {
+      final byte[] subkey = new byte[32];
+      HSalsa20.crypto_core(subkey, NONCE, FIRSTKEY, XSalsa20.sigma);
+      final byte[] b = new byte[16 + 600];
+      final byte[] m = new byte[600];
+      new Random(24).nextBytes(m);
+      System.arraycopy(m, 0, b, 16, m.length);
+      Salsa20.crypto_stream_xor_ic(b, 0, b, 16, m.length, NONCE, 16, 0, subkey);
+      for (int i = 0; i < m.length; i++) {
+         Assert.assertEquals("byte " + i, STREAM[i] ^ m[i], b[i]);
+      }
+   }
+
+   @Test
+   public void counterCarriesIntoHighWord() throws NoSuchAlgorithmException {
+      final byte[] k = new byte[32];
+      for (int i = 0; i < k.length; i++) {
+         k[i] = (byte) i;
+      }
+      final byte[] n = new byte[8];
+      for (int i = 0; i < n.length; i++) {
+         n[i] = (byte) (100 + i);
+      }
+      // blocks 2^32 - 2 to 2^32 + 2
+      final byte[] c = new byte[5 * 64];
+      Salsa20.crypto_stream_xor_ic(c, 0, new byte[c.length], 0, c.length, n, 0, 0xfffffffeL, k);
+      Assert.assertEquals("77f72c23e985d822f5d61b4927c185c9aa17aad576767c96cc031ef5e0cca522", sha256(c));
+   }
+
+   private static byte[] stream(final int length) {
+      final byte[] c = new byte[length];
+      XSalsa20.crypto_stream(c, length, NONCE, FIRSTKEY);
+      return c;
+   }
+
+   private static String sha256(final byte[] b) throws NoSuchAlgorithmException {
+      return new String(Hex.encode(MessageDigest.getInstance("SHA-256").digest(b)));
+   }
+}
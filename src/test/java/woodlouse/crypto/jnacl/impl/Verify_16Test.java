@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 SPZ
+ * http://www.opensource.org/licenses/mit-license.php
+ */
+package woodlouse.crypto.jnacl.impl;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tags that differ in any one of their 16 bytes, the last one in particular,
+ * must be rejected.
+ */
+public class Verify_16Test {
+
+   @Test
+   public void equalTagsVerify() {
+      final byte[] tag = tag();
+      Assert.assertEquals(0, Verify_16.crypto_verify(tag.clone(), 0, tag));
+   }
+
+   @Test
+   public void everyByteIsCompared() {
+      final byte[] tag = tag();
+      for (int i = 0; i < 16; i++) {
+         for (int bit = 0; bit < 8; bit++) {
+            final byte[] forged = tag.clone();
+            forged[i] ^= 1 << bit;
+            Assert.assertEquals("byte " + i + ", bit " + bit, -1, Verify_16.crypto_verify(forged, 0, tag));
+         }
+      }
+   }
+
+   @Test
+   public void tagIsReadAtOffset() {
+      final byte[] tag = tag();
+      final byte[] x = new byte[20];
+      System.arraycopy(tag, 0, x, 4, 16);
+      Assert.assertEquals(0, Verify_16.crypto_verify(x, 4, tag));
+      x[4 + 15] ^= 0x80;
+      Assert.assertEquals(-1, Verify_16.crypto_verify(x, 4, tag));
+   }
+
+   @Test
+   public void secretboxWithForgedLastTagByteIsRejected() {
+      final byte[] k = new byte[32];
+      final byte[] n = new byte[24];
+      for (int i = 0; i < k.length; i++) {
+         k[i] = (byte) (i + 1);
+      }
+      final byte[] m = new byte[100];
+      final byte[] c = new byte[16 + m.length];
+      XSalsa20Poly1305.crypto_secretbox_easy(c, 0, m, 0, m.length, n, k);
+
+      final byte[] opened = new byte[m.length];
+      Assert.assertEquals(0, XSalsa20Poly1305.crypto_secretbox_open_easy(opened, 0, c, 0, c.length, n, k));
+
+      c[15] ^= 1;
+      final byte[] untouched = new byte[m.length];
+      Arrays.fill(untouched, (byte) 0x5a);
+      final byte[] out = untouched.clone();
+      Assert.assertEquals(-1, XSalsa20Poly1305.crypto_secretbox_open_easy(out, 0, c, 0, c.length, n, k));
+      Assert.assertArrayEquals(untouched, out);
+   }
+
+   private static byte[] tag() {
+      final byte[] tag = new byte[16];
+      for (int i = 0; i < tag.length; i++) {
+         tag[i] = (byte) (0x31 * i + 7);
+      }
+      return tag;
+   }
+}